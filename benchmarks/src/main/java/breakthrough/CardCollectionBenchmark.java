@@ -0,0 +1,82 @@
+package breakthrough;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for shuffling, removing cards from and displaying a standard 38-card deck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardCollectionBenchmark {
+    /**
+     * "object" is the original ArrayList of cards, "packed" is {@link PackedCardCollection}
+     */
+    @Param({"object", "packed"})
+    public String collection;
+
+    private CardCollection deck;
+    private SplittableRandom rNoGen;
+
+    @Setup
+    public void setup() {
+        deck = collection.equals("packed") ? new PackedCardCollection("DECK") : new CardCollection("DECK");
+        String[] tools = {"P", "F", "K"};
+        String[] kits = {"a", "b", "c"};
+        int cardNumber = 1;
+        for (int count = 0; count < 33; count++) {
+            deck.addCard(new ToolCard(tools[count % 3], kits[count / 3 % 3], cardNumber++));
+        }
+        for (int count = 0; count < 5; count++) {
+            deck.addCard(new DifficultyCard(cardNumber++));
+        }
+        rNoGen = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public CardCollection shuffle() {
+        deck.shuffle(rNoGen);
+        return deck;
+    }
+
+    /**
+     * Removes the top card and puts it back at the bottom, as drawing from the deck does
+     */
+    @Benchmark
+    public Card removeTopCard() {
+        Card c = deck.removeCard(deck.getCardNumberAt(0));
+        deck.addCard(c);
+        return c;
+    }
+
+    /**
+     * Removes the bottom card, which is the slowest card to find, and puts it back
+     */
+    @Benchmark
+    public Card removeBottomCard() {
+        Card c = deck.removeCard(deck.getCardNumberAt(deck.getNumberOfCards() - 1));
+        deck.addCard(c);
+        return c;
+    }
+
+    @Benchmark
+    public String getCardDisplay() {
+        return deck.getCardDisplay();
+    }
+}
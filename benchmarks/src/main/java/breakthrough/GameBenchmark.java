@@ -0,0 +1,55 @@
+package breakthrough;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for a whole headless game played by {@link ScriptedPolicy}
+ * <p>
+ * Each invocation plays the next seed so the numbers average over many different deals
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+    private Breakthrough game;
+    private long seed;
+
+    @Setup
+    public void setup() {
+        game = new Breakthrough(new ScriptedPolicy());
+        seed = 0;
+    }
+
+    @Benchmark
+    public int playSeededGame() {
+        return game.playHeadless(seed++);
+    }
+
+    /**
+     * The same game driven through the step API, always taking the first legal action
+     */
+    @Benchmark
+    public int playSeededGameSteps() {
+        int[] actions = new int[10];
+        game.reset(seed++);
+        while (!game.isGameOver()) {
+            game.legalActions(actions);
+            game.apply(actions[0]);
+        }
+        return game.getScore();
+    }
+}
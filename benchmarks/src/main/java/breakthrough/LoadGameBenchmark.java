@@ -0,0 +1,54 @@
+package breakthrough;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for loading game1.txt, and the same game from a memory mapped {@link BinarySave}
+ * <p>
+ * Must be run from the project folder so that game1.txt and locks.txt are found
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadGameBenchmark {
+    private Breakthrough game;
+    private BinarySave save;
+
+    @Setup
+    public void setup() throws IOException {
+        game = new Breakthrough(new ScriptedPolicy());
+        game.loadGame("game1.txt");
+        File file = File.createTempFile("game1", ".bin");
+        file.deleteOnExit();
+        game.saveGame(file.getPath(), false);
+        save = BinarySave.map(file.getPath());
+    }
+
+    @Benchmark
+    public Breakthrough loadGame() {
+        game.loadGame("game1.txt");
+        return game;
+    }
+
+    @Benchmark
+    public Breakthrough loadBinaryGame() {
+        game.loadGame(save);
+        return game;
+    }
+}
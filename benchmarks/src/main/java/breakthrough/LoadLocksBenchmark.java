@@ -0,0 +1,112 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for loading locks.txt and large generated lock files, either as text or compiled into a {@link LockPack}
+ * <p>
+ * Must be run from the project folder so that locks.txt is found
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadLocksBenchmark {
+    /**
+     * 0 loads locks.txt, anything else loads a generated file with that many locks
+     */
+    @Param({"0", "10000", "100000"})
+    public int generatedLocks;
+
+    /**
+     * "text" loads the lock file, "pack" loads it once compiled into a lock pack
+     */
+    @Param({"text", "pack"})
+    public String format;
+
+    private Breakthrough game;
+    private String locksFile;
+    private Path generatedFile;
+    private Path packFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        game = new Breakthrough(new ScriptedPolicy());
+        if (generatedLocks == 0) {
+            locksFile = "locks.txt";
+        } else {
+            generatedFile = Files.createTempFile("locks", ".txt");
+            writeLocks(generatedFile, generatedLocks, new SplittableRandom(generatedLocks));
+            locksFile = generatedFile.toString();
+        }
+        if (format.equals("pack")) {
+            packFile = Files.createTempFile("locks", ".pack");
+            LockPack.compile(locksFile, packFile.toString());
+            locksFile = packFile.toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (generatedFile != null) {
+            Files.delete(generatedFile);
+        }
+        if (packFile != null) {
+            Files.delete(packFile);
+        }
+    }
+
+    /**
+     * Writes a file of random locks in the same format as locks.txt: 1-5 challenges of 1-3 cards each
+     */
+    static void writeLocks(Path file, int numberOfLocks, SplittableRandom rNoGen) throws IOException {
+        String tools = "PFK";
+        String kits = "abc";
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int lock = 0; lock < numberOfLocks; lock++) {
+                StringBuilder line = new StringBuilder();
+                int challenges = 1 + rNoGen.nextInt(5);
+                for (int challenge = 0; challenge < challenges; challenge++) {
+                    if (challenge > 0) {
+                        line.append(';');
+                    }
+                    int cards = 1 + rNoGen.nextInt(3);
+                    for (int card = 0; card < cards; card++) {
+                        if (card > 0) {
+                            line.append(',');
+                        }
+                        line.append(tools.charAt(rNoGen.nextInt(3))).append(' ').append(kits.charAt(rNoGen.nextInt(3)));
+                    }
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    @Benchmark
+    public Breakthrough loadLocks() {
+        game.LoadLocks(locksFile);
+        return game;
+    }
+}
@@ -0,0 +1,78 @@
+package breakthrough;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for checking a sequence against a lock and displaying the lock
+ * <p>
+ * The lock is the one in game1.txt; the sequence never meets a challenge so every check does the full amount of work
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+    private Lock lock;
+    private int state;
+
+    @Setup
+    public void setup() {
+        lock = new Lock();
+        lock.addChallenge(Arrays.asList("P a", "F a", "P a"));
+        lock.addChallenge(Arrays.asList("K b"));
+        lock.addChallenge(Arrays.asList("P c", "F b", "P a"));
+        lock.addChallenge(Arrays.asList("K a"));
+        lock.setChallengeMet(1, true);
+        lock.setChallengeMet(3, true);
+        lock.compile();
+        // The state after the sequence "P a, F a"
+        state = ChallengeMatcher.START_STATE;
+        state = lock.getMatcher().next(state, CardCode.getFace("P a"));
+        state = lock.getMatcher().next(state, CardCode.getFace("F a"));
+    }
+
+    /**
+     * The original check: builds the last three cards of the sequence as strings and compares them to each challenge
+     */
+    @Benchmark
+    public boolean checkIfConditionMetString() {
+        String sequenceAsString = "";
+        String[] lastCards = {"K c", "P a", "F a"};
+        boolean met = false;
+        for (int count = lastCards.length - 1; count >= 0 && !met; count--) {
+            if (sequenceAsString.length() > 0) {
+                sequenceAsString = ", " + sequenceAsString;
+            }
+            sequenceAsString = lastCards[count] + sequenceAsString;
+            met = lock.checkIfConditionMet(sequenceAsString);
+        }
+        return met;
+    }
+
+    /**
+     * The compiled check: one transition and a look at the challenges which end at the new state
+     */
+    @Benchmark
+    public boolean checkIfConditionMetCompiled() {
+        return lock.checkIfConditionMet(lock.getMatcher().next(state, CardCode.getFace("F b")));
+    }
+
+    @Benchmark
+    public String getLockDetails() {
+        return lock.getLockDetails();
+    }
+}
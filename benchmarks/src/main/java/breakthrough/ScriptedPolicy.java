@@ -0,0 +1,47 @@
+package breakthrough;
+
+/**
+ * A fixed, allocation free policy for benchmarking
+ * <p>
+ * Always uses a card, works through the hand in turn, plays the card if the last card in the sequence
+ * allows it and discards it otherwise, and discards five cards from the deck on a difficulty
+ */
+class ScriptedPolicy implements Policy {
+    private final int[] actions = new int[10];
+    private int nextCard = 0;
+
+    @Override
+    public String getChoice(Breakthrough game) {
+        return "U";
+    }
+
+    @Override
+    public int getCardChoice(Breakthrough game) {
+        // Every card in the hand can be discarded, so the discard actions give the size of the hand
+        int numberOfActions = game.legalActions(actions);
+        int handSize = 0;
+        for (int count = 0; count < numberOfActions; count++) {
+            if (Action.getKind(actions[count]) == Action.DISCARD) {
+                handSize++;
+            }
+        }
+        nextCard = nextCard % handSize + 1;
+        return nextCard;
+    }
+
+    @Override
+    public String getDiscardOrPlayChoice(Breakthrough game, int cardChoice) {
+        int numberOfActions = game.legalActions(actions);
+        for (int count = 0; count < numberOfActions; count++) {
+            if (actions[count] == Action.play(cardChoice)) {
+                return "P";
+            }
+        }
+        return "D";
+    }
+
+    @Override
+    public String getDifficultyChoice(Breakthrough game) {
+        return "D";
+    }
+}
@@ -1,47 +1,185 @@
 package breakthrough;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
 
 /**
  * Class for use in the 2022 AQA exam for students using Java.
  *
  * write and writeLine are the exact equivalents of print and println.
+ * <p>
+ * Output is buffered and only written out when input is read or {@link Console#flush()} is called,
+ * so a whole turn of the game reaches the terminal in one write.
+ * <p>
+ * Input is read through one shared reader so that lines piped in or read from a script
+ * are never lost between prompts.
+ * <p>
+ * Every thread uses the standard input and output unless it has been given its own with
+ * {@link Console#attach(Reader, Writer)}, e.g. a thread serving one player of a {@link GameServer}.
+ * The standard output has a large buffer so that a whole game piped through it is written in few calls,
+ * an attached stream has a small one as there may be thousands of them.
  *
  */
 class Console {
 
-    public Console() {
-    }// end of constructor 
+    private static final int STANDARD_BUFFER_SIZE = 1 << 16;
+    private static final int ATTACHED_BUFFER_SIZE = 1 << 10;
+    private static final Console STANDARD = new Console(new InputStreamReader(System.in), new OutputStreamWriter(System.out), STANDARD_BUFFER_SIZE);
+    private static final ThreadLocal<Console> current = ThreadLocal.withInitial(() -> STANDARD);
+
+    private final PrintWriter out;
+    private BufferedReader in;
+    private boolean echoPrompts = true;
+    private boolean summaryOnly = false;
+    private boolean endOfInput = false;
+
+    /**
+     * Constructor for a Console reading from and writing to the given streams
+     *
+     * @param in         the stream to read lines from, null for a console which has no input
+     * @param out        the stream to write to
+     * @param bufferSize the number of characters held before they are written out
+     */
+    private Console(Reader in, Writer out, int bufferSize) {
+        this.in = in == null ? null : new BufferedReader(in);
+        this.out = new PrintWriter(new BufferedWriter(out, bufferSize));
+    }// end of constructor
+
+    /**
+     * Reads and writes the following lines of this thread through the given streams instead of the standard ones
+     *
+     * @param in  the stream to read lines from
+     * @param out the stream to write to
+     */
+    public static void attach(Reader in, Writer out) {
+        current.set(new Console(in, out, ATTACHED_BUFFER_SIZE));
+    } // end method attach
+
+    /**
+     * Writes the following output of this thread to the given stream instead of the standard output,
+     * for a thread which reads its input itself
+     * <br>
+     * {@link Console#readLine()} then finds the input has run out straight away
+     *
+     * @param out the stream to write to
+     */
+    public static void attach(Writer out) {
+        current.set(new Console(null, out, ATTACHED_BUFFER_SIZE));
+    } // end method attach
+
+    /**
+     * Writes out anything left for this thread and goes back to the standard input and output
+     */
+    public static void detach() {
+        flush();
+        current.remove();
+    } // end method detach
 
     /**
      *
-     * @return the line entered from the console as a string
+     * @return the line entered from the console as a string, an empty string once the input has run out
      */
     public static String readLine() {
+        Console c = current.get();
         String input = "";
-        InputStreamReader isr = new InputStreamReader(System.in);
-        BufferedReader br = new BufferedReader(isr);
+        // Everything written so far has to be seen before the user can answer
+        flush();
         try {
 
-            input = br.readLine();
+            input = c.in == null ? null : c.in.readLine();
 
         } catch (IOException ioe) {
             println("IO Error reading from command line.");
         } // end try/catch
+        if (input == null) {
+            c.endOfInput = true;
+            input = "";
+        }
         return input;
 
     } // end method readLine
 
+    /**
+     * Reads the following lines from the given reader instead, e.g. a script of moves
+     *
+     * @param r the reader to read lines from
+     */
+    public static void setInput(Reader r) {
+        Console c = current.get();
+        c.in = new BufferedReader(r);
+        c.endOfInput = false;
+    } // end method setInput
+
+    /**
+     * Returns true once {@link Console#readLine()} has reached the end of the input
+     *
+     * @return true if there is no more input, false otherwise
+     */
+    public static boolean isEndOfInput() {
+        return current.get().endOfInput;
+    } // end method isEndOfInput
+
+    /**
+     * Turns the printing of prompts on or off, e.g. off when the answers come from a script
+     *
+     * @param echo true to print prompts, false otherwise
+     */
+    public static void setEchoPrompts(boolean echo) {
+        current.get().echoPrompts = echo;
+    } // end method setEchoPrompts
+
+    /**
+     * Turns summary only output on or off
+     * <br>
+     * When it is on, only {@link Console#writeSummary(Object)} prints anything
+     *
+     * @param summary true to only print summaries, false otherwise
+     */
+    public static void setSummaryOnly(boolean summary) {
+        current.get().summaryOnly = summary;
+    } // end method setSummaryOnly
+
+    /**
+     * The prompt is printed to the console unless prompts have been turned off
+     *
+     * @param o the prompt to be printed to the console.
+     */
+    public static void prompt(Object o) {
+        if (current.get().echoPrompts) {
+            print(o);
+        }
+    } // end method prompt
+
+    /**
+     * The parameter is printed to the console followed by a new line character, only in summary only mode
+     *
+     * @param o the summary to be printed to the console.
+     */
+    public static void writeSummary(Object o) {
+        Console c = current.get();
+        if (c.summaryOnly) {
+            c.out.println(String.valueOf(o));
+        }
+    } // end method writeSummary
+
     /**
      * The parameter is printed to the console
      *
      * @param o the object to be printed to the console.
      */
     public static void print(Object o) {
+        Console c = current.get();
+        if (c.summaryOnly) {
+            return;
+        }
         String output = String.valueOf(o);
-        System.out.print(output);
+        c.out.print(output);
     } // end method print
 
     /**
@@ -57,8 +195,12 @@ class Console {
      * @param o the object to be printed to the console.
      */
     public static void println(Object o) {
+        Console c = current.get();
+        if (c.summaryOnly) {
+            return;
+        }
         String output = String.valueOf(o);
-        System.out.println(output);
+        c.out.println(output);
     } // end method println
 
     /**
@@ -94,7 +236,18 @@ class Console {
      * @param args
      */
     public static void printf(String format, Object args) {
-        System.out.printf(format, args);
+        Console c = current.get();
+        if (c.summaryOnly) {
+            return;
+        }
+        c.out.printf(format, args);
     } // end method printf
 
+    /**
+     * Writes out everything which has been printed since the last flush
+     */
+    public static void flush() {
+        current.get().out.flush();
+    } // end method flush
+
 } // end class AQAConsole2022
@@ -0,0 +1,140 @@
+package breakthrough;
+
+import java.util.SplittableRandom;
+
+/**
+ * Base class for bots which choose between the legal actions of the game rather than answering each prompt
+ * <p>
+ * The action is chosen when the card is asked for and the answers to the later prompts follow from it,
+ * so none of the answers create any objects.
+ */
+abstract class ActionPolicy implements Policy {
+    private static final String[] POSITIONS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+    protected final int[] actions = new int[Action.MAX_LEGAL_ACTIONS];
+    private int chosenAction;
+
+    /**
+     * Chooses one of the legal actions
+     *
+     * @param game            the game being played
+     * @param actions         the legal actions
+     * @param numberOfActions the number of legal actions, always at least one
+     * @return the chosen action
+     */
+    protected abstract int chooseAction(Breakthrough game, int[] actions, int numberOfActions);
+
+    /**
+     * Creates a bot by name
+     *
+     * @param name   the name of the bot: random or greedy
+     * @param stream the random number generator for bots which need one
+     * @return the bot
+     * @throws IllegalArgumentException if there is no bot with that name
+     */
+    public static ActionPolicy create(String name, SplittableRandom stream) {
+        switch (name) {
+            case "random":
+                return new RandomPolicy(stream);
+            case "greedy":
+                return new GreedyPolicy();
+            default:
+                throw new IllegalArgumentException("Unknown policy: " + name);
+        }
+    }
+
+    @Override
+    public String getChoice(Breakthrough game) {
+        return "U";
+    }
+
+    @Override
+    public int getCardChoice(Breakthrough game) {
+        chosenAction = chooseAction(game, actions, game.legalActions(actions));
+        return Action.getPosition(chosenAction);
+    }
+
+    @Override
+    public String getDiscardOrPlayChoice(Breakthrough game, int cardChoice) {
+        return Action.getKind(chosenAction) == Action.PLAY ? "P" : "D";
+    }
+
+    @Override
+    public String getDifficultyChoice(Breakthrough game) {
+        int action = chooseAction(game, actions, game.legalActions(actions));
+        if (Action.getKind(action) == Action.LOSE_KEY) {
+            return POSITIONS[Action.getPosition(action)];
+        }
+        return "D";
+    }
+}
+
+class RandomPolicy extends ActionPolicy {
+    private SplittableRandom rNoGen;
+
+    /**
+     * Constructor for a RandomPolicy
+     *
+     * @param stream the random number generator to choose with
+     */
+    public RandomPolicy(SplittableRandom stream) {
+        rNoGen = stream;
+    }
+
+    /**
+     * Chooses any of the legal actions, all equally likely
+     */
+    @Override
+    protected int chooseAction(Breakthrough game, int[] actions, int numberOfActions) {
+        return actions[rNoGen.nextInt(numberOfActions)];
+    }
+}
+
+class GreedyPolicy extends ActionPolicy {
+
+    /**
+     * Chooses the action which does the most for the current lock straight away
+     * <p>
+     * A play which meets a challenge comes first, then the play which leaves the longest start of a condition
+     * at the end of the sequence, then the highest scoring card. A card is only discarded if nothing can be played,
+     * picks before files before keys. A difficulty is dealt with by losing a key rather than five cards from the deck.
+     */
+    @Override
+    protected int chooseAction(Breakthrough game, int[] actions, int numberOfActions) {
+        Lock lock = game.getCurrentLock();
+        ChallengeMatcher matcher = lock.getMatcher();
+        CardCollection hand = game.getHand();
+        int best = actions[0];
+        int bestValue = Integer.MIN_VALUE;
+        for (int count = 0; count < numberOfActions; count++) {
+            int action = actions[count];
+            int value;
+            switch (Action.getKind(action)) {
+                case Action.PLAY:
+                    int face = hand.getCardFaceAt(Action.getPosition(action) - 1);
+                    int state = matcher.next(game.getMatchState(), face);
+                    value = 100 * matcher.getDepth(state) + 10 + CardCode.getScore(face);
+                    for (int pos = 0; pos < matcher.getNumberOfMatches(state); pos++) {
+                        if (!lock.getChallengeMet(matcher.getMatch(state, pos))) {
+                            value += 10000;
+                            break;
+                        }
+                    }
+                    break;
+                case Action.DISCARD:
+                    value = -CardCode.getScore(hand.getCardFaceAt(Action.getPosition(action) - 1));
+                    break;
+                case Action.LOSE_KEY:
+                    value = 1;
+                    break;
+                default:
+                    value = 0;
+                    break;
+            }
+            if (value > bestValue) {
+                best = action;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+}
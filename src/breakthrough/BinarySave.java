@@ -0,0 +1,292 @@
+package breakthrough;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes games in a versioned binary format, the binary version of game1.txt
+ * <p>
+ * A record is laid out as:
+ * <br>
+ * - a header: the magic number "BTSV", the version, two spare bytes and the length of the whole record
+ * <br>
+ * - the score
+ * <br>
+ * - the lock: the number of challenges, the number of longs in the met bitmask, the bitmask, then for each
+ * challenge the number of cards in its condition and the face of each card, see {@link CardCode#getFace(int)}
+ * <br>
+ * - padding up to a multiple of four bytes
+ * <br>
+ * - the hand, sequence, discard pile and deck, each as a number of cards then the cards packed by {@link CardCode}
+ * <p>
+ * Records can be written one after another into the same file to archive many games. A reader is a cursor over
+ * a buffer, usually a memory mapped file, and reads the fields where they are so moving between records
+ * never creates any objects.
+ */
+class BinarySave {
+    public static final int MAGIC = 0x42545356;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    /**
+     * The order of the card collections in a record
+     */
+    public static final int HAND = 0, SEQUENCE = 1, DISCARD = 2, DECK = 3;
+    // A face which is not a card is written as this byte
+    private static final int NOT_A_CARD = 0xFF;
+
+    private final ByteBuffer buffer;
+    private int recordStart;
+    private int recordLength;
+    private int numberOfChallenges;
+    private int metStart;
+    private int conditionsStart;
+    private final int[] collectionStart = new int[4];
+
+    /**
+     * Constructor for a BinarySave reading from a buffer, positioned at the first record
+     *
+     * @param buffer the buffer holding one or more records
+     * @throws IllegalArgumentException if the buffer does not start with a record this version can read
+     */
+    public BinarySave(ByteBuffer buffer) {
+        this.buffer = buffer;
+        moveTo(0);
+    }
+
+    /**
+     * Maps a file of records into memory
+     *
+     * @param fileName the name of the file
+     * @return a reader positioned at the first record
+     * @throws IOException if the file can't be read
+     */
+    public static BinarySave map(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            // The mapping stays valid once the file is closed
+            return new BinarySave(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Moves to the record which starts at the given position in the buffer
+     * <p>
+     * Every count in the record is checked against the bytes the record has left before it is used, so a record
+     * which is corrupt or cut short is turned down here rather than failing part way through being read
+     *
+     * @param offset the position of the record in the buffer
+     * @throws IllegalArgumentException if there is no record this version can read at the position
+     */
+    public void moveTo(int offset) {
+        if (offset < 0 || (long) offset + HEADER_SIZE > buffer.limit() || buffer.getInt(offset) != MAGIC) {
+            throw new IllegalArgumentException("No saved game at " + offset);
+        }
+        int version = buffer.getShort(offset + 4);
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported save version " + version);
+        }
+        int length = buffer.getInt(offset + 8);
+        // The score, the number of challenges and the number of longs in the met bitmask come first
+        if (length < HEADER_SIZE + 8 || (long) offset + length > buffer.limit()) {
+            throw cutShort(offset);
+        }
+        int end = offset + length;
+        int pos = offset + HEADER_SIZE + 4;
+        int challenges = buffer.getShort(pos) & 0xFFFF;
+        int metWords = buffer.getShort(pos + 2) & 0xFFFF;
+        if (metWords * 64L < challenges) {
+            throw new IllegalArgumentException("Saved game at " + offset + " has " + challenges
+                    + " challenges but only " + metWords * 64 + " met flags");
+        }
+        long next = pos + 4 + metWords * 8L;
+        if (next > end) {
+            throw cutShort(offset);
+        }
+        int start = (int) next;
+        // The conditions vary in length so they are stepped over to find the card collections
+        for (int count = 0; count < challenges; count++) {
+            if (next >= end) {
+                throw cutShort(offset);
+            }
+            next += 1 + (buffer.get((int) next) & 0xFF);
+        }
+        next = next + 3 & ~3L;
+        int[] starts = new int[collectionStart.length];
+        for (int collection = HAND; collection <= DECK; collection++) {
+            if (next + 4 > end) {
+                throw cutShort(offset);
+            }
+            int cards = buffer.getInt((int) next);
+            if (cards < 0) {
+                throw new IllegalArgumentException("Saved game at " + offset + " has " + cards + " cards in a collection");
+            }
+            starts[collection] = (int) next;
+            next += 4 + cards * 4L;
+        }
+        if (next > end) {
+            throw cutShort(offset);
+        }
+        // Nothing is changed until the whole record has been checked
+        recordStart = offset;
+        recordLength = length;
+        numberOfChallenges = challenges;
+        metStart = pos + 4;
+        conditionsStart = start;
+        System.arraycopy(starts, 0, collectionStart, 0, starts.length);
+    }
+
+    private static IllegalArgumentException cutShort(int offset) {
+        return new IllegalArgumentException("Saved game at " + offset + " is cut short");
+    }
+
+    /**
+     * Returns true if there is another record after the current one
+     *
+     * @return true if there is another record
+     */
+    public boolean hasNext() {
+        return recordStart + recordLength < buffer.limit();
+    }
+
+    /**
+     * Moves to the record after the current one
+     */
+    public void next() {
+        moveTo(recordStart + recordLength);
+    }
+
+    public int getScore() {
+        return buffer.getInt(recordStart + HEADER_SIZE);
+    }
+
+    public int getNumberOfChallenges() {
+        return numberOfChallenges;
+    }
+
+    public boolean getChallengeMet(int pos) {
+        return (buffer.getLong(metStart + (pos >> 6) * 8) & 1L << pos) != 0;
+    }
+
+    /**
+     * Returns the position in the buffer of a challenge's condition, as they are only found by stepping through them
+     *
+     * @param pos the position of the challenge in the lock
+     * @return the position of the condition's length in the buffer
+     */
+    public int getConditionOffset(int pos) {
+        int offset = conditionsStart;
+        for (int count = 0; count < pos; count++) {
+            offset += 1 + (buffer.get(offset) & 0xFF);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the number of cards in the condition at the given position in the buffer
+     *
+     * @param conditionOffset the position from {@link BinarySave#getConditionOffset(int)}
+     * @return the number of cards in the condition
+     */
+    public int getConditionLength(int conditionOffset) {
+        return buffer.get(conditionOffset) & 0xFF;
+    }
+
+    /**
+     * Returns the face of one of the cards in a condition
+     *
+     * @param conditionOffset the position from {@link BinarySave#getConditionOffset(int)}
+     * @param pos             the position of the card in the condition
+     * @return the face of the card, -1 if it is not a card
+     */
+    public int getConditionFace(int conditionOffset, int pos) {
+        int face = buffer.get(conditionOffset + 1 + pos) & 0xFF;
+        return face == NOT_A_CARD ? -1 : face;
+    }
+
+    /**
+     * Returns the number of cards in one of the card collections
+     *
+     * @param collection {@link BinarySave#HAND}, {@link BinarySave#SEQUENCE}, {@link BinarySave#DISCARD} or {@link BinarySave#DECK}
+     * @return the number of cards
+     */
+    public int getNumberOfCards(int collection) {
+        return buffer.getInt(collectionStart[collection]);
+    }
+
+    /**
+     * Returns a card from one of the card collections
+     *
+     * @param collection {@link BinarySave#HAND}, {@link BinarySave#SEQUENCE}, {@link BinarySave#DISCARD} or {@link BinarySave#DECK}
+     * @param pos        the position of the card in the collection
+     * @return the card packed by {@link CardCode}
+     */
+    public int getCardCode(int collection, int pos) {
+        return buffer.getInt(collectionStart[collection] + 4 + pos * 4);
+    }
+
+    /**
+     * Writes a game as one record
+     *
+     * @param out         the stream to write to
+     * @param score       the score
+     * @param lock        the current lock
+     * @param collections the hand, sequence, discard pile and deck, in that order
+     * @throws IOException if the stream can't be written to
+     */
+    public static void write(DataOutputStream out, int score, Lock lock, CardCollection... collections) throws IOException {
+        if (collections.length != 4) {
+            throw new IllegalArgumentException("A saved game has four card collections");
+        }
+        int challenges = lock.getNumberOfChallenges();
+        int metWords = (challenges + 63) / 64;
+        int[][] conditions = new int[challenges][];
+        int conditionBytes = 0;
+        for (int pos = 0; pos < challenges; pos++) {
+            conditions[pos] = lock.getConditionFaces(pos);
+            if (conditions[pos].length > 255) {
+                throw new IllegalArgumentException("Conditions of more than 255 cards can't be saved");
+            }
+            conditionBytes += 1 + conditions[pos].length;
+        }
+        int lockEnd = HEADER_SIZE + 8 + metWords * 8 + conditionBytes;
+        int padding = (lockEnd + 3 & ~3) - lockEnd;
+        int length = lockEnd + padding;
+        for (CardCollection c : collections) {
+            length += 4 + c.getNumberOfCards() * 4;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+        out.writeInt(length);
+        out.writeInt(score);
+        out.writeShort(challenges);
+        out.writeShort(metWords);
+        for (int word = 0; word < metWords; word++) {
+            long met = 0;
+            for (int pos = word * 64; pos < Math.min(challenges, word * 64 + 64); pos++) {
+                if (lock.getChallengeMet(pos)) {
+                    met |= 1L << pos;
+                }
+            }
+            out.writeLong(met);
+        }
+        for (int[] condition : conditions) {
+            out.writeByte(condition.length);
+            for (int face : condition) {
+                out.writeByte(face < 0 ? NOT_A_CARD : face);
+            }
+        }
+        for (int count = 0; count < padding; count++) {
+            out.writeByte(0);
+        }
+        for (CardCollection c : collections) {
+            out.writeInt(c.getNumberOfCards());
+            for (int pos = 0; pos < c.getNumberOfCards(); pos++) {
+                out.writeInt(c.getCardCodeAt(pos));
+            }
+        }
+    }
+}
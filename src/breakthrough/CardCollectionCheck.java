@@ -0,0 +1,224 @@
+package breakthrough;
+
+import java.util.SplittableRandom;
+
+/**
+ * Checks a {@link PackedCardCollection} against the {@link CardCollection} it replaced, by making the same random
+ * changes to both and comparing them after each one
+ * <p>
+ * Each run starts with two empty collections of each kind and makes the given number of changes: cards are added,
+ * removed by number and by position, moved one at a time, drawn from the top, all moved across and shuffled with
+ * the same seed. Card numbers are mostly small and often repeated, with the odd one too big for the packed
+ * collection's index, so both ways it finds a card are used. After each change the cards, their descriptions, the
+ * display and what the change returned must be the same, and a snapshot taken before the change must not have moved.
+ * <p>
+ * Usage: java breakthrough.CardCollectionCheck [--seed 0] [--runs 1000] [--steps 500]
+ * <br>
+ * A failure gives the run, the step and the change which went wrong. The exit status is 1 if any run fails.
+ */
+class CardCollectionCheck {
+    private static final int ADD = 0;
+    private static final int REMOVE_CARD = 1;
+    private static final int REMOVE_AT = 2;
+    private static final int MOVE_CARD = 3;
+    private static final int DRAW_TOP = 4;
+    private static final int MOVE_ALL = 5;
+    private static final int SHUFFLE = 6;
+    private static final int NUMBER_OF_CHANGES = 7;
+
+    private static final String TOOL_TYPES = "PFK";
+    private static final String KITS = "abc";
+
+    private final CardCollection[] listed = {new CardCollection("DECK"), new CardCollection("HAND")};
+    private final CardCollection[] packed = {new PackedCardCollection("DECK"), new PackedCardCollection("HAND")};
+    private final SplittableRandom rNoGen;
+
+    /**
+     * Constructor for a CardCollectionCheck
+     *
+     * @param seed the seed of the changes made
+     */
+    public CardCollectionCheck(long seed) {
+        rNoGen = new SplittableRandom(seed);
+    }
+
+    public static void main(String[] args) {
+        long seed = 0;
+        int runs = 1000;
+        int steps = 500;
+        int pos = 0;
+        for (; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--seed":
+                    seed = Long.parseLong(args[pos + 1]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--steps":
+                    steps = Integer.parseInt(args[pos + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[pos]);
+            }
+        }
+        if (pos != args.length) {
+            System.err.println("Usage: java breakthrough.CardCollectionCheck [--seed 0] [--runs 1000] [--steps 500]");
+            return;
+        }
+
+        int failed = 0;
+        for (int run = 0; run < runs; run++) {
+            String failure = new CardCollectionCheck(seed + run).run(steps);
+            if (failure != null) {
+                failed++;
+                System.out.println("Run " + run + " (seed " + (seed + run) + "): FAILED" + System.lineSeparator() + failure);
+            }
+        }
+        System.out.println(String.format("%d runs of %d changes: %d passed, %d failed", runs, steps, runs - failed, failed));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes random changes to both kinds of collection until they differ or the steps run out
+     *
+     * @param steps the number of changes to make
+     * @return what differed, null if nothing did
+     */
+    public String run(int steps) {
+        for (int step = 0; step < steps; step++) {
+            int from = rNoGen.nextInt(2);
+            int to = 1 - from;
+            SavedCards before = packed[from].snapshotCodes();
+            int[] beforeCodes = getCodes(listed[from]);
+            String change;
+            String listedResult;
+            String packedResult;
+            switch (rNoGen.nextInt(NUMBER_OF_CHANGES)) {
+                case ADD: {
+                    Card c = newCard();
+                    change = "addCard(" + c.getDescription() + " " + c.getCardNumber() + ")";
+                    listed[from].addCard(c);
+                    packed[from].addCard(c);
+                    listedResult = "";
+                    packedResult = "";
+                    break;
+                }
+                case REMOVE_CARD: {
+                    int cardNumber = pickCardNumber(listed[from]);
+                    change = "removeCard(" + cardNumber + ")";
+                    listedResult = describe(listed[from].removeCard(cardNumber));
+                    packedResult = describe(packed[from].removeCard(cardNumber));
+                    break;
+                }
+                case REMOVE_AT: {
+                    if (listed[from].getNumberOfCards() == 0) {
+                        continue;
+                    }
+                    int x = rNoGen.nextInt(listed[from].getNumberOfCards());
+                    change = "removeAt(" + x + ")";
+                    listedResult = describe(listed[from].removeAt(x));
+                    packedResult = describe(packed[from].removeAt(x));
+                    break;
+                }
+                case MOVE_CARD: {
+                    int cardNumber = pickCardNumber(listed[from]);
+                    change = "moveCardTo(" + cardNumber + ")";
+                    listedResult = String.valueOf(listed[from].moveCardTo(listed[to], cardNumber));
+                    packedResult = String.valueOf(packed[from].moveCardTo(packed[to], cardNumber));
+                    break;
+                }
+                case DRAW_TOP: {
+                    int n = rNoGen.nextInt(8);
+                    change = "drawTop(" + n + ")";
+                    listedResult = String.valueOf(listed[from].drawTop(listed[to], n));
+                    packedResult = String.valueOf(packed[from].drawTop(packed[to], n));
+                    break;
+                }
+                case MOVE_ALL: {
+                    change = "moveAllTo()";
+                    listedResult = String.valueOf(listed[from].moveAllTo(listed[to]));
+                    packedResult = String.valueOf(packed[from].moveAllTo(packed[to]));
+                    break;
+                }
+                default: {
+                    long shuffleSeed = rNoGen.nextLong();
+                    change = "shuffle(" + shuffleSeed + ")";
+                    listed[from].shuffle(new SplittableRandom(shuffleSeed));
+                    packed[from].shuffle(new SplittableRandom(shuffleSeed));
+                    listedResult = "";
+                    packedResult = "";
+                    break;
+                }
+            }
+
+            String where = "Step " + step + ", " + listed[from].getName() + "." + change + ": ";
+            if (!listedResult.equals(packedResult)) {
+                return where + "returned " + packedResult + ", expected " + listedResult;
+            }
+            for (int count = 0; count < 2; count++) {
+                String difference = compare(listed[count], packed[count]);
+                if (difference != null) {
+                    return where + difference;
+                }
+            }
+            for (int x = 0; x < beforeCodes.length; x++) {
+                if (before.size != beforeCodes.length || before.getCodeAt(x) != beforeCodes[x]) {
+                    return where + "the snapshot taken before it changed";
+                }
+            }
+        }
+        return null;
+    }
+
+    private Card newCard() {
+        // Mostly small numbers which repeat, sometimes one beyond the packed collection's index
+        int cardNumber = rNoGen.nextInt(20) == 0 ? (1 << 16) + rNoGen.nextInt(1 << 20) : 1 + rNoGen.nextInt(40);
+        if (rNoGen.nextInt(6) == 0) {
+            return new DifficultyCard(cardNumber);
+        }
+        return new ToolCard(String.valueOf(TOOL_TYPES.charAt(rNoGen.nextInt(TOOL_TYPES.length()))),
+                String.valueOf(KITS.charAt(rNoGen.nextInt(KITS.length()))), cardNumber);
+    }
+
+    private int pickCardNumber(CardCollection cards) {
+        // Now and then a number which is probably not in the collection
+        if (cards.getNumberOfCards() == 0 || rNoGen.nextInt(5) == 0) {
+            return 1 + rNoGen.nextInt(50);
+        }
+        return cards.getCardNumberAt(rNoGen.nextInt(cards.getNumberOfCards()));
+    }
+
+    private static String describe(Card c) {
+        return c == null ? "null" : c.getDescription() + " " + c.getCardNumber();
+    }
+
+    private static int[] getCodes(CardCollection cards) {
+        int[] codes = new int[cards.getNumberOfCards()];
+        for (int x = 0; x < codes.length; x++) {
+            codes[x] = cards.getCardCodeAt(x);
+        }
+        return codes;
+    }
+
+    private static String compare(CardCollection expected, CardCollection actual) {
+        if (actual.getNumberOfCards() != expected.getNumberOfCards()) {
+            return actual.getName() + " has " + actual.getNumberOfCards() + " cards, expected " + expected.getNumberOfCards();
+        }
+        for (int x = 0; x < expected.getNumberOfCards(); x++) {
+            if (actual.getCardCodeAt(x) != expected.getCardCodeAt(x)
+                    || actual.getCardNumberAt(x) != expected.getCardNumberAt(x)
+                    || !actual.getCardDescriptionAt(x).equals(expected.getCardDescriptionAt(x))
+                    || actual.getCardFaceAt(x) != expected.getCardFaceAt(x)) {
+                return actual.getName() + " has " + actual.getCardDescriptionAt(x) + " " + actual.getCardNumberAt(x)
+                        + " at " + x + ", expected " + expected.getCardDescriptionAt(x) + " " + expected.getCardNumberAt(x);
+            }
+        }
+        if (!actual.getCardDisplay().equals(expected.getCardDisplay())) {
+            return actual.getName() + " displays differently";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package breakthrough;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index over the challenges of every lock in the library
+ * <p>
+ * Every challenge is split into a prefix, which has to be at the end of the sequence already,
+ * and a suffix of one or two cards still to be played. Each split is stored as a posting
+ * (lock, challenge, position) under a key made from the faces of the prefix and the suffix,
+ * so finding the challenges a hand can complete is a handful of hash lookups however many locks there are.
+ */
+class ChallengeIndex {
+    /**
+     * Conditions longer than this are not indexed as their faces no longer fit in a key
+     */
+    public static final int MAX_INDEXED_LENGTH = 11;
+    private static final int FACE_BITS = 5;
+    private static final int POSITION_BITS = 4;
+
+    private final List<Lock> locks;
+    private final long[] keys;
+    private final int[] postingStart;
+    private final int[] postingCount;
+    // Three ints per posting: lock, challenge, position
+    private final int[] postings;
+
+    /**
+     * Builds the index over all the locks in the library
+     *
+     * @param locks the locks to index
+     */
+    public ChallengeIndex(List<Lock> locks) {
+        this.locks = locks;
+        Map<Long, List<int[]>> found = new HashMap<>();
+        int numberOfPostings = 0;
+        // The locks in a pack are read where they are rather than all being parsed
+        LockLibrary library = locks instanceof LockLibrary ? (LockLibrary) locks : null;
+        for (int lockNo = 0; lockNo < locks.size(); lockNo++) {
+            int challenges = library != null ? library.getNumberOfChallenges(lockNo) : locks.get(lockNo).getNumberOfChallenges();
+            for (int challengeNo = 0; challengeNo < challenges; challengeNo++) {
+                int[] faces = library != null ? library.getConditionFaces(lockNo, challengeNo) : locks.get(lockNo).getConditionFaces(challengeNo);
+                if (faces.length == 0 || faces.length > MAX_INDEXED_LENGTH || !isValid(faces)) {
+                    continue;
+                }
+                // One posting for each way of leaving one or two cards still to play
+                for (int position = Math.max(0, faces.length - 2); position < faces.length; position++) {
+                    long key = packFaces(faces, 0, faces.length) << POSITION_BITS | position;
+                    List<int[]> postingsForKey = found.get(key);
+                    if (postingsForKey == null) {
+                        postingsForKey = new ArrayList<>();
+                        found.put(key, postingsForKey);
+                    }
+                    postingsForKey.add(new int[]{lockNo, challengeNo, position});
+                    numberOfPostings++;
+                }
+            }
+        }
+
+        // Flattens the postings into an open addressing table so that lookups never box a key
+        int capacity = 16;
+        while (capacity < found.size() * 2) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        postingStart = new int[capacity];
+        postingCount = new int[capacity];
+        postings = new int[numberOfPostings * 3];
+        int next = 0;
+        for (Map.Entry<Long, List<int[]>> entry : found.entrySet()) {
+            int slot = findSlot(entry.getKey());
+            keys[slot] = entry.getKey();
+            postingStart[slot] = next;
+            postingCount[slot] = entry.getValue().size();
+            for (int[] posting : entry.getValue()) {
+                System.arraycopy(posting, 0, postings, next, 3);
+                next += 3;
+            }
+        }
+    }
+
+    private static boolean isValid(int[] faces) {
+        for (int face : faces) {
+            if (face < 0 || CardCode.isDifficulty(face)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs faces into a long, five bits per face after a leading 1 so that different lengths never clash
+     */
+    private static long packFaces(int[] faces, int from, int to) {
+        long packed = 1;
+        for (int pos = from; pos < to; pos++) {
+            packed = packed << FACE_BITS | faces[pos];
+        }
+        return packed;
+    }
+
+    /**
+     * Returns the slot which holds the key, or the empty slot where it would go
+     */
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ key >>> 29) * 0x9E3779B9 & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the unmet challenges, across all the locks, which can be met by playing one or two cards from the hand
+     * <p>
+     * Plays have to follow the rules of the game, so a card can't have the same tool as the card before it
+     *
+     * @param sequence the sequence of cards played so far
+     * @param hand     the player's hand
+     * @return the challenges which can be met, with the cards already in place and the number of plays needed
+     */
+    public List<ChallengePosting> findNearlyMet(CardCollection sequence, CardCollection hand) {
+        List<ChallengePosting> results = new ArrayList<>();
+        // The different faces in the hand, as the same face twice can never be played one after the other
+        int handFaces = 0;
+        for (int pos = 0; pos < hand.getNumberOfCards(); pos++) {
+            int face = hand.getCardFaceAt(pos);
+            if (face >= 0 && !CardCode.isDifficulty(face)) {
+                handFaces |= 1 << face;
+            }
+        }
+        int sequenceSize = sequence.getNumberOfCards();
+        int lastTool = sequenceSize > 0 ? sequence.getCardFaceAt(sequenceSize - 1) & CardCode.TOOL_MASK : -1;
+
+        // Tries every length of prefix from the end of the sequence
+        for (int prefixLength = 0; prefixLength <= Math.min(sequenceSize, MAX_INDEXED_LENGTH - 1); prefixLength++) {
+            long prefix = 1;
+            boolean validPrefix = true;
+            for (int pos = sequenceSize - prefixLength; pos < sequenceSize; pos++) {
+                int face = sequence.getCardFaceAt(pos);
+                validPrefix &= face >= 0;
+                prefix = prefix << FACE_BITS | face & CardCode.FACE_MASK;
+            }
+            if (!validPrefix) {
+                break;
+            }
+            for (int first = 0; first < CardCode.NUMBER_OF_FACES; first++) {
+                if ((handFaces & 1 << first) == 0 || (first & CardCode.TOOL_MASK) == lastTool) {
+                    continue;
+                }
+                long withFirst = prefix << FACE_BITS | first;
+                addPostings(withFirst, prefixLength, 1, results);
+                if (prefixLength + 2 > MAX_INDEXED_LENGTH) {
+                    continue;
+                }
+                for (int second = 0; second < CardCode.NUMBER_OF_FACES; second++) {
+                    if ((handFaces & 1 << second) == 0 || (second & CardCode.TOOL_MASK) == (first & CardCode.TOOL_MASK)) {
+                        continue;
+                    }
+                    addPostings(withFirst << FACE_BITS | second, prefixLength, 2, results);
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean isChallengeMet(int lockNo, int challengeNo) {
+        if (locks instanceof LockLibrary) {
+            return ((LockLibrary) locks).getChallengeMet(lockNo, challengeNo);
+        }
+        return locks.get(lockNo).getChallengeMet(challengeNo);
+    }
+
+    /**
+     * Adds the unmet challenges stored under a condition and position to the results
+     */
+    private void addPostings(long condition, int position, int playsNeeded, List<ChallengePosting> results) {
+        int slot = findSlot(condition << POSITION_BITS | position);
+        if (keys[slot] == 0) {
+            return;
+        }
+        for (int pos = postingStart[slot]; pos < postingStart[slot] + postingCount[slot] * 3; pos += 3) {
+            if (!isChallengeMet(postings[pos], postings[pos + 1])) {
+                results.add(new ChallengePosting(postings[pos], postings[pos + 1], postings[pos + 2], playsNeeded));
+            }
+        }
+    }
+}
+
+class ChallengePosting {
+    private final int lockNumber;
+    private final int challengeNumber;
+    private final int position;
+    private final int playsNeeded;
+
+    /**
+     * Constructor for a ChallengePosting
+     *
+     * @param lockNumber      the position of the lock in the library
+     * @param challengeNumber the position of the challenge in the lock
+     * @param position        the number of cards of the condition already at the end of the sequence
+     * @param playsNeeded     the number of cards still to play (1 or 2)
+     */
+    public ChallengePosting(int lockNumber, int challengeNumber, int position, int playsNeeded) {
+        this.lockNumber = lockNumber;
+        this.challengeNumber = challengeNumber;
+        this.position = position;
+        this.playsNeeded = playsNeeded;
+    }
+
+    public int getLockNumber() {
+        return lockNumber;
+    }
+
+    public int getChallengeNumber() {
+        return challengeNumber;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getPlaysNeeded() {
+        return playsNeeded;
+    }
+
+    @Override
+    public String toString() {
+        return "lock " + lockNumber + ", challenge " + challengeNumber + ": " + playsNeeded + " to play";
+    }
+}
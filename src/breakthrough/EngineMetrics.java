@@ -0,0 +1,345 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters and latency histograms of what the engine does, shared by every game in the JVM
+ * <p>
+ * Recording an event is an increment of a {@link LongAdder} and, for timed events, a read of {@link System#nanoTime()},
+ * so nothing is allocated and threads playing different games hardly ever touch the same memory. The metrics can be
+ * read as a JMX MBean, see {@link EngineMetrics#registerMBean()}, or in the Prometheus text format, see
+ * {@link EngineMetrics#startEndpoint(int)}.
+ * <p>
+ * Recording is on unless the JVM is started with -Dbreakthrough.metrics=false, in which case the checks are constant
+ * and the JIT compiles them away.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+    static final boolean ENABLED = !"false".equals(System.getProperty("breakthrough.metrics"));
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    private final LatencyHistogram cardsPlayed = new LatencyHistogram();
+    private final LatencyHistogram challengeChecks = new LatencyHistogram();
+    private final LongAdder challengesMet = new LongAdder();
+    private final LatencyHistogram locksSolved = new LatencyHistogram();
+    private final LongAdder difficultiesEncountered = new LongAdder();
+    private final LongAdder keysLost = new LongAdder();
+    private final LongAdder fiveCardsDiscarded = new LongAdder();
+    private final LatencyHistogram shuffles = new LatencyHistogram();
+    private final LatencyHistogram gamesLoaded = new LatencyHistogram();
+    private final LongAdder gamesNotLoaded = new LongAdder();
+
+    private EngineMetrics() {
+    }
+
+    public static EngineMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the time to measure an event from, or 0 if metrics are off
+     *
+     * @return the current value of {@link System#nanoTime()}
+     */
+    static long startTimer() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    void recordCardPlayed(long start) {
+        if (ENABLED) {
+            cardsPlayed.record(System.nanoTime() - start);
+        }
+    }
+
+    void recordChallengeCheck(long start, boolean met) {
+        if (ENABLED) {
+            challengeChecks.record(System.nanoTime() - start);
+            if (met) {
+                challengesMet.increment();
+            }
+        }
+    }
+
+    void recordLockSolved(long start) {
+        if (ENABLED) {
+            locksSolved.record(System.nanoTime() - start);
+        }
+    }
+
+    void recordDifficultyEncountered() {
+        if (ENABLED) {
+            difficultiesEncountered.increment();
+        }
+    }
+
+    /**
+     * Records how a difficulty card was dealt with
+     *
+     * @param keyLost true if a key was lost, false if five cards were discarded from the deck
+     */
+    void recordDifficultyResolved(boolean keyLost) {
+        if (ENABLED) {
+            if (keyLost) {
+                keysLost.increment();
+            } else {
+                fiveCardsDiscarded.increment();
+            }
+        }
+    }
+
+    void recordShuffle(long start) {
+        if (ENABLED) {
+            shuffles.record(System.nanoTime() - start);
+        }
+    }
+
+    void recordGameLoaded(long start, boolean loaded) {
+        if (ENABLED) {
+            if (loaded) {
+                gamesLoaded.record(System.nanoTime() - start);
+            } else {
+                gamesNotLoaded.increment();
+            }
+        }
+    }
+
+    @Override
+    public long getCardsPlayed() {
+        return cardsPlayed.getCount();
+    }
+
+    @Override
+    public double getCardPlayedMeanNanos() {
+        return cardsPlayed.getMean();
+    }
+
+    @Override
+    public long getCardPlayedP99Nanos() {
+        return cardsPlayed.getPercentile(0.99);
+    }
+
+    @Override
+    public long getChallengeChecks() {
+        return challengeChecks.getCount();
+    }
+
+    @Override
+    public double getChallengeCheckMeanNanos() {
+        return challengeChecks.getMean();
+    }
+
+    @Override
+    public long getChallengeCheckP99Nanos() {
+        return challengeChecks.getPercentile(0.99);
+    }
+
+    @Override
+    public long getChallengesMet() {
+        return challengesMet.sum();
+    }
+
+    @Override
+    public long getLocksSolved() {
+        return locksSolved.getCount();
+    }
+
+    @Override
+    public double getLockSolvedMeanNanos() {
+        return locksSolved.getMean();
+    }
+
+    @Override
+    public long getLockSolvedP99Nanos() {
+        return locksSolved.getPercentile(0.99);
+    }
+
+    @Override
+    public long getDifficultiesEncountered() {
+        return difficultiesEncountered.sum();
+    }
+
+    @Override
+    public long getKeysLost() {
+        return keysLost.sum();
+    }
+
+    @Override
+    public long getFiveCardsDiscarded() {
+        return fiveCardsDiscarded.sum();
+    }
+
+    @Override
+    public long getShuffles() {
+        return shuffles.getCount();
+    }
+
+    @Override
+    public double getShuffleMeanNanos() {
+        return shuffles.getMean();
+    }
+
+    @Override
+    public long getGamesLoaded() {
+        return gamesLoaded.getCount();
+    }
+
+    @Override
+    public double getGameLoadedMeanNanos() {
+        return gamesLoaded.getMean();
+    }
+
+    @Override
+    public long getGamesNotLoaded() {
+        return gamesNotLoaded.sum();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as breakthrough:type=EngineMetrics
+     *
+     * @throws JMException if the MBean can't be registered, e.g. it already has been
+     */
+    public static void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("breakthrough:type=EngineMetrics"));
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format at /metrics on localhost
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @return the server, which runs on its own thread until it is stopped
+     * @throws IOException if the port can't be listened on
+     */
+    public static HttpServer startEndpoint(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = INSTANCE.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format
+     *
+     * @return the metrics, one sample per line
+     */
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        cardsPlayed.appendPrometheus(text, "breakthrough_play_card_seconds", "Time to play a card to the sequence");
+        challengeChecks.appendPrometheus(text, "breakthrough_challenge_check_seconds", "Time to check the lock for a met challenge");
+        appendCounter(text, "breakthrough_challenges_met_total", "Challenges met", "", challengesMet.sum());
+        locksSolved.appendPrometheus(text, "breakthrough_lock_solved_seconds", "Time to clear up after a lock is solved and deal the next one");
+        appendCounter(text, "breakthrough_difficulties_encountered_total", "Difficulty cards drawn from the deck", "", difficultiesEncountered.sum());
+        appendCounter(text, "breakthrough_difficulties_resolved_total", "Difficulty cards dealt with", "{outcome=\"key_lost\"}", keysLost.sum());
+        appendSample(text, "breakthrough_difficulties_resolved_total", "{outcome=\"five_discarded\"}", fiveCardsDiscarded.sum());
+        shuffles.appendPrometheus(text, "breakthrough_shuffle_seconds", "Time to shuffle the deck");
+        gamesLoaded.appendPrometheus(text, "breakthrough_load_game_seconds", "Time to load a saved game");
+        appendCounter(text, "breakthrough_games_not_loaded_total", "Saved games which could not be loaded", "", gamesNotLoaded.sum());
+        return text.toString();
+    }
+
+    private static void appendCounter(StringBuilder text, String name, String help, String labels, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        appendSample(text, name, labels, value);
+    }
+
+    private static void appendSample(StringBuilder text, String name, String labels, long value) {
+        text.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+}
+
+/**
+ * A histogram of durations with a bucket for each power of two nanoseconds
+ * <p>
+ * Recording finds the bucket from the number of leading zeros, so it is a couple of instructions and two increments
+ */
+class LatencyHistogram {
+    private static final int NUMBER_OF_BUCKETS = 40;
+    // The buckets shown to Prometheus, from 256ns up to about a second
+    private static final int FIRST_EXPORTED_BUCKET = 8, LAST_EXPORTED_BUCKET = 30;
+
+    // Bucket b holds durations below 2^b nanoseconds, and at least 2^(b-1)
+    private final LongAdder[] buckets = new LongAdder[NUMBER_OF_BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            buckets[bucket] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        buckets[Math.min(bucket, NUMBER_OF_BUCKETS - 1)].increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the mean duration
+     *
+     * @return the mean in nanoseconds, 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Returns an upper bound on a percentile of the durations, to within a factor of two
+     *
+     * @param fraction the percentile as a fraction, e.g. 0.99
+     * @return the upper bound of the bucket the percentile falls in, in nanoseconds
+     */
+    public long getPercentile(double fraction) {
+        long count = getCount();
+        long seen = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            seen += buckets[bucket].sum();
+            if (count > 0 && seen >= fraction * count) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << NUMBER_OF_BUCKETS - 1;
+    }
+
+    /**
+     * Adds the histogram to a Prometheus text exposition, with cumulative buckets in seconds
+     */
+    public void appendPrometheus(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            cumulative += buckets[bucket].sum();
+            if (bucket >= FIRST_EXPORTED_BUCKET && bucket <= LAST_EXPORTED_BUCKET) {
+                text.append(name).append("_bucket{le=\"").append((1L << bucket) / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+        }
+        text.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        text.append(name).append("_sum ").append(totalNanos.sum() / 1e9).append('\n');
+        text.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,42 @@
+package breakthrough;
+
+/**
+ * The attributes of {@link EngineMetrics} as seen through JMX
+ */
+public interface EngineMetricsMBean {
+    long getCardsPlayed();
+
+    double getCardPlayedMeanNanos();
+
+    long getCardPlayedP99Nanos();
+
+    long getChallengeChecks();
+
+    double getChallengeCheckMeanNanos();
+
+    long getChallengeCheckP99Nanos();
+
+    long getChallengesMet();
+
+    long getLocksSolved();
+
+    double getLockSolvedMeanNanos();
+
+    long getLockSolvedP99Nanos();
+
+    long getDifficultiesEncountered();
+
+    long getKeysLost();
+
+    long getFiveCardsDiscarded();
+
+    long getShuffles();
+
+    double getShuffleMeanNanos();
+
+    long getGamesLoaded();
+
+    double getGameLoadedMeanNanos();
+
+    long getGamesNotLoaded();
+}
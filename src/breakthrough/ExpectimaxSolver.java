@@ -0,0 +1,376 @@
+package breakthrough;
+
+import java.util.Arrays;
+
+/**
+ * Works out the best move from a position by going through every way the rest of the current lock can play out
+ * <p>
+ * The position is a {@link PlayerPosition}, and every card which can be drawn is gone through with the chance it
+ * has. A position is packed into one long which is the key of a fixed size transposition table, so positions
+ * reached in different ways are only solved once.
+ * <p>
+ * The search stops when the current lock is solved or the game is lost, so the score is the number of points
+ * expected before then, including the 10 for solving the lock. The answers are exact, but the work grows quickly
+ * with the size of the deck, so it is meant for positions late in a lock.
+ * <br>
+ * A solver keeps the position it is working on in its fields, so each thread needs its own.
+ */
+class ExpectimaxSolver {
+    public static final int MAXIMIZE_SCORE = 0;
+    public static final int MAXIMIZE_SOLVE_PROBABILITY = 1;
+
+    private static final int[] FACES = PlayerPosition.FACES;
+    private static final int DIFFICULTY = PlayerPosition.DIFFICULTY;
+    private static final long OCCUPIED = 1L << 63;
+
+    private final int objective;
+    private final int tableBits;
+    private final long[] tableKeys;
+    private final double[] tableValues;
+
+    // The lock and the layout of the key that the table was filled for
+    private Lock tableLock;
+    private final int[] fieldBits = new int[FACES.length * 2 + 3];
+
+    // The position being searched
+    private final PlayerPosition position = new PlayerPosition();
+
+    /**
+     * Constructor for an ExpectimaxSolver
+     *
+     * @param objective {@link ExpectimaxSolver#MAXIMIZE_SCORE} or {@link ExpectimaxSolver#MAXIMIZE_SOLVE_PROBABILITY}
+     * @param tableBits the transposition table holds 2 to the power of this many positions
+     */
+    public ExpectimaxSolver(int objective, int tableBits) {
+        if (objective != MAXIMIZE_SCORE && objective != MAXIMIZE_SOLVE_PROBABILITY) {
+            throw new IllegalArgumentException("Unknown objective: " + objective);
+        }
+        if (tableBits < 1 || tableBits > 28) {
+            throw new IllegalArgumentException("The table must have between 1 and 28 bits");
+        }
+        this.objective = objective;
+        this.tableBits = tableBits;
+        tableKeys = new long[1 << tableBits];
+        tableValues = new double[1 << tableBits];
+    }
+
+    /**
+     * Works out the value of every legal action in the game's current position
+     * <p>
+     * This covers the choice between playing and discarding each card in the hand and, when a difficulty card
+     * has been drawn, the choice between losing a key and discarding five cards from the deck
+     *
+     * @param game the game to solve, which is not changed
+     * @return the legal actions with their values
+     * @throws IllegalArgumentException if the position can't be packed into a key
+     */
+    public Solution solve(Breakthrough game) {
+        int[] actions = game.legalActions();
+        double[] values = new double[actions.length];
+        if (actions.length > 0) {
+            load(game);
+            for (int pos = 0; pos < actions.length; pos++) {
+                values[pos] = evaluate(game, actions[pos]);
+            }
+        }
+        return new Solution(actions, values);
+    }
+
+    /**
+     * Copies the game's position into the solver, clearing the table if it was filled for a different lock
+     */
+    private void load(Breakthrough game) {
+        Lock lock = game.getCurrentLock();
+        position.load(game);
+
+        // Cards never come back to the deck or the hand before the lock is solved, so the number of each face
+        // in the whole game is enough room for every position reached, and the key layout stays the same all lock
+        int[] totals = new int[FACES.length];
+        PlayerPosition.countFaces(game.getDeck(), totals);
+        PlayerPosition.countFaces(game.getHand(), totals);
+        PlayerPosition.countFaces(game.getSequence(), totals);
+        PlayerPosition.countFaces(game.getDiscard(), totals);
+        int[] bits = new int[fieldBits.length];
+        int totalBits = 0;
+        for (int index = 0; index < FACES.length; index++) {
+            bits[index] = bitsFor(totals[index]);
+            bits[FACES.length + index] = index == DIFFICULTY ? 0 : bitsFor(Math.min(totals[index], PlayerPosition.HAND_SIZE));
+            totalBits += bits[index] + bits[FACES.length + index];
+        }
+        bits[bits.length - 3] = bitsFor(position.matcher.getNumberOfStates() - 1);
+        bits[bits.length - 2] = 2;
+        bits[bits.length - 1] = lock.getNumberOfChallenges();
+        totalBits += bits[bits.length - 3] + bits[bits.length - 2] + bits[bits.length - 1];
+        if (totalBits > 63) {
+            throw new IllegalArgumentException("The position needs " + totalBits + " bits, more than fit in a key");
+        }
+        if (lock != tableLock || !Arrays.equals(bits, fieldBits)) {
+            System.arraycopy(bits, 0, fieldBits, 0, bits.length);
+            Arrays.fill(tableKeys, 0);
+            tableLock = lock;
+        }
+    }
+
+    private static int bitsFor(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Works out the value of one of the game's legal actions from the position loaded into the solver
+     */
+    private double evaluate(Breakthrough game, int action) {
+        int place = Action.getPosition(action);
+        switch (Action.getKind(action)) {
+            case Action.PLAY:
+                return playCard(PlayerPosition.indexOf(game.getHand().getCardFaceAt(place - 1)));
+            case Action.DISCARD:
+                return discardCard(PlayerPosition.indexOf(game.getHand().getCardFaceAt(place - 1)));
+            case Action.LOSE_KEY:
+                int key = game.getHand().getCardFaceAt(DifficultyCard.getHandPosition(place, game.getPendingCardChoice()));
+                return loseKey(PlayerPosition.indexOf(key), game.isChallengeCheckPending());
+            default:
+                return discardFive(game.isChallengeCheckPending());
+        }
+    }
+
+    /**
+     * Returns the value of the position when the player is choosing a card to use
+     */
+    private double turn() {
+        long key = packPosition();
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 64 - tableBits);
+        if (tableKeys[slot] == (key | OCCUPIED)) {
+            return tableValues[slot];
+        }
+        double best = 0;
+        for (int index = 0; index < PlayerPosition.NUMBER_OF_TOOLS; index++) {
+            if (position.handCounts[index] > 0) {
+                best = Math.max(best, discardCard(index));
+                if (position.canPlay(index)) {
+                    best = Math.max(best, playCard(index));
+                }
+            }
+        }
+        // The newest position always takes the slot
+        tableKeys[slot] = key | OCCUPIED;
+        tableValues[slot] = best;
+        return best;
+    }
+
+    /**
+     * Packs the position into a key, using the layout worked out by {@link ExpectimaxSolver#load(Breakthrough)}
+     */
+    private long packPosition() {
+        long key = 0;
+        for (int index = 0; index < FACES.length; index++) {
+            key = key << fieldBits[index] | position.deckCounts[index];
+            key = key << fieldBits[FACES.length + index] | position.handCounts[index];
+        }
+        key = key << fieldBits[fieldBits.length - 3] | position.matchState;
+        key = key << fieldBits[fieldBits.length - 2] | position.lastTool;
+        return key << fieldBits[fieldBits.length - 1] | position.metFlags;
+    }
+
+    private double playCard(int index) {
+        int oldState = position.matchState;
+        int oldTool = position.lastTool;
+        int score = position.playCard(index);
+        double value = (objective == MAXIMIZE_SCORE ? score : 0) + drawCard(true);
+        position.matchState = oldState;
+        position.lastTool = oldTool;
+        position.addToHand(index);
+        return value;
+    }
+
+    private double discardCard(int index) {
+        position.removeFromHand(index);
+        double value = drawCard(false);
+        position.addToHand(index);
+        return value;
+    }
+
+    /**
+     * Returns the expected value of drawing the card which replaces the one just used
+     *
+     * @param played true if the card was played, so the challenges are checked at the end of the step
+     */
+    private double drawCard(boolean played) {
+        if (position.deckSize == 0) {
+            return refillHand(played);
+        }
+        int cards = position.deckSize;
+        double expected = 0;
+        for (int index = 0; index < FACES.length; index++) {
+            int count = position.deckCounts[index];
+            if (count == 0) {
+                continue;
+            }
+            if (index == DIFFICULTY) {
+                position.removeFromDeck(index);
+                expected += count * difficulty(played);
+                position.addToDeck(index);
+            } else {
+                position.drawToHand(index);
+                expected += count * refillHand(played);
+                position.undoDrawToHand(index);
+            }
+        }
+        return expected / cards;
+    }
+
+    /**
+     * Returns the value of the best way of dealing with a difficulty card
+     */
+    private double difficulty(boolean played) {
+        double best = discardFive(played);
+        for (int index = PlayerPosition.FIRST_KEY; index < PlayerPosition.NUMBER_OF_TOOLS; index++) {
+            if (position.handCounts[index] > 0) {
+                best = Math.max(best, loseKey(index, played));
+            }
+        }
+        return best;
+    }
+
+    private double loseKey(int index, boolean played) {
+        position.removeFromHand(index);
+        double value = refillHand(played);
+        position.addToHand(index);
+        return value;
+    }
+
+    /**
+     * Returns the expected value of discarding five cards from the deck
+     * <p>
+     * Only which faces go matters, not their order, so each group of cards is weighted by the number of ways of drawing it
+     */
+    private double discardFive(boolean played) {
+        int discarded = position.getDifficultyDiscards();
+        double ways = choose(position.deckSize, discarded);
+        return discardFaces(0, discarded, played) / ways;
+    }
+
+    private double discardFaces(int index, int left, boolean played) {
+        if (left == 0) {
+            return refillHand(played);
+        }
+        if (index == FACES.length) {
+            return 0;
+        }
+        int count = position.deckCounts[index];
+        double total = 0;
+        for (int taken = 0; taken <= Math.min(count, left); taken++) {
+            position.deckCounts[index] = count - taken;
+            position.deckSize -= taken;
+            total += choose(count, taken) * discardFaces(index + 1, left - taken, played);
+            position.deckSize += taken;
+        }
+        position.deckCounts[index] = count;
+        return total;
+    }
+
+    private static double choose(int n, int k) {
+        double result = 1;
+        for (int pos = 1; pos <= k; pos++) {
+            result = result * (n - k + pos) / pos;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the expected value of refilling the hand
+     */
+    private double refillHand(boolean played) {
+        if (!position.needsCard()) {
+            return endStep(played, position.isLost());
+        }
+        int cards = position.deckSize;
+        double expected = 0;
+        for (int index = 0; index < FACES.length; index++) {
+            int count = position.deckCounts[index];
+            if (count == 0) {
+                continue;
+            }
+            position.drawToHand(index);
+            expected += count * refillHand(played);
+            position.undoDrawToHand(index);
+        }
+        return expected / cards;
+    }
+
+    /**
+     * Checks the challenges if a card was played, then ends the search if the lock is solved or the game is lost
+     */
+    private double endStep(boolean played, boolean lost) {
+        double value = 0;
+        int oldMet = position.metFlags;
+        if (played) {
+            int points = position.checkChallenges();
+            value += objective == MAXIMIZE_SCORE ? points : 0;
+            if (position.isSolved()) {
+                position.metFlags = oldMet;
+                return value + (objective == MAXIMIZE_SCORE ? PlayerPosition.POINTS_PER_LOCK : 1);
+            }
+        }
+        if (!lost) {
+            value += turn();
+        }
+        position.metFlags = oldMet;
+        return value;
+    }
+}
+
+class Solution {
+    private final int[] actions;
+    private final double[] values;
+
+    /**
+     * Constructor for a Solution
+     *
+     * @param actions the legal actions, see {@link Action}
+     * @param values  the value of each action
+     */
+    public Solution(int[] actions, double[] values) {
+        this.actions = actions;
+        this.values = values;
+    }
+
+    public int getNumberOfActions() {
+        return actions.length;
+    }
+
+    public int getAction(int pos) {
+        return actions[pos];
+    }
+
+    public double getValue(int pos) {
+        return values[pos];
+    }
+
+    /**
+     * Returns the action with the highest value, the first one if several are equal
+     *
+     * @return the best action, -1 if there are no legal actions
+     */
+    public int getBestAction() {
+        int best = -1;
+        for (int pos = 0; pos < actions.length; pos++) {
+            if (best < 0 || values[pos] > values[best]) {
+                best = pos;
+            }
+        }
+        return best < 0 ? -1 : actions[best];
+    }
+
+    /**
+     * Returns the value of the best action
+     *
+     * @return the highest value, 0 if there are no legal actions
+     */
+    public double getBestValue() {
+        double best = 0;
+        for (double value : values) {
+            best = Math.max(best, value);
+        }
+        return best;
+    }
+}
@@ -7,1137 +7,3743 @@
 
 package breakthrough;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Game {
+    private static final int JOURNAL_CHECKPOINT_INTERVAL = 50;
 
     public static void main(String[] args) {
+        // With no arguments the game is played interactively
+        if (args.length > 0) {
+            playScripts(args);
+            return;
+        }
         Breakthrough thisGame = new Breakthrough();
         thisGame.playGame();
         Console.readLine();
     }
+
+    /**
+     * Plays one game for each script of moves, reading the answers to the prompts from the script
+     * <p>
+     * Usage: [--seed n] [--summary] [--journal] script... where a script of - reads the moves from standard input
+     * <br>
+     * --seed deals the same new game for every script, --summary prints only one line per script,
+     * --journal writes a {@link MoveJournal} of each game next to its script, e.g. moves.txt.journal
+     *
+     * @param args the options and the scripts to play
+     */
+    private static void playScripts(String[] args) {
+        Long seed = null;
+        boolean journal = false;
+        List<String> scripts = new ArrayList<>();
+        for (int pos = 0; pos < args.length; pos++) {
+            if (args[pos].equals("--seed") && pos + 1 < args.length) {
+                pos++;
+                seed = Long.parseLong(args[pos]);
+            } else if (args[pos].equals("--summary")) {
+                Console.setSummaryOnly(true);
+            } else if (args[pos].equals("--journal")) {
+                journal = true;
+            } else {
+                scripts.add(args[pos]);
+            }
+        }
+        Console.setEchoPrompts(false);
+        for (String script : scripts) {
+            try (Reader moves = script.equals("-") ? new InputStreamReader(System.in) : new FileReader(script)) {
+                Console.setInput(moves);
+                Breakthrough thisGame = new Breakthrough();
+                if (seed != null) {
+                    thisGame.setSeed(seed);
+                }
+                if (journal) {
+                    thisGame.setJournal((script.equals("-") ? "stdin" : script) + ".journal", JOURNAL_CHECKPOINT_INTERVAL);
+                }
+                thisGame.playGame();
+                Console.writeSummary(script + ": " + thisGame.getSummary());
+            } catch (IOException e) {
+                Console.writeSummary(script + ": could not be read");
+            }
+        }
+        Console.flush();
+    }
 }
 
 class Breakthrough {
-    private static Random rNoGen = new Random();
+    /**
+     * The first prompt of an interactive game
+     */
+    static final String SETUP_PROMPT = "Enter L to load a game from a file, anything else to play a new game:> ";
+    /**
+     * The file games are loaded from and saved to, set with -Dbreakthrough.saveFile
+     */
+    static final String DEFAULT_SAVE_FILE = System.getProperty("breakthrough.saveFile", "game1.txt");
+    /**
+     * The number of turns between autosaves, 0 for none, set with -Dbreakthrough.autosaveTurns
+     */
+    static final int DEFAULT_AUTOSAVE_TURNS = Integer.getInteger("breakthrough.autosaveTurns", 0);
+    private static final EngineMetrics metrics = EngineMetrics.getInstance();
+
+    // The generator is always started from a known seed, and every draw is counted, so it can be restarted from any point
+    private long seed = new SplittableRandom().nextLong();
+    private boolean seedKnown = true;
+    private long randomDraws;
+    private SplittableRandom rNoGen = new SplittableRandom(seed);
+    // Null if the locks are chosen with rNoGen, otherwise the locks come in the same order however the game is played
+    private SplittableRandom lockStream;
     private CardCollection deck;
     private CardCollection hand;
     private CardCollection sequence;
     private CardCollection discard;
     private List<Lock> locks;
+    // The locks as they were loaded, for other games to share; the game plays on locks, which may be its own copies
+    private List<Lock> library;
+    private ChallengeIndex lockIndex;
     private int score;
     private boolean gameOver;
     private Lock currentLock;
     private boolean lockSolved;
+    private int locksSolved;
+    private int cardsUsed;
+    private int nextCardNumber;
+    private Policy policy;
+    private boolean showMessages;
+    private Card pendingDifficulty;
+    private int pendingCardChoice;
+    private boolean pendingChallengeCheck;
+    private int matchState;
+    private List<Lock> usedLocks = new ArrayList<>();
+    // Null if every lock is equally likely, as in the original game
+    private LockSelector lockSelector;
+    // Null for the engine shared by the whole JVM
+    private HintEngine hintEngine;
+    private String journalFileName;
+    private int journalInterval;
+    private MoveJournal journal;
+    private String saveFileName = DEFAULT_SAVE_FILE;
+    private int autosaveTurns = DEFAULT_AUTOSAVE_TURNS;
+    private int turnsSinceSave;
+    // Null until the game is saved, then the result of the last save, reported once it is known
+    private CompletableFuture<Boolean> lastSave;
 
     /**
      * Sets up the game by initialising the deck, hand, sequence and discard
+     * <br>
+     * The player's decisions are read from the {@link Console}
      */
     public Breakthrough() {
+        this(new ConsolePolicy());
+    }
+
+    /**
+     * Sets up the game by initialising the deck, hand, sequence and discard
+     *
+     * @param p the policy which answers the prompts of the game
+     */
+    public Breakthrough(Policy p) {
+        this(p, "locks.txt");
+    }
+
+    /**
+     * Sets up the game by initialising the deck, hand, sequence and discard
+     *
+     * @param p             the policy which answers the prompts of the game
+     * @param locksFileName the file to load the locks from
+     */
+    public Breakthrough(Policy p, String locksFileName) {
         // Creates empty card collection with a set name/identifier
-        deck = new CardCollection("DECK");
-        hand = new CardCollection("HAND");
-        sequence = new CardCollection("SEQUENCE");
-        discard = new CardCollection("DISCARD");
+        deck = new PackedCardCollection("DECK");
+        hand = new PackedCardCollection("HAND");
+        sequence = new PackedCardCollection("SEQUENCE");
+        discard = new PackedCardCollection("DISCARD");
+        policy = p;
 
         // Sets score to zero and sets up the locks for the game
         score = 0;
-        LoadLocks();
+        LoadLocks(locksFileName);
+    }
+
+    /**
+     * Sets up the game by initialising the deck, hand, sequence and discard, with locks from a library shared with other games
+     * <br>
+     * The game plays on its own copies of the locks, see {@link SessionLocks}, so any number of games can share the library
+     *
+     * @param p       the policy which answers the prompts of the game
+     * @param library the shared library of locks, see {@link Breakthrough#getLocks()}
+     */
+    public Breakthrough(Policy p, List<Lock> library) {
+        deck = new PackedCardCollection("DECK");
+        hand = new PackedCardCollection("HAND");
+        sequence = new PackedCardCollection("SEQUENCE");
+        discard = new PackedCardCollection("DISCARD");
+        policy = p;
+        score = 0;
+        this.library = library;
+        locks = new SessionLocks(library);
     }
 
     /**
      * Main Procedure which controls the flow of the game
+     * <p>
+     * This is the interactive client of the engine: the game is displayed through the {@link Console}
+     * and every decision is answered by the {@link Breakthrough#policy}
      */
     public void playGame() {
         String menuChoice;
         // While there are still locks to be solved
         if (locks.size() > 0) {
-            // Init
-            gameOver = false;
-            currentLock = new Lock();
+            startInteractive();
             setupGame();
-            // While the game is not over
-            while (!gameOver) {
-                lockSolved = false;
-                // While the lock has not been solved and the player has not lost
-                while (!lockSolved && !gameOver) {
-                    // The game display
-                    Console.writeLine();
-                    Console.writeLine("Current score: " + score);
-                    Console.writeLine(currentLock.getLockDetails());
-                    Console.writeLine(sequence.getCardDisplay());
-                    Console.writeLine(hand.getCardDisplay());
-                    // Asks if the player wants to discard inspect or use a card
-                    menuChoice = getChoice();
-                    switch (menuChoice) {
-                        case "D":
-                            // Shows the discard pile
-                            Console.writeLine(discard.getCardDisplay());
-                            break;
-                        case "U":
-                            // Asks the user which card they want to use
-                            int cardChoice = getCardChoice();
-                            // Asks the user whether they want to discard or use the card
-                            String discardOrPlay = getDiscardOrPlayChoice();
-                            if (discardOrPlay.equals("D")) {
-                                // Discards the selected card
-                                moveCard(hand, discard, hand.getCardNumberAt(cardChoice - 1));
-                                // Fetches a card from the deck to add to the user's hand
-                                getCardFromDeck(cardChoice);
-                            } else if (discardOrPlay.equals("P")) {
-                                // Plays the selected card to the sequence
-                                playCardToSequence(cardChoice);
-                            }
-                            break;
-                    }
-                    // Checks if the lock has been solved i.e. if any of the challenges have been solved
-                    if (currentLock.getLockSolved()) {
-                        lockSolved = true;
-                        processLockSolved();
-                    }
+            // While the game is not over and there are still moves to read
+            while (!gameOver && !Console.isEndOfInput()) {
+                showGame();
+                // Asks if the player wants to discard inspect or use a card
+                menuChoice = policy.getChoice(this);
+                switch (menuChoice) {
+                    case "D":
+                        // Shows the discard pile
+                        Console.writeLine(discard.getCardDisplay());
+                        endStep();
+                        break;
+                    case "H":
+                        // Shows the move the hint engine recommends, which does not use up the turn
+                        showHint();
+                        break;
+                    case "S":
+                        // Saves in the background, which does not use up the turn
+                        saveInBackground();
+                        break;
+                    case "U":
+                        // Asks the user which card they want to use
+                        int cardChoice = policy.getCardChoice(this);
+                        // Asks the user whether they want to discard or use the card
+                        String discardOrPlay = policy.getDiscardOrPlayChoice(this, cardChoice);
+                        if (discardOrPlay.equals("D")) {
+                            // Discards the selected card and fetches a card from the deck to add to the user's hand
+                            apply(Action.discard(cardChoice));
+                        } else if (discardOrPlay.equals("P")) {
+                            // Plays the selected card to the sequence
+                            apply(Action.play(cardChoice));
+                        } else {
+                            endStep();
+                        }
+                        // A difficulty card drawn from the deck has to be dealt with before the turn can end
+                        while (pendingDifficulty != null) {
+                            showDifficulty();
+                            apply(Action.fromDifficultyChoice(policy.getDifficultyChoice(this)));
+                        }
+                        break;
+                    default:
+                        endStep();
+                        break;
                 }
-                // Checks if the player has lost
-                gameOver = checkIfPlayerHasLost();
             }
         } else {
             // Throws error if there are no locks in the locks file
             Console.writeLine("No locks in file.");
         }
+        closeJournal();
+        waitForSave();
+        Console.flush();
     }
 
     /**
-     * Executed when the player has solved a lock
-     * <p>
-     * Adds 10 to the user's score
-     * <br>
-     * Moves all cards from the discard pile to the deck
-     * <br>
-     * Shuffles the deck
-     * <br>
-     * Gets a new lock
+     * Gets the game ready to be played interactively, with messages shown on the {@link Console}
      */
-    private void processLockSolved() {
-        score += 10;
-        Console.writeLine("Lock has been solved.  Your score is now: " + score);
-        // Moves all cards from the discard pile to the deck
-        while (discard.getNumberOfCards() > 0) {
-            moveCard(discard, deck, discard.getCardNumberAt(0));
+    void startInteractive() {
+        showMessages = true;
+        gameOver = false;
+        currentLock = new Lock();
+    }
+
+    /**
+     * Shows the game display: the score, the current lock, the sequence and the hand
+     */
+    void showGame() {
+        reportSave();
+        Console.writeLine();
+        Console.writeLine("Current score: " + score);
+        Console.writeLine(currentLock.getLockDetails());
+        Console.writeLine(sequence.getCardDisplay());
+        Console.writeLine(hand.getCardDisplay());
+    }
+
+    /**
+     * Shows that a difficulty card has been drawn, with the hand the player can lose a key from
+     */
+    void showDifficulty() {
+        Console.writeLine();
+        Console.writeLine("Difficulty encountered!");
+        Console.writeLine(hand.getCardDisplay());
+    }
+
+    /**
+     * Shows the move recommended by the {@link HintEngine}, found within its time budget
+     */
+    void showHint() {
+        HintEngine engine = hintEngine != null ? hintEngine : HintEngine.getShared();
+        int action = engine.chooseAction(this);
+        int position = Action.getPosition(action);
+        switch (action < 0 ? -1 : Action.getKind(action)) {
+            case Action.PLAY:
+                Console.writeLine("Hint: use card " + position + " (" + hand.getCardDescriptionAt(position - 1) + ") and play it");
+                break;
+            case Action.DISCARD:
+                Console.writeLine("Hint: use card " + position + " (" + hand.getCardDescriptionAt(position - 1) + ") and discard it");
+                break;
+            case Action.LOSE_KEY:
+                Console.writeLine("Hint: lose the key in position " + position);
+                break;
+            case Action.DISCARD_FIVE:
+                Console.writeLine("Hint: discard five cards from the deck");
+                break;
+            default:
+                Console.writeLine("No hint");
+                break;
         }
-        deck.shuffle();
-        currentLock = getRandomLock();
     }
 
     /**
-     * If the deck has no cards left and the player's hand can't be filled with 5 card, the player has lost
+     * Plays a whole new game without any {@link Console} input or output
      * <br>
-     * Prints out the score
+     * Every decision is answered by the {@link Breakthrough#policy}
      *
-     * @return true if the player has lost, false otherwise
+     * @param seed the seed which determines the order of the deck and the locks
+     * @return the final score of the game
      */
-    private boolean checkIfPlayerHasLost() {
-        if (deck.getNumberOfCards() == 0) {
-            Console.writeLine("You have run out of cards in your deck.  Your final score is: " + score);
-            return true;
-        } else {
-            return false;
+    public int playHeadless(long seed) {
+        reset(seed);
+        while (!gameOver) {
+            playTurn();
         }
+        return score;
     }
 
     /**
-     * Offers the user an option to load a game (from game1.txt) or play a new game
-     * <p>
-     * Creates a standard 33-card deck
-     * <br>
-     * Shuffles the deck
-     * <p>
-     * Takes the first 5 cards from the deck and moves them to the player's hand
-     * <p>
-     * 5 Difficulty cards are added to the deck
+     * Asks the {@link Breakthrough#policy} for the next decision and applies it, without any {@link Console} output
      * <br>
-     * The deck is reshuffled
-     * <p>
-     * A random lock is chosen to be solved
+     * This is either a whole turn or the answer to a difficulty card
      */
-    private void setupGame() {
-        String choice;
-        Console.write("Enter L to load a game from a file, anything else to play a new game:> ");
-        choice = Console.readLine().toUpperCase();
-        if (choice.equals("L")) {
-            if (!loadGame("game1.txt")) {
-                // If the game can't be loaded, the game ends
-                gameOver = true;
+    public void playTurn() {
+        if (pendingDifficulty != null) {
+            apply(Action.fromDifficultyChoice(policy.getDifficultyChoice(this)));
+        } else if (policy.getChoice(this).equals("U")) {
+            int cardChoice = policy.getCardChoice(this);
+            String discardOrPlay = policy.getDiscardOrPlayChoice(this, cardChoice);
+            if (discardOrPlay.equals("D")) {
+                apply(Action.discard(cardChoice));
+            } else if (discardOrPlay.equals("P")) {
+                apply(Action.play(cardChoice));
+            } else {
+                endStep();
             }
         } else {
-            // Creates a standard 33-card deck, shuffles it,
-            // Takes the first 5 cards from the deck and moves them to the player's hand
-            createStandardDeck();
-            deck.shuffle();
-            for (int count = 1; count <= 5; count++) {
-                moveCard(deck, hand, deck.getCardNumberAt(0));
-            }
-            // 5 Difficulty cards are added to the deck,
-            // The deck is reshuffled,
-            // A random lock is chosen to be solved
-            addDifficultyCardsToDeck();
-            deck.shuffle();
-            currentLock = getRandomLock();
+            endStep();
         }
     }
 
     /**
-     * Plays the selected card to the sequence
-     * <br>
-     * Checks if the card is valid i.e. can't play the same type of tool twice in a row
+     * Changes the policy which answers the prompts of the game
+     *
+     * @param p the new policy
+     */
+    public void setPolicy(Policy p) {
+        policy = p;
+    }
+
+    /**
+     * Changes how the next lock is chosen, from the next lock on
      * <br>
-     * After the card is played to the sequence, it checks if the card has solved any challenges
-     * @param cardChoice The card the user has selected to play to the sequence
+     * A selector can be shared by every game playing from the same library
+     *
+     * @param s the selector, null for every lock to be equally likely
      */
-    private void playCardToSequence(int cardChoice) {
-        if (sequence.getNumberOfCards() > 0) {
-            // If the user is trying to play a card different to the last card in the sequence
-            // This is checked to ensure the same type of tool is not played twice in a row
-            if (hand.getCardDescriptionAt(cardChoice - 1).charAt(0) != sequence.getCardDescriptionAt(sequence.getNumberOfCards() - 1).charAt(0)) {
-                // Moves the card from the user's hand to the sequence and fetches a new card from the deck
-                score += moveCard(hand, sequence, hand.getCardNumberAt(cardChoice - 1));
-                getCardFromDeck(cardChoice);
+    public void setLockSelector(LockSelector s) {
+        lockSelector = s;
+    }
+
+    /**
+     * Changes the engine which works out the hints asked for during the game
+     *
+     * @param engine the engine, null for the one shared by the whole JVM, see {@link HintEngine#getShared()}
+     */
+    public void setHintEngine(HintEngine engine) {
+        hintEngine = engine;
+    }
+
+    /**
+     * Changes the file the game is loaded from and saved to
+     *
+     * @param fileName the name of the file, in the format of game1.txt
+     */
+    public void setSaveFile(String fileName) {
+        saveFileName = fileName;
+    }
+
+    /**
+     * Saves the game every so many turns, on the {@link SaveWriter}'s thread
+     *
+     * @param turns the number of turns between saves, 0 to stop saving
+     */
+    public void setAutosave(int turns) {
+        autosaveTurns = turns;
+        turnsSinceSave = 0;
+    }
+
+    /**
+     * Starts a new game without any {@link Console} input or output
+     * <p>
+     * The same seed always deals the same deck and chooses the same locks
+     *
+     * @param seed the seed for the random number generator of the game
+     */
+    public void reset(long seed) {
+        setSeed(seed);
+        startNewGame();
+        openJournal();
+    }
+
+    /**
+     * Starts a new game without any {@link Console} input or output
+     * <p>
+     * Games run in parallel should each be given their own stream, e.g. from {@link SplittableRandom#split()}
+     *
+     * @param stream the random number generator the game shuffles and chooses locks with
+     */
+    public void reset(SplittableRandom stream) {
+        reset(stream, (SplittableRandom) null);
+    }
+
+    /**
+     * Starts a new game without any {@link Console} input or output, choosing the locks with their own generator
+     * <p>
+     * The deal depends only on the first stream and the order of the locks only on the second, so games dealt from
+     * the same pair of seeds are the same for every player, however differently they play, see {@link PolicyArena}
+     *
+     * @param stream     the random number generator the game shuffles with
+     * @param lockStream the random number generator the game chooses locks with, null to use {@code stream}
+     */
+    public void reset(SplittableRandom stream, SplittableRandom lockStream) {
+        rNoGen = stream;
+        this.lockStream = lockStream;
+        seedKnown = false;
+        startNewGame();
+    }
+
+    /**
+     * Clears the last game and deals a new one with the current random number generator
+     */
+    private void startNewGame() {
+        closeJournal();
+        showMessages = false;
+        // Cards are held packed into ints to keep simulations light on memory
+        deck = new PackedCardCollection("DECK");
+        hand = new PackedCardCollection("HAND");
+        sequence = new PackedCardCollection("SEQUENCE");
+        discard = new PackedCardCollection("DISCARD");
+        score = 0;
+        locksSolved = 0;
+        cardsUsed = 0;
+        gameOver = false;
+        lockSolved = false;
+        pendingDifficulty = null;
+        pendingChallengeCheck = false;
+        // Locks are shared between games so any challenges met in the last game are cleared
+        for (Lock l : usedLocks) {
+            for (int count = 0; count < l.getNumberOfChallenges(); count++) {
+                l.setChallengeMet(count, false);
             }
+        }
+        usedLocks.clear();
+        if (locks.size() > 0) {
+            dealNewGame();
         } else {
-            // Since the sequence is empty, the user can play any card
-            score += moveCard(hand, sequence, hand.getCardNumberAt(cardChoice - 1));
-            getCardFromDeck(cardChoice);
+            gameOver = true;
         }
+    }
 
-        // Checks if the user has solved a challenge in the lock
-        if (checkIfLockChallengeMet()) {
-            Console.writeLine();
-            Console.writeLine("A challenge on the lock has been met.");
-            Console.writeLine();
-            score += 5;
+    /**
+     * Starts a new game without any {@link Console} input or output, with the given lock as the first lock
+     *
+     * @param stream    the random number generator the game shuffles and chooses locks with
+     * @param firstLock the position of the first lock in the library
+     */
+    public void reset(SplittableRandom stream, int firstLock) {
+        reset(stream);
+        if (!gameOver) {
+            currentLock = locks.get(firstLock);
+            usedLocks.add(currentLock);
+            restartMatchState();
         }
     }
 
     /**
-     * Checks if any of the challenges have been met by the new card added to the sequence
+     * Returns the actions which can currently be applied with {@link Breakthrough#apply(int)}
      * <p>
-     * Note: Returns true immediately after the first challenge is met meaning there could be other challenges that were met
-     * @return true if a challenge has been met, false otherwise
+     * Plays which would put the same type of tool twice in a row are left out as they do nothing
+     *
+     * @param actions the array to fill, must hold at least {@link Action#MAX_LEGAL_ACTIONS} actions
+     * @return the number of actions written to {@code actions}
      */
-    private boolean checkIfLockChallengeMet() {
-        String sequenceAsString = "";
-        // Loops through the sequence from the last card to the first card
-        // Adds the card to the sequence and then checks if it meets any of the challenges
-        for (int count = sequence.getNumberOfCards() - 1; count >= Math.max(0, sequence.getNumberOfCards() - 3); count--) {
-            // Only adds commas if the sequence contains at least 1 card
-            if (sequenceAsString.length() > 0) {
-                sequenceAsString = ", " + sequenceAsString;
+    public int legalActions(int[] actions) {
+        int count = 0;
+        if (gameOver) {
+            return 0;
+        }
+        if (pendingDifficulty != null) {
+            // A key in the hand can be lost, otherwise five cards are discarded from the deck
+            for (int pos = 1; pos <= 5; pos++) {
+                int handPos = DifficultyCard.getHandPosition(pos, pendingCardChoice);
+                if (handPos < hand.getNumberOfCards() && hand.getCardDescriptionAt(handPos).charAt(0) == 'K') {
+                    actions[count++] = Action.loseKey(pos);
+                }
             }
-
-            // Adds the next card to the sequence
-            sequenceAsString = sequence.getCardDescriptionAt(count) + sequenceAsString;
-            // Checks if the sequence meets any of the challenges
-            if (currentLock.checkIfConditionMet(sequenceAsString)) {
-                return true;
+            actions[count++] = Action.DISCARD_FIVE;
+            return count;
+        }
+        for (int cardChoice = 1; cardChoice <= hand.getNumberOfCards(); cardChoice++) {
+            actions[count++] = Action.discard(cardChoice);
+            if (sequence.getNumberOfCards() == 0 || hand.getCardDescriptionAt(cardChoice - 1).charAt(0) != sequence.getCardDescriptionAt(sequence.getNumberOfCards() - 1).charAt(0)) {
+                actions[count++] = Action.play(cardChoice);
             }
         }
-        return false;
+        return count;
     }
 
     /**
-     * Extracts card data from a string and adds it to the specified {@link CardCollection}
+     * Returns the actions which can currently be applied with {@link Breakthrough#apply(int)}
      *
-     * @param lineFromFile The string containing the card data
-     * @param cardCol      the {@link CardCollection} to add the cards to
+     * @return the legal actions
      */
-    private void setupCardCollectionFromGameFile(String lineFromFile, CardCollection cardCol) {
-        List<String> splitLine;
-        int cardNumber;
-        if (lineFromFile.length() > 0) {
-            splitLine = Arrays.asList(lineFromFile.split(","));
-            for (String item : splitLine) {
-                // If the item length is 5 then the card number is a single digit, two digits otherwise
-                if (item.length() == 5) {
-                    cardNumber = Integer.parseInt(item.charAt(4) + "");
-                } else {
-                    cardNumber = Integer.parseInt(item.substring(4, 6));
-                }
-                // If the item starts with 'Dif' then the card is a difficulty card, otherwise it is a normal card (toolcard)
-                if (item.substring(0, 3).equals("Dif")) {
-                    DifficultyCard currentCard = new DifficultyCard(cardNumber);
-                    cardCol.addCard(currentCard);
-                } else {
-                    ToolCard currentCard = new ToolCard(item.charAt(0) + "", item.charAt(2) + "", cardNumber);
-                    cardCol.addCard(currentCard);
-                }
-            }
-        }
+    public int[] legalActions() {
+        int[] actions = new int[Action.MAX_LEGAL_ACTIONS];
+        return Arrays.copyOf(actions, legalActions(actions));
     }
 
     /**
-     * Loads a lock from the game file
+     * Applies a single decision of the player to the game
+     * <p>
+     * If a difficulty card is drawn the step stops until the difficulty is dealt with by
+     * applying {@link Action#loseKey(int)} or {@link Action#DISCARD_FIVE}
      *
-     * @param line1 The challenges in the lock
-     * @param line2 The lock status - challenges met or not
+     * @param action the action encoded by {@link Action}
      */
-    private void setupLock(String line1, String line2) {
-        List<String> splitLine;
-        splitLine = Arrays.asList(line1.split(";"));
-        // Adds all the challenges to the lock
-        for (String item : splitLine) {
-            List<String> conditions;
-            conditions = Arrays.asList(item.split(","));
-            currentLock.addChallenge(conditions);
+    public void apply(int action) {
+        Object turn = GameEvents.beginTurn();
+        boolean wasOver = gameOver;
+        int cardChoice = Action.getPosition(action);
+        switch (Action.getKind(action)) {
+            case Action.PLAY:
+                int sequenceSize = sequence.getNumberOfCards();
+                playCardToSequence(cardChoice);
+                if (sequence.getNumberOfCards() > sequenceSize) {
+                    cardsUsed += 1;
+                }
+                break;
+            case Action.DISCARD:
+                // Discards the selected card and fetches a card from the deck to add to the user's hand
+                cardsUsed += 1;
+                moveCard(hand, discard, hand.getCardNumberAt(cardChoice - 1));
+                getCardFromDeck(cardChoice);
+                break;
+            case Action.LOSE_KEY:
+            case Action.DISCARD_FIVE:
+                resolveDifficulty(cardChoice);
+                break;
         }
-        // Changes each lock to either met or unmet
-        splitLine = Arrays.asList(line2.split(";"));
-        for (int count = 0; count < splitLine.size(); count++) {
-            if (splitLine.get(count).equals("Y")) {
-                currentLock.setChallengeMet(count, true);
+        if (pendingDifficulty == null) {
+            endStep();
+            if (autosaveTurns > 0 && ++turnsSinceSave >= autosaveTurns) {
+                saveInBackground();
+            }
+        }
+        GameEvents.endTurn(turn, this, action);
+        if (gameOver && !wasOver) {
+            GameEvents.gameOver(this);
+        }
+        if (journal != null) {
+            journal.record(this, action);
+            if (gameOver) {
+                closeJournal();
             }
         }
     }
 
     /**
-     * Loads the game from a file
+     * Returns a snapshot of the game which can be read by a {@link Policy}
      *
-     * @param fileName the name of the file to load
-     * @return true if the game was loaded successfully, false otherwise
+     * @return a snapshot of the game
      */
-    private boolean loadGame(String fileName) {
-        String lineFromFile;
-        String lineFromFile2;
-        try {
-            BufferedReader myStream = new BufferedReader(new FileReader(fileName));
-
-            // 1st line in game file = score
-            lineFromFile = myStream.readLine();
-            score = Integer.parseInt(lineFromFile);
+    public Observation observe() {
+        return new Observation(score, gameOver, pendingDifficulty != null, hand, sequence, deck.getNumberOfCards(), discard.getNumberOfCards(), currentLock);
+    }
 
-            // 2nd and 3rd line in game file = Lock + Lock status
-            lineFromFile = myStream.readLine();
-            lineFromFile2 = myStream.readLine();
-            setupLock(lineFromFile, lineFromFile2);
-
-            // 4th line in game file = hand
-            lineFromFile = myStream.readLine();
-            setupCardCollectionFromGameFile(lineFromFile, hand);
-
-            // 5th line in game file = sequence
-            lineFromFile = myStream.readLine();
-            setupCardCollectionFromGameFile(lineFromFile, sequence);
-
-            // 6th line in game file = discard
-            lineFromFile = myStream.readLine();
-            setupCardCollectionFromGameFile(lineFromFile, discard);
-
-            // 7th line in game file = deck
-            lineFromFile = myStream.readLine();
-            setupCardCollectionFromGameFile(lineFromFile, deck);
-
-            // Closes the buffered reader and returns true to indicate success
-            myStream.close();
-            return true;
-
-        } catch (Exception e) {
-            // Returns false to indicate failure
-            Console.writeLine("File not loaded");
-            return false;
-        }
-    }
+    /**
+     * Finds the challenges across all the locks which the hand can complete in one or two plays
+     * from the end of the current sequence
+     *
+     * @return the challenges which are one or two plays from being met
+     */
+    public List<ChallengePosting> findChallengesNearlyMet() {
+        // The index is built the first time it is needed, as it has to go through every lock in the library
+        if (lockIndex == null) {
+            lockIndex = new ChallengeIndex(locks);
+        }
+        return lockIndex.findNearlyMet(sequence, hand);
+    }
 
     /**
-     * Loads all the locks (and their challenges) into the program
-     * <p>
-     * All the loaded locks are stored in the global {@link Breakthrough#locks} list
+     * Returns true once the player has lost
+     *
+     * @return true if the game is over, false otherwise
      */
-    private void LoadLocks() {
-        // Init
-        String fileName = "locks.txt";
-        String lineFromFile;
-        List<String> challenges;
-        locks = new ArrayList<>();
-        try {
-            // Sets up the buffered reader
-            BufferedReader myStream = new BufferedReader(new FileReader(fileName));
-            lineFromFile = myStream.readLine();
-            while (lineFromFile != null) {
-                // Splits each line in the file (lock) into an array of strings (challenges)
-                challenges = Arrays.asList(lineFromFile.split(";"));
-                Lock lockFromFile = new Lock();
-                for (String c : challenges) {
-                    List<String> conditions;
-                    // Splits each challenge into its conditions
-                    conditions = Arrays.asList(c.split(","));
-                    lockFromFile.addChallenge(conditions);
-                }
-                // Adds the lock to the global list of locks
-                locks.add(lockFromFile);
-                lineFromFile = myStream.readLine();
-            }
-        } catch (Exception e) {
-            Console.writeLine("File not loaded");
-        }
+    public boolean isGameOver() {
+        return gameOver;
     }
 
     /**
-     * Returns a random lock from the {@link Breakthrough#locks} collection
+     * Uses a fixed seed for the random number generator so that a new game is always dealt the same way
      *
-     * @return a random lock from the {@link Breakthrough#locks} collection
+     * @param seed the seed for the random number generator
      */
-    private Lock getRandomLock() {
-        return locks.get(rNoGen.nextInt(locks.size()));
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seedKnown = true;
+        lockStream = null;
+        restartRandom(0);
     }
 
     /**
-     * Refills the player's {@link Breakthrough#hand} with the top cards from the {@link Breakthrough#deck}
+     * Starts the random number generator from the seed as it was after the given number of draws
+     * <p>
+     * Every draw takes exactly one step, see {@link CardCollection#randomIndex(SplittableRandom, int)}, so the
+     * generator is started from the seed and stepped past the draws already made. A game makes a few hundred.
      *
-     * @param cardChoice the card the player wishes to play to the sequence
+     * @param draws the number of draws made since the generator was seeded
      */
-    private void getCardFromDeck(int cardChoice) {
-        // If there are cards in the deck
-        if (deck.getNumberOfCards() > 0) {
-            // If the first card is a difficulty card then it is dealt with
-            if (deck.getCardDescriptionAt(0).equals("Dif")) {
-                // Prints out difficulty card dialog
-                Card currentCard = deck.removeCard(deck.getCardNumberAt(0));
-                Console.writeLine();
-                Console.writeLine("Difficulty encountered!");
-                Console.writeLine(hand.getCardDisplay());
-                Console.write("To deal with this you need to either lose a key ");
-                Console.write("(enter 1-5 to specify position of key) or (D)iscard five cards from the deck:> ");
-                String choice = Console.readLine();
-                Console.writeLine();
-                // Discards the encountered difficulty card
-                discard.addCard(currentCard);
-                // Allows the user to choose between discarding a key from their hand or discarding five cards
-                currentCard.process(deck, discard, hand, sequence, currentLock, choice, cardChoice);
-            }
-        }
-
-        // Refills the player's hand with cards from the deck
-        // Prints a message if a difficulty card is removed in the process
-        while (hand.getNumberOfCards() < 5 && deck.getNumberOfCards() > 0) {
-            if (deck.getCardDescriptionAt(0).equals("Dif")) {
-                moveCard(deck, discard, deck.getCardNumberAt(0));
-                Console.writeLine("A difficulty card was discarded from the deck when refilling the hand.");
-            } else {
-                moveCard(deck, hand, deck.getCardNumberAt(0));
-            }
-        }
-        // If the deck has no cards left and the player does not have 5 cards in their hand then game over
-        if (deck.getNumberOfCards() == 0 && hand.getNumberOfCards() < 5) {
-            gameOver = true;
+    private void restartRandom(long draws) {
+        rNoGen = new SplittableRandom(seed);
+        for (long count = 0; count < draws; count++) {
+            rNoGen.nextLong();
         }
+        randomDraws = draws;
     }
 
     /**
-     * Returns the card which user has chosen to select (1-5)
-     * <p>
-     * This is the second user input prompt
-     * @return the card which user has chosen to select (1-5)
+     * Shuffles the deck, counting the draws from the random number generator
      */
-    private int getCardChoice() {
-        String choice;
-        int value = 0;
-        boolean parsed;
-        // Do while loop to ensure that the user enters a valid integer
-        // Loops until the user enters a valid integer
-        do {
-            Console.write("Enter a number between 1 and 5 to specify card to use:> ");
-            choice = Console.readLine();
-            try {
-                // Parses the input to an integer
-                value = Integer.parseInt(choice);
-                parsed = true;
-            } catch (NumberFormatException e) {
-                parsed = false;
-            }
-        } while (!parsed);
-        // Returns the integer if it is between 1 and 5 (inclusive)
-        return value;
+    private void shuffleDeck() {
+        long start = EngineMetrics.startTimer();
+        deck.shuffle(rNoGen);
+        randomDraws += Math.max(deck.getNumberOfCards() - 1, 0);
+        metrics.recordShuffle(start);
     }
 
     /**
-     * Prompts the user for input and returns the choice of the user to discard or play a card
-     * <p>
-     * This is the third user input prompt
-     * @return the choice of the user (D or P)
+     * Returns a one line summary of the game, e.g. for checking the result of a script of moves
+     *
+     * @return the score, the number of locks solved and whether the game is over
      */
-    private String getDiscardOrPlayChoice() {
-        String choice;
-        Console.write("(D)iscard or (P)lay?:> ");
-        choice = Console.readLine().toUpperCase();
-        return choice;
+    public String getSummary() {
+        return "score " + score + ", locks solved " + locksSolved + ", " + (gameOver ? "game over" : "not finished");
     }
 
     /**
-     * Prompts the user for input and returns the choice of the player to discard or use a card
-     * <p>
-     * This is the first user input prompt
-     * @return the choice of the player (D or U)
+     * Returns the number of locks solved so far
+     *
+     * @return the number of locks solved
      */
-    private String getChoice() {
-        Console.writeLine();
-        Console.write("(D)iscard inspect, (U)se card:> ");
-        String choice = Console.readLine().toUpperCase();
-        return choice;
+    public int getLocksSolved() {
+        return locksSolved;
     }
 
     /**
-     * Adds 5 difficulty cards to the deck
-     * <p>
-     * This is executed after the player has their 5 initial cards in their hand
+     * Returns the number of cards the player has played or discarded from their hand
+     *
+     * @return the number of cards used
      */
-    private void addDifficultyCardsToDeck() {
-        for (int count = 1; count <= 5; count++) {
-            deck.addCard(new DifficultyCard());
-        }
+    public int getCardsUsed() {
+        return cardsUsed;
     }
 
     /**
-     * Loads all the toolkits into the deck
-     * <br>
-     * 3 Toolkits: Acute Kit, Basic Kit, Crude Kit
-     * <br>
-     * 3 Tools: Pick, File, Key
-     * <br>
-     * 5 Picks in each kit
-     * <br>
-     * 3 Files in each kit
-     * <br>
-     * 3 Keys in each kit
+     * Returns the library of locks, for other games to share; it must not be changed
+     *
+     * @return the locks
      */
-    private void createStandardDeck() {
-        Card newCard;
-        for (int count = 1; count <= 5; count++) {
-            // Picks
-            newCard = new ToolCard("P", "a");
-            deck.addCard(newCard);
-            newCard = new ToolCard("P", "b");
-            deck.addCard(newCard);
-            newCard = new ToolCard("P", "c");
-            deck.addCard(newCard);
-        }
-        for (int count = 1; count <= 3; count++) {
-            // Files
-            newCard = new ToolCard("F", "a");
-            deck.addCard(newCard);
-            newCard = new ToolCard("F", "b");
-            deck.addCard(newCard);
-            newCard = new ToolCard("F", "c");
-            deck.addCard(newCard);
-
-            // Keys
-            newCard = new ToolCard("K", "a");
-            deck.addCard(newCard);
-            newCard = new ToolCard("K", "b");
-            deck.addCard(newCard);
-            newCard = new ToolCard("K", "c");
-            deck.addCard(newCard);
-        }
+    public List<Lock> getLocks() {
+        return library;
     }
 
     /**
-     * Moves a card from one {@link CardCollection} to another
+     * Returns the number of locks in the library
      *
-     * @param fromCollection the CardCollection to move the card from
-     * @param toCollection   the CardCollection to move the card to
-     * @param cardNumber     the number of the card to move
-     * @return score of a card when moving a card from hand to sequence
+     * @return the number of locks
      */
-    private int moveCard(CardCollection fromCollection, CardCollection toCollection, int cardNumber) {
-        int score = 0;
-        // If the card is moving from the hand to the sequence:
-        // the score of the card is stored in the score variable
-        if (fromCollection.getName().equals("HAND") && toCollection.getName().equals("SEQUENCE")) {
-            Card cardToMove = fromCollection.removeCard(cardNumber);
-            if (cardToMove != null) {
-                toCollection.addCard(cardToMove);
-                score = cardToMove.getScore();
-            }
-        } else {
-            Card cardToMove = fromCollection.removeCard(cardNumber);
-            if (cardToMove != null) {
-                toCollection.addCard(cardToMove);
-            }
-        }
-        return score;
+    public int getNumberOfLocks() {
+        return locks.size();
     }
-}
-
-class Challenge {
-    protected List<String> condition;
-    protected boolean met;
 
     /**
-     * Constructor for a Challenge
+     * Returns the lock being solved, for policies which look ahead; it must not be changed
+     *
+     * @return the current lock
      */
-    public Challenge() {
-        // Initialized to unmet
-        met = false;
+    Lock getCurrentLock() {
+        return currentLock;
     }
 
     /**
-     * Checks if the challenge has been met
+     * Returns the position of the current lock in the library, see {@link Lock#getLibraryNumber()}
      *
-     * @return true if the challenge has been met, false otherwise
+     * @return the position of the lock, -1 if it did not come from the library e.g. it was loaded with a saved game
      */
-    public boolean getMet() {
-        return met;
+    int getCurrentLockNumber() {
+        return locks.indexOf(currentLock);
     }
 
     /**
-     * Returns the conditions of the challenge
+     * Returns the state of the {@link Lock#getMatcher() matcher} of the current lock after the last card in the sequence
      *
-     * @return condition
+     * @return the match state of the sequence
      */
-    public List<String> getCondition() {
-        return condition;
+    int getMatchState() {
+        return matchState;
     }
 
     /**
-     * Sets the met state of the challenge
+     * Returns the player's hand, for policies which look ahead; it must not be changed
      *
-     * @param newValue the new value of the met state
+     * @return the player's hand
      */
-    public void SetMet(boolean newValue) {
-        met = newValue;
+    CardCollection getHand() {
+        return hand;
     }
 
     /**
-     * Sets the conditions in the challenge
+     * Returns the deck, for solvers which count the cards left in it; it must not be changed
      *
-     * @param newCondition the new conditions in the challenge
+     * @return the deck
      */
-    public void setCondition(List<String> newCondition) {
-        condition = newCondition;
+    CardCollection getDeck() {
+        return deck;
     }
-}
-
-class Lock {
-    protected List<Challenge> challenges = new ArrayList<>();
 
     /**
-     * Adds a challenge to the lock
+     * Returns the sequence of cards played, for solvers; it must not be changed
      *
-     * @param condition the condition of the challenge
+     * @return the sequence
      */
-    public void addChallenge(List<String> condition) {
-        Challenge c = new Challenge();
-        c.setCondition(condition);
-        challenges.add(c);
+    CardCollection getSequence() {
+        return sequence;
     }
 
     /**
-     * Converts a challenge in the lock to a string
-     * <p>
-     * Example: ["K a", "P a", "F a"];
-     * <br>
-     * Returns: "K a, P a, F a"
+     * Returns the discard pile, for solvers; it must not be changed
      *
-     * @param c the challenge to convert
-     * @return the challenge as a string
+     * @return the discard pile
      */
-    private String convertConditionToString(List<String> c) {
-        String conditionAsString = "";
-        // iterator goes up to size - 2 so that there is no comma at the end
-        for (int pos = 0; pos <= c.size() - 2; pos++) {
-            conditionAsString += c.get(pos) + ", ";
-        }
-        // Final condition is added
-        conditionAsString += c.get(c.size() - 1);
-        return conditionAsString;
+    CardCollection getDiscard() {
+        return discard;
     }
 
     /**
-     * Returns a string representation of the status of the lock
+     * Returns true while a difficulty card is waiting for the player's choice
      *
-     * @return string representation of the status of the lock
+     * @return true if a difficulty is waiting to be dealt with
      */
-    public String getLockDetails() {
-        String lockDetails = System.lineSeparator() + "CURRENT LOCK" + System.lineSeparator() + "------------" + System.lineSeparator();
-        for (Challenge c : challenges) {
-            // Sets up first text
-            if (c.getMet()) {
-                lockDetails += "Challenge met: ";
-            } else {
-                lockDetails += "Not met:       ";
-            }
-            // Adds all the challenges in the lock to the output string
-            lockDetails += convertConditionToString(c.getCondition()) + System.lineSeparator();
-        }
-        // Final separator
-        lockDetails += System.lineSeparator();
-        return lockDetails;
+    boolean isDifficultyPending() {
+        return pendingDifficulty != null;
     }
 
     /**
-     * Checks if a lock has been solved
+     * Returns the position of the card which was played or discarded when the pending difficulty card was drawn
      *
-     * @return true if all challenges are met, false otherwise
+     * @return the position of the card in the hand (1-5)
      */
-    public boolean getLockSolved() {
-        // Checks if each challenge has been met
-        for (Challenge c : challenges) {
-            if (!c.getMet()) {
-                return false;
-            }
-        }
-        return true;
+    int getPendingCardChoice() {
+        return pendingCardChoice;
     }
 
     /**
-     * Checks if a certain sequence of cards meet a challenge
+     * Returns true if the challenges are still to be checked once the pending difficulty is dealt with,
+     * i.e. the difficulty card was drawn after a card was played to the sequence
      *
-     * @param sequence the sequence of cards to check
-     * @return true if a challenge was met, false otherwise
+     * @return true if the challenges will be checked after the difficulty
      */
-    public boolean checkIfConditionMet(String sequence) {
-        for (Challenge c : challenges) {
-            // If the condition has not been met yet, and it is in the sequence
-            if (!c.getMet() && sequence.equals(convertConditionToString(c.getCondition()))) {
-                c.SetMet(true);
-                return true;
-            }
-        }
-        return false;
+    boolean isChallengeCheckPending() {
+        return pendingChallengeCheck;
     }
 
     /**
-     * Sets a challenges state to met or unmet
+     * Returns the current score
      *
-     * @param pos   position of the challenge
-     * @param value true if the challenge is met, false otherwise
+     * @return the current score
      */
-    public void setChallengeMet(int pos, boolean value) {
-        challenges.get(pos).SetMet(value);
+    public int getScore() {
+        return score;
     }
 
     /**
-     * Checks if a certain challenge in the lock has been met
-     *
-     * @param pos the position of the challenge in the lock's list
-     * @return true if the challenge is met, false otherwise
+     * Checks if the lock has been solved and if the player has lost at the end of every step of the game
      */
-    public boolean getChallengeMet(int pos) {
-        return challenges.get(pos).getMet();
+    void endStep() {
+        // Checks if the lock has been solved i.e. if all of the challenges have been solved
+        if (currentLock.getLockSolved()) {
+            lockSolved = true;
+            processLockSolved();
+        }
+        // Checks if the player has lost
+        if (lockSolved || gameOver) {
+            lockSolved = false;
+            gameOver = checkIfPlayerHasLost();
+        }
     }
 
     /**
-     * Returns the number of challenges in the lock
+     * Prints a message to the {@link Console} if the game is being played interactively
      *
-     * @return the number of challenges in the lock
+     * @param message the message to print
      */
-    public int getNumberOfChallenges() {
-        return challenges.size();
+    private void showMessage(String message) {
+        if (showMessages) {
+            Console.writeLine(message);
+        }
     }
-}
-
-class Card {
-    protected int cardNumber, score;
-    protected static int nextCardNumber = 1;
 
     /**
-     * Constructor for a card
-     */
-    public Card() {
-        cardNumber = nextCardNumber;
-        nextCardNumber += 1;
+     * Executed when the player has solved a lock
+     * <p>
+     * Adds 10 to the user's score
+     * <br>
+     * Moves all cards from the discard pile to the deck
+     * <br>
+     * Shuffles the deck
+     * <br>
+     * Gets a new lock
+     */
+    private void processLockSolved() {
+        long start = EngineMetrics.startTimer();
+        // Finding the lock in the library is a search, so it is only done if the event is being recorded
+        int solvedLockNumber = GameEvents.isLockSolvedEnabled() ? getCurrentLockNumber() : -1;
+        score += 10;
+        locksSolved += 1;
+        showMessage("Lock has been solved.  Your score is now: " + score);
+        // Moves all cards from the discard pile to the deck
+        discard.moveAllTo(deck);
+        shuffleDeck();
+        currentLock = getRandomLock(currentLock);
+        restartMatchState();
+        metrics.recordLockSolved(start);
+        GameEvents.lockSolved(this, solvedLockNumber);
+    }
+
+    /**
+     * If the deck has no cards left and the player's hand can't be filled with 5 card, the player has lost
+     * <br>
+     * Prints out the score
+     *
+     * @return true if the player has lost, false otherwise
+     */
+    private boolean checkIfPlayerHasLost() {
+        if (deck.getNumberOfCards() == 0) {
+            showMessage("You have run out of cards in your deck.  Your final score is: " + score);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Offers the user an option to load a game (from game1.txt) or play a new game
+     */
+    private void setupGame() {
+        String choice;
+        Console.prompt(SETUP_PROMPT);
+        choice = Console.readLine().toUpperCase();
+        setupGame(choice);
+    }
+
+    /**
+     * Sets up the game from the player's answer to the {@link Breakthrough#SETUP_PROMPT}
+     *
+     * @param choice L to load the game from the save file, game1.txt unless it has been changed, anything else to deal a new game
+     */
+    void setupGame(String choice) {
+        if (choice.equals("L")) {
+            if (!loadGame(saveFileName)) {
+                // If the game can't be loaded, the game ends
+                gameOver = true;
+            } else {
+                GameEvents.gameStarted(this, true);
+            }
+        } else {
+            dealNewGame();
+        }
+        openJournal();
+    }
+
+    /**
+     * Deals a new game
+     * <p>
+     * Creates a standard 33-card deck
+     * <br>
+     * Shuffles the deck
+     * <p>
+     * Takes the first 5 cards from the deck and moves them to the player's hand
+     * <p>
+     * 5 Difficulty cards are added to the deck
+     * <br>
+     * The deck is reshuffled
+     * <p>
+     * A random lock is chosen to be solved
+     */
+    private void dealNewGame() {
+        // Cards are numbered by the game rather than globally so that games can run on different threads
+        nextCardNumber = 1;
+        // Creates a standard 33-card deck, shuffles it,
+        // Takes the first 5 cards from the deck and moves them to the player's hand
+        createStandardDeck();
+        shuffleDeck();
+        deck.drawTop(hand, 5);
+        // 5 Difficulty cards are added to the deck,
+        // The deck is reshuffled,
+        // A random lock is chosen to be solved
+        addDifficultyCardsToDeck();
+        shuffleDeck();
+        currentLock = getRandomLock(null);
+        restartMatchState();
+        GameEvents.gameStarted(this, false);
+    }
+
+    /**
+     * Plays the selected card to the sequence
+     * <br>
+     * Checks if the card is valid i.e. can't play the same type of tool twice in a row
+     * <br>
+     * After the card is played to the sequence, it checks if the card has solved any challenges
+     * @param cardChoice The card the user has selected to play to the sequence
+     */
+    private void playCardToSequence(int cardChoice) {
+        long start = EngineMetrics.startTimer();
+        int sequenceSize = sequence.getNumberOfCards();
+        if (sequence.getNumberOfCards() > 0) {
+            // If the user is trying to play a card different to the last card in the sequence
+            // This is checked to ensure the same type of tool is not played twice in a row
+            if (hand.getCardDescriptionAt(cardChoice - 1).charAt(0) != sequence.getCardDescriptionAt(sequence.getNumberOfCards() - 1).charAt(0)) {
+                // Moves the card from the user's hand to the sequence and fetches a new card from the deck
+                score += moveCard(hand, sequence, hand.getCardNumberAt(cardChoice - 1));
+                advanceMatchState();
+                getCardFromDeck(cardChoice);
+            }
+        } else {
+            // Since the sequence is empty, the user can play any card
+            score += moveCard(hand, sequence, hand.getCardNumberAt(cardChoice - 1));
+            advanceMatchState();
+            getCardFromDeck(cardChoice);
+        }
+
+        if (sequence.getNumberOfCards() > sequenceSize) {
+            GameEvents.cardPlayed(this);
+        }
+        // The challenges are checked once the difficulty card has been dealt with
+        if (pendingDifficulty != null) {
+            pendingChallengeCheck = true;
+        } else {
+            processChallengeMet();
+        }
+        metrics.recordCardPlayed(start);
+    }
+
+    /**
+     * Checks if the user has solved a challenge in the lock and awards 5 points if they have
+     */
+    private void processChallengeMet() {
+        if (checkIfLockChallengeMet()) {
+            showMessage("");
+            showMessage("A challenge on the lock has been met.");
+            showMessage("");
+            score += 5;
+            GameEvents.challengeMet(this);
+        }
+    }
+
+    /**
+     * Checks if any of the challenges have been met by the new card added to the sequence
+     * <p>
+     * Note: Returns true immediately after the first challenge is met meaning there could be other challenges that were met
+     * @return true if a challenge has been met, false otherwise
+     */
+    private boolean checkIfLockChallengeMet() {
+        long start = EngineMetrics.startTimer();
+        // The match state already knows every challenge which ends with the last card in the sequence
+        boolean met = currentLock.checkIfConditionMet(matchState);
+        metrics.recordChallengeCheck(start, met);
+        return met;
+    }
+
+    /**
+     * Moves the {@link Breakthrough#matchState} on by the card just added to the end of the sequence
+     */
+    private void advanceMatchState() {
+        matchState = currentLock.getMatcher().next(matchState, sequence.getCardFaceAt(sequence.getNumberOfCards() - 1));
+    }
+
+    /**
+     * Works out the {@link Breakthrough#matchState} from scratch when the lock or the sequence has been replaced
+     * <br>
+     * Only the cards at the end of the sequence which could still be part of a challenge are run through the lock
+     */
+    private void restartMatchState() {
+        ChallengeMatcher matcher = currentLock.getMatcher();
+        matchState = ChallengeMatcher.START_STATE;
+        for (int count = Math.max(0, sequence.getNumberOfCards() - matcher.getMaxLength()); count < sequence.getNumberOfCards(); count++) {
+            matchState = matcher.next(matchState, sequence.getCardFaceAt(count));
+        }
+    }
+
+    /**
+     * Extracts card data from a string and adds it to the specified {@link CardCollection}
+     *
+     * @param lineFromFile The string containing the card data
+     * @param cardCol      the {@link CardCollection} to add the cards to
+     */
+    private void setupCardCollectionFromGameFile(String lineFromFile, CardCollection cardCol) {
+        List<String> splitLine;
+        int cardNumber;
+        if (lineFromFile.length() > 0) {
+            splitLine = Arrays.asList(lineFromFile.split(","));
+            for (String item : splitLine) {
+                // If the item length is 5 then the card number is a single digit, two digits otherwise
+                if (item.length() == 5) {
+                    cardNumber = Integer.parseInt(item.charAt(4) + "");
+                } else {
+                    cardNumber = Integer.parseInt(item.substring(4, 6));
+                }
+                // If the item starts with 'Dif' then the card is a difficulty card, otherwise it is a normal card (toolcard)
+                if (item.substring(0, 3).equals("Dif")) {
+                    DifficultyCard currentCard = new DifficultyCard(cardNumber);
+                    cardCol.addCard(currentCard);
+                } else {
+                    ToolCard currentCard = new ToolCard(item.charAt(0) + "", item.charAt(2) + "", cardNumber);
+                    cardCol.addCard(currentCard);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a lock from the game file
+     *
+     * @param line1 The challenges in the lock
+     * @param line2 The lock status - challenges met or not
+     */
+    private void setupLock(String line1, String line2) {
+        List<String> splitLine;
+        splitLine = Arrays.asList(line1.split(";"));
+        // Adds all the challenges to the lock
+        for (String item : splitLine) {
+            List<String> conditions;
+            conditions = Arrays.asList(item.split(","));
+            currentLock.addChallenge(conditions);
+        }
+        // Changes each lock to either met or unmet
+        splitLine = Arrays.asList(line2.split(";"));
+        for (int count = 0; count < splitLine.size(); count++) {
+            if (splitLine.get(count).equals("Y")) {
+                currentLock.setChallengeMet(count, true);
+            }
+        }
+        currentLock.compile();
+    }
+
+    /**
+     * Loads the game from a file
+     *
+     * @param fileName the name of the file to load
+     * @return true if the game was loaded successfully, false otherwise
+     */
+    boolean loadGame(String fileName) {
+        long start = EngineMetrics.startTimer();
+        String lineFromFile;
+        String lineFromFile2;
+        try {
+            BufferedReader myStream = new BufferedReader(new FileReader(fileName));
+            // Starts from empty collections and a new lock so a game can be loaded more than once
+            deck = new PackedCardCollection("DECK");
+            hand = new PackedCardCollection("HAND");
+            sequence = new PackedCardCollection("SEQUENCE");
+            discard = new PackedCardCollection("DISCARD");
+            currentLock = new Lock();
+            gameOver = false;
+            pendingDifficulty = null;
+            pendingChallengeCheck = false;
+
+            // 1st line in game file = score
+            lineFromFile = myStream.readLine();
+            score = Integer.parseInt(lineFromFile);
+
+            // 2nd and 3rd line in game file = Lock + Lock status
+            lineFromFile = myStream.readLine();
+            lineFromFile2 = myStream.readLine();
+            setupLock(lineFromFile, lineFromFile2);
+
+            // 4th line in game file = hand
+            lineFromFile = myStream.readLine();
+            setupCardCollectionFromGameFile(lineFromFile, hand);
+
+            // 5th line in game file = sequence
+            lineFromFile = myStream.readLine();
+            setupCardCollectionFromGameFile(lineFromFile, sequence);
+
+            // 6th line in game file = discard
+            lineFromFile = myStream.readLine();
+            setupCardCollectionFromGameFile(lineFromFile, discard);
+
+            // 7th line in game file = deck
+            lineFromFile = myStream.readLine();
+            setupCardCollectionFromGameFile(lineFromFile, deck);
+            restartMatchState();
+
+            // Closes the buffered reader and returns true to indicate success
+            myStream.close();
+            metrics.recordGameLoaded(start, true);
+            return true;
+
+        } catch (Exception e) {
+            // Returns false to indicate failure
+            showMessage("File not loaded");
+            metrics.recordGameLoaded(start, false);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the game from the current record of a binary save, see {@link BinarySave}
+     * <p>
+     * The cards are copied straight into packed collections, so no {@link Card} objects are created
+     *
+     * @param save the save, positioned at the record to load
+     * @return true if the game was loaded successfully, false otherwise
+     */
+    boolean loadGame(BinarySave save) {
+        long start = EngineMetrics.startTimer();
+        try {
+            PackedCardCollection[] collections = new PackedCardCollection[4];
+            collections[BinarySave.HAND] = new PackedCardCollection("HAND");
+            collections[BinarySave.SEQUENCE] = new PackedCardCollection("SEQUENCE");
+            collections[BinarySave.DISCARD] = new PackedCardCollection("DISCARD");
+            collections[BinarySave.DECK] = new PackedCardCollection("DECK");
+            for (int collection = BinarySave.HAND; collection <= BinarySave.DECK; collection++) {
+                for (int pos = 0; pos < save.getNumberOfCards(collection); pos++) {
+                    collections[collection].addCode(save.getCardCode(collection, pos));
+                }
+            }
+
+            Lock lockFromSave = new Lock();
+            int conditionOffset = save.getConditionOffset(0);
+            for (int count = 0; count < save.getNumberOfChallenges(); count++) {
+                int length = save.getConditionLength(conditionOffset);
+                int[] condition = new int[length];
+                for (int pos = 0; pos < length; pos++) {
+                    condition[pos] = save.getConditionFace(conditionOffset, pos);
+                }
+                lockFromSave.addChallenge(Condition.intern(condition));
+                lockFromSave.setChallengeMet(count, save.getChallengeMet(count));
+                conditionOffset += 1 + length;
+            }
+            lockFromSave.compile();
+
+            // Nothing is changed until the whole record has been read
+            hand = collections[BinarySave.HAND];
+            sequence = collections[BinarySave.SEQUENCE];
+            discard = collections[BinarySave.DISCARD];
+            deck = collections[BinarySave.DECK];
+            currentLock = lockFromSave;
+            score = save.getScore();
+            gameOver = false;
+            pendingDifficulty = null;
+            pendingChallengeCheck = false;
+            restartMatchState();
+            metrics.recordGameLoaded(start, true);
+            return true;
+        } catch (Exception e) {
+            showMessage("File not loaded");
+            metrics.recordGameLoaded(start, false);
+            return false;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the game to save, which does not change as the game carries on
+     *
+     * @return the snapshot, null while a difficulty card is waiting to be dealt with as the text format can't hold that
+     */
+    SaveSnapshot snapshot() {
+        if (pendingDifficulty != null) {
+            return null;
+        }
+        return new SaveSnapshot(score, currentLock, hand, sequence, discard, deck);
+    }
+
+    /**
+     * Saves the game to the save file in the format of game1.txt without waiting for the disk
+     * <br>
+     * Only the snapshot is taken here, the {@link SaveWriter} writes it. If the save fails it is reported when the
+     * game is next shown.
+     *
+     * @return true if the save was queued, false if the game can't be saved at this point
+     */
+    boolean saveInBackground() {
+        SaveSnapshot save = snapshot();
+        if (save == null) {
+            return false;
+        }
+        turnsSinceSave = 0;
+        lastSave = SaveWriter.getShared().save(Paths.get(saveFileName), save);
+        showMessage("Saving the game to " + saveFileName);
+        return true;
+    }
+
+    /**
+     * Tells the player if the last save failed, once it is known
+     */
+    private void reportSave() {
+        if (lastSave != null && lastSave.isDone()) {
+            if (!lastSave.join()) {
+                showMessage("File not saved");
+            }
+            lastSave = null;
+        }
+    }
+
+    /**
+     * Hands over the result of the last save while it is still to be reported, e.g. when the game is spilled to disk
+     *
+     * @return the result of the last save, null if there is nothing to report
+     */
+    CompletableFuture<Boolean> takeLastSave() {
+        CompletableFuture<Boolean> save = lastSave;
+        lastSave = null;
+        if (save != null && save.isDone() && save.join()) {
+            return null;
+        }
+        return save;
+    }
+
+    /**
+     * Reports the result of a save the next time the game is shown, e.g. a save made before the game was spilled
+     *
+     * @param save the result of the save, null if there is nothing to report
+     */
+    void setLastSave(CompletableFuture<Boolean> save) {
+        lastSave = save;
+    }
+
+    /**
+     * Waits for the last save to reach the disk, so a game which is ending does not lose it
+     */
+    private void waitForSave() {
+        if (lastSave != null) {
+            lastSave.join();
+            reportSave();
+        }
+    }
+
+    /**
+     * Saves the game as a binary record, see {@link BinarySave}
+     * <p>
+     * A game waiting for a difficulty card to be dealt with can't be saved, as the text format can't hold that either
+     *
+     * @param fileName the name of the file to write
+     * @param append   true to add the record to the end of the file, false to replace the file
+     * @return true if the game was saved successfully, false otherwise
+     */
+    boolean saveGame(String fileName, boolean append) {
+        if (pendingDifficulty != null) {
+            return false;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, append)))) {
+            BinarySave.write(out, score, currentLock, hand, sequence, discard, deck);
+            return true;
+        } catch (IOException e) {
+            showMessage("File not saved");
+            return false;
+        }
+    }
+
+    /**
+     * Keeps a {@link MoveJournal} of every game started after this, from a seed or from the menu of {@link Breakthrough#playGame()}
+     * <br>
+     * Each new game replaces the journal written by the last one
+     *
+     * @param fileName           the name of the journal file, null to stop keeping journals
+     * @param checkpointInterval the number of decisions between checkpoints of the whole game
+     */
+    public void setJournal(String fileName, int checkpointInterval) {
+        journalFileName = fileName;
+        journalInterval = checkpointInterval;
+        if (fileName == null) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Starts the journal of a game which has just been set up, if journals are being kept
+     */
+    private void openJournal() {
+        closeJournal();
+        if (journalFileName != null && !gameOver) {
+            if (!seedKnown) {
+                throw new IllegalStateException("A journal needs a game dealt from a seed");
+            }
+            journal = new MoveJournal(journalFileName, seed, journalInterval, this);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Writes everything needed to carry on the game from this point, apart from the seed which is in the journal's header
+     * <p>
+     * This is the game as a {@link BinarySave} record, plus the number of draws from the random number generator,
+     * the counters of the game and the challenges met on the locks in the library which have been used
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written to
+     */
+    void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeLong(randomDraws);
+        out.writeInt(locksSolved);
+        out.writeInt(cardsUsed);
+        out.writeInt(nextCardNumber);
+        out.writeInt(locks.indexOf(currentLock));
+        List<Lock> distinctLocks = new ArrayList<>();
+        for (Lock l : usedLocks) {
+            if (!distinctLocks.contains(l)) {
+                distinctLocks.add(l);
+            }
+        }
+        out.writeInt(distinctLocks.size());
+        for (Lock l : distinctLocks) {
+            out.writeInt(locks.indexOf(l));
+            out.writeInt(l.getNumberOfChallenges());
+            for (int count = 0; count < l.getNumberOfChallenges(); count++) {
+                out.writeBoolean(l.getChallengeMet(count));
+            }
+        }
+        BinarySave.write(out, score, currentLock, hand, sequence, discard, deck);
+    }
+
+    /**
+     * Carries on the game from a checkpoint written by {@link Breakthrough#writeCheckpoint(DataOutputStream)}
+     * <p>
+     * The locks must be the same library the game was played with
+     *
+     * @param seed   the seed the game was dealt from
+     * @param buffer the buffer holding the checkpoint
+     * @param offset the position of the checkpoint in the buffer
+     * @return true if the checkpoint was loaded successfully, false otherwise
+     */
+    boolean loadCheckpoint(long seed, ByteBuffer buffer, int offset) {
+        closeJournal();
+        showMessages = false;
+        int pos = offset;
+        long draws = buffer.getLong(pos);
+        int solved = buffer.getInt(pos + 8);
+        int used = buffer.getInt(pos + 12);
+        int nextNumber = buffer.getInt(pos + 16);
+        int lockNumber = buffer.getInt(pos + 20);
+        int numberOfLocks = buffer.getInt(pos + 24);
+        pos += 28;
+        // Locks are shared between games so any challenges met in the last game are cleared
+        for (Lock l : usedLocks) {
+            for (int count = 0; count < l.getNumberOfChallenges(); count++) {
+                l.setChallengeMet(count, false);
+            }
+        }
+        usedLocks.clear();
+        for (int lockCount = 0; lockCount < numberOfLocks; lockCount++) {
+            Lock l = locks.get(buffer.getInt(pos));
+            int challenges = buffer.getInt(pos + 4);
+            pos += 8;
+            for (int count = 0; count < challenges; count++) {
+                l.setChallengeMet(count, buffer.get(pos) != 0);
+                pos++;
+            }
+            usedLocks.add(l);
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.position(pos);
+        if (!loadGame(new BinarySave(record.slice()))) {
+            return false;
+        }
+        if (lockNumber >= 0) {
+            // The lock is shared with the library rather than the copy in the record
+            currentLock = locks.get(lockNumber);
+            restartMatchState();
+        }
+        this.seed = seed;
+        seedKnown = true;
+        restartRandom(draws);
+        locksSolved = solved;
+        cardsUsed = used;
+        nextCardNumber = nextNumber;
+        lockSolved = false;
+        return true;
+    }
+
+    /**
+     * Writes everything needed to carry on the game later, even in the middle of a turn
+     * <p>
+     * This is the seed, whether messages are shown, the difficulty card waiting to be dealt with if there is one,
+     * then a checkpoint, see {@link Breakthrough#writeCheckpoint(DataOutputStream)}
+     *
+     * @param out the stream to write to
+     * @return true if the game was written, false if the seed it was dealt from is not known
+     * @throws IOException if the stream can't be written to
+     */
+    boolean writeSession(DataOutputStream out) throws IOException {
+        if (!seedKnown) {
+            return false;
+        }
+        out.writeLong(seed);
+        out.writeBoolean(showMessages);
+        out.writeBoolean(pendingDifficulty != null);
+        out.writeInt(pendingCardChoice);
+        out.writeBoolean(pendingChallengeCheck);
+        writeCheckpoint(out);
+        return true;
+    }
+
+    /**
+     * Carries on the game from where it was written by {@link Breakthrough#writeSession(DataOutputStream)}
+     * <p>
+     * The locks must be the same library the game was played with
+     *
+     * @param buffer the buffer holding the game
+     * @param offset the position of the game in the buffer
+     * @return true if the game was loaded successfully, false otherwise
+     */
+    boolean loadSession(ByteBuffer buffer, int offset) {
+        long sessionSeed = buffer.getLong(offset);
+        boolean messages = buffer.get(offset + 8) != 0;
+        boolean difficultyPending = buffer.get(offset + 9) != 0;
+        int cardChoice = buffer.getInt(offset + 10);
+        boolean challengeCheckPending = buffer.get(offset + 14) != 0;
+        if (!loadCheckpoint(sessionSeed, buffer, offset + 15)) {
+            return false;
+        }
+        showMessages = messages;
+        if (difficultyPending) {
+            // The difficulty card waiting to be dealt with is always the last card on the discard pile
+            pendingDifficulty = CardCode.toCard(discard.getCardCodeAt(discard.getNumberOfCards() - 1));
+            pendingCardChoice = cardChoice;
+            pendingChallengeCheck = challengeCheckPending;
+        }
+        return true;
+    }
+
+    /**
+     * Loads all the locks (and their challenges) into the program
+     * <p>
+     * All the loaded locks are stored in the global {@link Breakthrough#locks} list
+     */
+    private void LoadLocks() {
+        LoadLocks("locks.txt");
+    }
+
+    /**
+     * Loads all the locks (and their challenges) from the given file into the program
+     *
+     * @param fileName the name of the file of locks, one lock per line
+     */
+    void LoadLocks(String fileName) {
+        // Init
+        String lineFromFile;
+        List<String> challenges;
+        locks = new ArrayList<>();
+        library = locks;
+        lockIndex = null;
+        if (LockPack.isPack(fileName)) {
+            try {
+                // The pack only keeps a bounded number of parsed locks, so the game plays on copies it holds itself
+                library = LockPack.open(fileName);
+                locks = new SessionLocks(library);
+            } catch (IOException | IllegalArgumentException e) {
+                Console.writeLine("File not loaded: " + e.getMessage());
+            }
+            return;
+        }
+        try {
+            // Sets up the buffered reader
+            BufferedReader myStream = new BufferedReader(new FileReader(fileName));
+            lineFromFile = myStream.readLine();
+            while (lineFromFile != null) {
+                // Splits each line in the file (lock) into an array of strings (challenges)
+                challenges = Arrays.asList(lineFromFile.split(";"));
+                Lock lockFromFile = new Lock();
+                for (String c : challenges) {
+                    List<String> conditions;
+                    // Splits each challenge into its conditions
+                    conditions = Arrays.asList(c.split(","));
+                    lockFromFile.addChallenge(conditions);
+                }
+                // Adds the lock to the global list of locks
+                lockFromFile.compile();
+                lockFromFile.setLibraryNumber(locks.size());
+                locks.add(lockFromFile);
+                lineFromFile = myStream.readLine();
+            }
+        } catch (Exception e) {
+            Console.writeLine("File not loaded");
+        }
+    }
+
+    /**
+     * Returns a random lock from the {@link Breakthrough#locks} collection, chosen by the {@link Breakthrough#lockSelector} if there is one
+     * <p>
+     * A no-repeat selector draws again until it gets a lock other than the one just solved. Each draw is one step of
+     * the random number generator, so the game can still be restarted from the number of draws, unless the locks
+     * have their own generator.
+     *
+     * @param solvedLock the lock which has just been solved, null for the first lock of a game
+     * @return a random lock from the {@link Breakthrough#locks} collection
+     */
+    private Lock getRandomLock(Lock solvedLock) {
+        Lock l;
+        SplittableRandom drawFrom = lockStream != null ? lockStream : rNoGen;
+        int draws = 0;
+        if (lockSelector == null) {
+            l = locks.get(CardCollection.randomIndex(drawFrom, locks.size()));
+            draws++;
+        } else {
+            boolean avoidSolvedLock = solvedLock != null && lockSelector.canAvoidRepeat(locksSolved);
+            do {
+                l = locks.get(lockSelector.select(drawFrom.nextLong(), locksSolved));
+                draws++;
+            } while (avoidSolvedLock && l == solvedLock);
+        }
+        if (lockStream == null) {
+            randomDraws += draws;
+        }
+        usedLocks.add(l);
+        return l;
+    }
+
+    /**
+     * Refills the player's {@link Breakthrough#hand} with the top cards from the {@link Breakthrough#deck}
+     * <p>
+     * If the top card is a difficulty card, the hand is not refilled until the difficulty is dealt with
+     *
+     * @param cardChoice the card the player wishes to play to the sequence
+     */
+    private void getCardFromDeck(int cardChoice) {
+        // If there are cards in the deck
+        if (deck.getNumberOfCards() > 0) {
+            // If the first card is a difficulty card then it is dealt with
+            if (deck.getCardDescriptionAt(0).equals("Dif")) {
+                // Discards the encountered difficulty card and waits for the player's choice
+                Card currentCard = deck.removeAt(0);
+                discard.addCard(currentCard);
+                pendingDifficulty = currentCard;
+                pendingCardChoice = cardChoice;
+                metrics.recordDifficultyEncountered();
+                return;
+            }
+        }
+        refillHand();
+    }
+
+    /**
+     * Allows the user to choose between discarding a key from their hand or discarding five cards
+     * <br>
+     * The turn then carries on from where the difficulty card was drawn
+     *
+     * @param choice the position of the key to lose (1-5), anything else discards five cards
+     */
+    private void resolveDifficulty(int choice) {
+        if (pendingDifficulty == null) {
+            return;
+        }
+        Card currentCard = pendingDifficulty;
+        pendingDifficulty = null;
+        int handSize = hand.getNumberOfCards();
+        currentCard.process(deck, discard, hand, sequence, currentLock, choice, pendingCardChoice);
+        // Losing a key is the only way the hand gets smaller
+        boolean keyLost = hand.getNumberOfCards() < handSize;
+        metrics.recordDifficultyResolved(keyLost);
+        GameEvents.difficultyResolved(this, keyLost);
+        refillHand();
+        if (pendingChallengeCheck) {
+            pendingChallengeCheck = false;
+            processChallengeMet();
+        }
+    }
+
+    /**
+     * Refills the player's hand with cards from the deck
+     * <br>
+     * Prints a message if a difficulty card is removed in the process
+     */
+    private void refillHand() {
+        while (hand.getNumberOfCards() < 5 && deck.getNumberOfCards() > 0) {
+            if (deck.getCardDescriptionAt(0).equals("Dif")) {
+                deck.drawTop(discard, 1);
+                showMessage("A difficulty card was discarded from the deck when refilling the hand.");
+            } else {
+                deck.drawTop(hand, 1);
+            }
+        }
+        // If the deck has no cards left and the player does not have 5 cards in their hand then game over
+        if (deck.getNumberOfCards() == 0 && hand.getNumberOfCards() < 5) {
+            gameOver = true;
+        }
+    }
+
+    /**
+     * Adds 5 difficulty cards to the deck
+     * <p>
+     * This is executed after the player has their 5 initial cards in their hand
+     */
+    private void addDifficultyCardsToDeck() {
+        for (int count = 1; count <= 5; count++) {
+            deck.addCard(new DifficultyCard(nextCardNumber++));
+        }
+    }
+
+    /**
+     * Loads all the toolkits into the deck
+     * <br>
+     * 3 Toolkits: Acute Kit, Basic Kit, Crude Kit
+     * <br>
+     * 3 Tools: Pick, File, Key
+     * <br>
+     * 5 Picks in each kit
+     * <br>
+     * 3 Files in each kit
+     * <br>
+     * 3 Keys in each kit
+     */
+    private void createStandardDeck() {
+        Card newCard;
+        for (int count = 1; count <= 5; count++) {
+            // Picks
+            newCard = new ToolCard("P", "a", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("P", "b", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("P", "c", nextCardNumber++);
+            deck.addCard(newCard);
+        }
+        for (int count = 1; count <= 3; count++) {
+            // Files
+            newCard = new ToolCard("F", "a", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("F", "b", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("F", "c", nextCardNumber++);
+            deck.addCard(newCard);
+
+            // Keys
+            newCard = new ToolCard("K", "a", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("K", "b", nextCardNumber++);
+            deck.addCard(newCard);
+            newCard = new ToolCard("K", "c", nextCardNumber++);
+            deck.addCard(newCard);
+        }
+    }
+
+    /**
+     * Moves a card from one {@link CardCollection} to another
+     *
+     * @param fromCollection the CardCollection to move the card from
+     * @param toCollection   the CardCollection to move the card to
+     * @param cardNumber     the number of the card to move
+     * @return score of a card when moving a card from hand to sequence
+     */
+    private int moveCard(CardCollection fromCollection, CardCollection toCollection, int cardNumber) {
+        int score = fromCollection.moveCardTo(toCollection, cardNumber);
+        // Only a card moving from the hand to the sequence scores
+        if (fromCollection.getName().equals("HAND") && toCollection.getName().equals("SEQUENCE")) {
+            return score;
+        }
+        return 0;
+    }
+}
+
+interface Policy {
+    /**
+     * Returns the choice of the player to inspect the discard pile or use a card
+     * <p>
+     * This is the first user input prompt
+     *
+     * @param game the game being played
+     * @return the choice of the player (D or U)
+     */
+    String getChoice(Breakthrough game);
+
+    /**
+     * Returns the card which the player has chosen to select (1-5)
+     * <p>
+     * This is the second user input prompt
+     *
+     * @param game the game being played
+     * @return the card which the player has chosen to select (1-5)
+     */
+    int getCardChoice(Breakthrough game);
+
+    /**
+     * Returns the choice of the player to discard or play the selected card
+     * <p>
+     * This is the third user input prompt
+     *
+     * @param game       the game being played
+     * @param cardChoice the card the player has selected
+     * @return the choice of the player (D or P)
+     */
+    String getDiscardOrPlayChoice(Breakthrough game, int cardChoice);
+
+    /**
+     * Returns how the player deals with a difficulty card
+     *
+     * @param game the game being played
+     * @return the position of the key to lose (1-5) or D to discard five cards from the deck
+     */
+    String getDifficultyChoice(Breakthrough game);
+}
+
+class ConsolePolicy implements Policy {
+    /**
+     * The prompts of an interactive game, in the order they are asked in a turn
+     */
+    static final String CHOICE_PROMPT = "(D)iscard inspect, (U)se card, (H)int, (S)ave:> ";
+    static final String CARD_CHOICE_PROMPT = "Enter a number between 1 and 5 to specify card to use:> ";
+    static final String DISCARD_OR_PLAY_PROMPT = "(D)iscard or (P)lay?:> ";
+    static final String DIFFICULTY_PROMPT = "To deal with this you need to either lose a key "
+            + "(enter 1-5 to specify position of key) or (D)iscard five cards from the deck:> ";
+
+    /**
+     * Prompts the user for input and returns the choice of the player to discard or use a card
+     * <p>
+     * This is the first user input prompt
+     * @return the choice of the player (D, U, H or S)
+     */
+    @Override
+    public String getChoice(Breakthrough game) {
+        Console.writeLine();
+        Console.prompt(CHOICE_PROMPT);
+        String choice = Console.readLine().toUpperCase();
+        return choice;
+    }
+
+    /**
+     * Returns the card which user has chosen to select (1-5)
+     * <p>
+     * This is the second user input prompt
+     * @return the card which user has chosen to select (1-5)
+     */
+    @Override
+    public int getCardChoice(Breakthrough game) {
+        String choice;
+        int value = 0;
+        boolean valid;
+        int handSize = game.getHand().getNumberOfCards();
+        // Do while loop to ensure that the user enters a valid integer
+        // Loops until the user enters the position of a card in the hand
+        do {
+            Console.prompt(CARD_CHOICE_PROMPT);
+            choice = Console.readLine();
+            try {
+                // Parses the input to an integer
+                value = Integer.parseInt(choice);
+                valid = value >= 1 && value <= handSize;
+            } catch (NumberFormatException e) {
+                valid = false;
+            }
+        } while (!valid && !Console.isEndOfInput());
+        // Returns the integer if it is between 1 and the size of the hand (inclusive), 0 if the input ran out first
+        return valid ? value : 0;
+    }
+
+    /**
+     * Prompts the user for input and returns the choice of the user to discard or play a card
+     * <p>
+     * This is the third user input prompt
+     * @return the choice of the user (D or P)
+     */
+    @Override
+    public String getDiscardOrPlayChoice(Breakthrough game, int cardChoice) {
+        String choice;
+        Console.prompt(DISCARD_OR_PLAY_PROMPT);
+        choice = Console.readLine().toUpperCase();
+        return choice;
+    }
+
+    /**
+     * Prompts the user to either lose a key or discard five cards from the deck
+     *
+     * @return the choice of the user (1-5 or D)
+     */
+    @Override
+    public String getDifficultyChoice(Breakthrough game) {
+        Console.prompt(DIFFICULTY_PROMPT);
+        String choice = Console.readLine();
+        Console.writeLine();
+        return choice;
+    }
+}
+
+final class Action {
+    /**
+     * Plays the card at the position to the sequence
+     */
+    public static final int PLAY = 10;
+    /**
+     * Discards the card at the position from the hand
+     */
+    public static final int DISCARD = 20;
+    /**
+     * Deals with a difficulty card by losing the key at the position
+     */
+    public static final int LOSE_KEY = 30;
+    /**
+     * Deals with a difficulty card by discarding five cards from the deck
+     */
+    public static final int DISCARD_FIVE = 40;
+    /**
+     * The highest card position, as the hand holds five cards
+     * <br>
+     * The kinds are ten apart, so a position past this would be read back as another action
+     */
+    public static final int MAX_POSITION = 5;
+    /**
+     * The most actions which can be legal at once, a play and a discard of each card in the hand
+     */
+    public static final int MAX_LEGAL_ACTIONS = 2 * MAX_POSITION;
+
+    private Action() {
+    }
+
+    /**
+     * Returns the action which plays a card to the sequence
+     *
+     * @param cardChoice the position of the card in the hand (1-5)
+     * @return the action
+     * @throws IllegalArgumentException if the position is not 1-5
+     */
+    public static int play(int cardChoice) {
+        return encode(PLAY, cardChoice);
+    }
+
+    /**
+     * Returns the action which discards a card from the hand
+     *
+     * @param cardChoice the position of the card in the hand (1-5)
+     * @return the action
+     * @throws IllegalArgumentException if the position is not 1-5
+     */
+    public static int discard(int cardChoice) {
+        return encode(DISCARD, cardChoice);
+    }
+
+    /**
+     * Returns the action which loses a key when a difficulty card is encountered
+     *
+     * @param pos the position of the key as entered by the player (1-5)
+     * @return the action
+     * @throws IllegalArgumentException if the position is not 1-5
+     */
+    public static int loseKey(int pos) {
+        return encode(LOSE_KEY, pos);
+    }
+
+    private static int encode(int kind, int pos) {
+        if (pos < 1 || pos > MAX_POSITION) {
+            throw new IllegalArgumentException("Not a card position: " + pos);
+        }
+        return kind + pos;
+    }
+
+    /**
+     * Converts the answer to the difficulty prompt to an action
+     * <br>
+     * Anything other than 1-5 discards five cards from the deck
+     *
+     * @param choice the answer to the difficulty prompt
+     * @return the action
+     */
+    public static int fromDifficultyChoice(String choice) {
+        int choiceAsInteger;
+        try {
+            choiceAsInteger = Integer.parseInt(choice);
+        } catch (NumberFormatException e) {
+            return DISCARD_FIVE;
+        }
+        if (choiceAsInteger >= 1 && choiceAsInteger <= 5) {
+            return loseKey(choiceAsInteger);
+        }
+        return DISCARD_FIVE;
+    }
+
+    /**
+     * Returns the kind of the action ({@link Action#PLAY}, {@link Action#DISCARD}, {@link Action#LOSE_KEY} or {@link Action#DISCARD_FIVE})
+     *
+     * @param action the action
+     * @return the kind of the action
+     */
+    public static int getKind(int action) {
+        return action - action % 10;
+    }
+
+    /**
+     * Returns the card position of the action
+     *
+     * @param action the action
+     * @return the card position (1-5), 0 for {@link Action#DISCARD_FIVE}
+     */
+    public static int getPosition(int action) {
+        return action % 10;
+    }
+}
+
+class Observation {
+    private final int score;
+    private final boolean gameOver;
+    private final boolean difficultyPending;
+    private final String[] hand;
+    private final String lastCardInSequence;
+    private final int sequenceSize;
+    private final int deckSize;
+    private final int discardSize;
+    private final boolean[] challengesMet;
+
+    /**
+     * Constructor for an Observation
+     * <br>
+     * Copies everything it needs so that the snapshot does not change as the game carries on
+     *
+     * @param score             the current score
+     * @param gameOver          true if the player has lost
+     * @param difficultyPending true if a difficulty card is waiting to be dealt with
+     * @param hand              the player's hand
+     * @param sequence          the sequence of cards played
+     * @param deckSize          the number of cards in the deck
+     * @param discardSize       the number of cards in the discard pile
+     * @param currentLock       the lock being solved
+     */
+    public Observation(int score, boolean gameOver, boolean difficultyPending, CardCollection hand, CardCollection sequence, int deckSize, int discardSize, Lock currentLock) {
+        this.score = score;
+        this.gameOver = gameOver;
+        this.difficultyPending = difficultyPending;
+        this.hand = new String[hand.getNumberOfCards()];
+        for (int count = 0; count < this.hand.length; count++) {
+            this.hand[count] = hand.getCardDescriptionAt(count);
+        }
+        sequenceSize = sequence.getNumberOfCards();
+        lastCardInSequence = sequenceSize > 0 ? sequence.getCardDescriptionAt(sequenceSize - 1) : null;
+        this.deckSize = deckSize;
+        this.discardSize = discardSize;
+        if (currentLock == null) {
+            challengesMet = new boolean[0];
+        } else {
+            challengesMet = new boolean[currentLock.getNumberOfChallenges()];
+            for (int count = 0; count < challengesMet.length; count++) {
+                challengesMet[count] = currentLock.getChallengeMet(count);
+            }
+        }
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public boolean isDifficultyPending() {
+        return difficultyPending;
+    }
+
+    /**
+     * Returns the description of the card in the hand
+     *
+     * @param x the position of the card (0-4)
+     * @return the description of the card, e.g. "K a"
+     */
+    public String getHandCardAt(int x) {
+        return hand[x];
+    }
+
+    public int getHandSize() {
+        return hand.length;
+    }
+
+    /**
+     * Returns the description of the last card played to the sequence
+     *
+     * @return the description of the last card, null if the sequence is empty
+     */
+    public String getLastCardInSequence() {
+        return lastCardInSequence;
+    }
+
+    public int getSequenceSize() {
+        return sequenceSize;
+    }
+
+    public int getDeckSize() {
+        return deckSize;
+    }
+
+    public int getDiscardSize() {
+        return discardSize;
+    }
+
+    public int getNumberOfChallenges() {
+        return challengesMet.length;
+    }
+
+    public boolean getChallengeMet(int pos) {
+        return challengesMet[pos];
+    }
+}
+
+/**
+ * The cards needed to meet a challenge, e.g. ["P a", "F b", "K c"]
+ * <p>
+ * Conditions are immutable and are only made through {@link Condition#intern(List)} or {@link Condition#intern(int[])},
+ * which hand back the one shared instance for each distinct condition. A library of locks then holds each condition,
+ * its faces and its text once however many challenges use it.
+ * <br>
+ * The table of shared conditions is never emptied, so it stops growing once it holds
+ * {@link Condition#MAX_SHARED_CONDITIONS}; any condition after that is made unshared, which works just the same.
+ */
+final class Condition {
+    /**
+     * The most conditions which are shared, set with -Dbreakthrough.sharedConditions
+     */
+    public static final int MAX_SHARED_CONDITIONS = Integer.getInteger("breakthrough.sharedConditions", 1 << 16);
+    // Conditions of this many cards or fewer are keyed by their faces packed into a long
+    private static final int MAX_PACKED_LENGTH = 12;
+    private static final ConcurrentHashMap<Object, Condition> TABLE = new ConcurrentHashMap<>();
+
+    private final int[] faces;
+    private final List<String> descriptions;
+    private final String text;
+
+    private Condition(int[] faces, List<String> descriptions) {
+        this.faces = faces;
+        this.descriptions = Collections.unmodifiableList(descriptions);
+        this.text = String.join(", ", descriptions);
+    }
+
+    /**
+     * Returns the shared condition with the given cards
+     *
+     * @param descriptions the description of each card, e.g. "P a" or "Dif"
+     * @return the shared condition
+     */
+    public static Condition intern(List<String> descriptions) {
+        int[] faces = new int[descriptions.size()];
+        for (int count = 0; count < faces.length; count++) {
+            faces[count] = CardCode.getFace(descriptions.get(count));
+        }
+        long key = packFaces(faces);
+        if (key != 0) {
+            Condition c = TABLE.get(key);
+            return c != null ? c : add(key, faces);
+        }
+        // Anything which is not a card keeps its text so that it is still shown as it was loaded
+        List<String> copy = new ArrayList<>(descriptions);
+        Condition c = TABLE.get(copy);
+        if (c == null) {
+            Condition added = new Condition(faces, copy);
+            if (TABLE.size() >= MAX_SHARED_CONDITIONS) {
+                return added;
+            }
+            c = TABLE.putIfAbsent(copy, added);
+            if (c == null) {
+                c = added;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the shared condition with the given card faces
+     *
+     * @param faces the face of each card, see {@link CardCode#getFace(int)}, -1 for anything which is not a card
+     * @return the shared condition
+     */
+    public static Condition intern(int[] faces) {
+        long key = packFaces(faces);
+        if (key != 0) {
+            Condition c = TABLE.get(key);
+            return c != null ? c : add(key, faces.clone());
+        }
+        List<String> descriptions = new ArrayList<>(faces.length);
+        for (int face : faces) {
+            descriptions.add(face < 0 ? "" : CardCode.getDescription(face));
+        }
+        return intern(descriptions);
+    }
+
+    private static Condition add(long key, int[] faces) {
+        List<String> descriptions = new ArrayList<>(faces.length);
+        for (int face : faces) {
+            descriptions.add(CardCode.getDescription(face));
+        }
+        Condition added = new Condition(faces, descriptions);
+        if (TABLE.size() >= MAX_SHARED_CONDITIONS) {
+            return added;
+        }
+        Condition c = TABLE.putIfAbsent(key, added);
+        return c != null ? c : added;
+    }
+
+    /**
+     * Packs the faces of a condition into a long, five bits per card after a leading 1 which marks the length
+     *
+     * @param faces the faces of the condition
+     * @return the packed faces, 0 if the condition is too long or has anything which is not a card
+     */
+    private static long packFaces(int[] faces) {
+        if (faces.length > MAX_PACKED_LENGTH) {
+            return 0;
+        }
+        long key = 1;
+        for (int face : faces) {
+            if (face < 0) {
+                return 0;
+            }
+            key = key << 5 | face;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the number of distinct conditions shared so far
+     *
+     * @return the number of shared conditions
+     */
+    public static int getNumberOfConditions() {
+        return TABLE.size();
+    }
+
+    /**
+     * Returns the faces of the cards in the condition, for matchers and solvers to read; it must not be changed
+     *
+     * @return the faces of the cards, -1 for anything which is not a card
+     */
+    public int[] getFaces() {
+        return faces;
+    }
+
+    public List<String> getDescriptions() {
+        return descriptions;
+    }
+
+    /**
+     * Returns the condition as it is shown in the lock details
+     * <p>
+     * Example: "K a, P a, F a"
+     *
+     * @return the condition as a string
+     */
+    public String getText() {
+        return text;
+    }
+}
+
+class Challenge {
+    protected Condition condition;
+    protected boolean met;
+
+    /**
+     * Constructor for a Challenge
+     */
+    public Challenge() {
+        // Initialized to unmet
+        met = false;
+    }
+
+    /**
+     * Checks if the challenge has been met
+     *
+     * @return true if the challenge has been met, false otherwise
+     */
+    public boolean getMet() {
+        return met;
+    }
+
+    /**
+     * Returns the conditions of the challenge
+     *
+     * @return condition
+     */
+    public List<String> getCondition() {
+        return condition.getDescriptions();
+    }
+
+    /**
+     * Returns the shared condition of the challenge
+     *
+     * @return condition
+     */
+    public Condition getSharedCondition() {
+        return condition;
+    }
+
+    /**
+     * Sets the met state of the challenge
+     *
+     * @param newValue the new value of the met state
+     */
+    public void SetMet(boolean newValue) {
+        met = newValue;
+    }
+
+    /**
+     * Sets the conditions in the challenge
+     *
+     * @param newCondition the new conditions in the challenge
+     */
+    public void setCondition(List<String> newCondition) {
+        condition = Condition.intern(newCondition);
+    }
+
+    /**
+     * Sets the conditions in the challenge
+     *
+     * @param newCondition the new shared condition of the challenge
+     */
+    public void setCondition(Condition newCondition) {
+        condition = newCondition;
+    }
+}
+
+class Lock {
+    protected List<Challenge> challenges = new ArrayList<>();
+    protected ChallengeMatcher matcher;
+    private String lockDetails;
+    private boolean[] detailsMet;
+    private int libraryNumber = -1;
+
+    /**
+     * Adds a challenge to the lock
+     *
+     * @param condition the condition of the challenge
+     */
+    public void addChallenge(List<String> condition) {
+        addChallenge(Condition.intern(condition));
+    }
+
+    /**
+     * Adds a challenge to the lock
+     *
+     * @param condition the shared condition of the challenge
+     */
+    public void addChallenge(Condition condition) {
+        Challenge c = new Challenge();
+        c.setCondition(condition);
+        challenges.add(c);
+        // The lock has to be compiled again to include the new challenge
+        matcher = null;
+        lockDetails = null;
+    }
+
+    /**
+     * Returns a new lock with the same challenges, none of them met
+     * <br>
+     * The conditions and the compiled matcher are shared with this lock, only the met flags are new
+     *
+     * @return the copy of the lock
+     */
+    public Lock copy() {
+        Lock l = new Lock();
+        for (Challenge c : challenges) {
+            l.addChallenge(c.getSharedCondition());
+        }
+        l.matcher = getMatcher();
+        l.libraryNumber = libraryNumber;
+        return l;
+    }
+
+    /**
+     * Returns the position of the lock in the library it was loaded from, so a library can find it without searching
+     *
+     * @return the position of the lock, -1 if it was not loaded from a library e.g. it was loaded with a saved game
+     */
+    public int getLibraryNumber() {
+        return libraryNumber;
+    }
+
+    public void setLibraryNumber(int libraryNumber) {
+        this.libraryNumber = libraryNumber;
+    }
+
+    /**
+     * Compiles the conditions of all the challenges into a {@link ChallengeMatcher}
+     * <br>
+     * Done once when the lock is loaded so that checking a play never builds any strings
+     */
+    public void compile() {
+        List<int[]> conditions = new ArrayList<>();
+        for (int pos = 0; pos < challenges.size(); pos++) {
+            conditions.add(getConditionFaces(pos));
+        }
+        matcher = new ChallengeMatcher(conditions);
+    }
+
+    /**
+     * Returns the condition of a challenge as card descriptions, e.g. P a
+     *
+     * @param pos the position of the challenge
+     * @return the descriptions of the cards in the condition; it must not be changed
+     */
+    public List<String> getCondition(int pos) {
+        return challenges.get(pos).getCondition();
+    }
+
+    /**
+     * Returns the challenges of the lock as they are written in a saved game, e.g. P a,F a;K b
+     *
+     * @return the conditions of the challenges, separated by semicolons
+     */
+    public String getSaveLine() {
+        StringBuilder line = new StringBuilder();
+        for (int pos = 0; pos < challenges.size(); pos++) {
+            if (pos > 0) {
+                line.append(';');
+            }
+            line.append(String.join(",", getCondition(pos)));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Returns the condition of a challenge as card faces, see {@link CardCode#getFace(String)}
+     *
+     * @param pos the position of the challenge
+     * @return the faces in the condition, -1 for anything which is not a card; shared so it must not be changed
+     */
+    public int[] getConditionFaces(int pos) {
+        return challenges.get(pos).getSharedCondition().getFaces();
+    }
+
+    /**
+     * Returns the compiled conditions of the lock, compiling them first if needed
+     *
+     * @return the compiled conditions of the lock
+     */
+    public ChallengeMatcher getMatcher() {
+        if (matcher == null) {
+            compile();
+        }
+        return matcher;
+    }
+
+    /**
+     * Returns a string representation of the status of the lock
+     *
+     * @return string representation of the status of the lock
+     */
+    public String getLockDetails() {
+        // The details are only built again when a challenge has been met or unmet since they were last built
+        if (lockDetails == null || detailsChanged()) {
+            detailsMet = new boolean[challenges.size()];
+            for (int pos = 0; pos < detailsMet.length; pos++) {
+                detailsMet[pos] = challenges.get(pos).getMet();
+            }
+            lockDetails = buildLockDetails();
+        }
+        return lockDetails;
+    }
+
+    /**
+     * Checks if the met state of any challenge differs from when the details were last built
+     *
+     * @return true if the cached details are out of date, false otherwise
+     */
+    private boolean detailsChanged() {
+        if (detailsMet.length != challenges.size()) {
+            return true;
+        }
+        for (int pos = 0; pos < detailsMet.length; pos++) {
+            if (detailsMet[pos] != challenges.get(pos).getMet()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the string representation of the status of the lock
+     *
+     * @return string representation of the status of the lock
+     */
+    private String buildLockDetails() {
+        StringBuilder lockDetails = new StringBuilder();
+        lockDetails.append(System.lineSeparator()).append("CURRENT LOCK").append(System.lineSeparator()).append("------------").append(System.lineSeparator());
+        for (Challenge c : challenges) {
+            // Sets up first text
+            if (c.getMet()) {
+                lockDetails.append("Challenge met: ");
+            } else {
+                lockDetails.append("Not met:       ");
+            }
+            // Adds all the challenges in the lock to the output string
+            lockDetails.append(c.getSharedCondition().getText()).append(System.lineSeparator());
+        }
+        // Final separator
+        lockDetails.append(System.lineSeparator());
+        return lockDetails.toString();
+    }
+
+    /**
+     * Checks if a lock has been solved
+     *
+     * @return true if all challenges are met, false otherwise
+     */
+    public boolean getLockSolved() {
+        // Checks if each challenge has been met
+        for (Challenge c : challenges) {
+            if (!c.getMet()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a certain sequence of cards meet a challenge
+     *
+     * @param sequence the sequence of cards to check
+     * @return true if a challenge was met, false otherwise
+     */
+    public boolean checkIfConditionMet(String sequence) {
+        for (Challenge c : challenges) {
+            // If the condition has not been met yet, and it is in the sequence
+            if (!c.getMet() && sequence.equals(c.getSharedCondition().getText())) {
+                c.SetMet(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the sequence which led to a state of the {@link Lock#getMatcher() matcher} meets a challenge
+     * <p>
+     * Challenges are checked shortest first, then in the order they are in the lock
+     *
+     * @param state the state of the matcher after the last card in the sequence
+     * @return true if a challenge was met, false otherwise
+     */
+    public boolean checkIfConditionMet(int state) {
+        ChallengeMatcher m = getMatcher();
+        for (int pos = 0; pos < m.getNumberOfMatches(state); pos++) {
+            Challenge c = challenges.get(m.getMatch(state, pos));
+            // If the condition has not been met yet
+            if (!c.getMet()) {
+                c.SetMet(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets a challenges state to met or unmet
+     *
+     * @param pos   position of the challenge
+     * @param value true if the challenge is met, false otherwise
+     */
+    public void setChallengeMet(int pos, boolean value) {
+        challenges.get(pos).SetMet(value);
+    }
+
+    /**
+     * Checks if a certain challenge in the lock has been met
+     *
+     * @param pos the position of the challenge in the lock's list
+     * @return true if the challenge is met, false otherwise
+     */
+    public boolean getChallengeMet(int pos) {
+        return challenges.get(pos).getMet();
+    }
+
+    /**
+     * Returns the number of challenges in the lock
+     *
+     * @return the number of challenges in the lock
+     */
+    public int getNumberOfChallenges() {
+        return challenges.size();
+    }
+}
+
+final class ChallengeMatcher {
+    /**
+     * The state before any cards have been played
+     */
+    public static final int START_STATE = 0;
+
+    // transitions[state * CardCode.NUMBER_OF_FACES + face] is the state after playing a card with that face
+    private final int[] transitions;
+    // The challenges which end at a state are matches[matchStart[state]] up to matches[matchStart[state + 1] - 1]
+    private final int[] matchStart;
+    private final int[] matches;
+    private final int[] depth;
+    private final int maxLength;
+
+    /**
+     * Builds an Aho-Corasick automaton over card faces from the conditions of the challenges in a lock
+     * <p>
+     * Each state stands for the longest end of the sequence which is also the start of a condition,
+     * so following one transition per card played is enough to know every condition the sequence ends with
+     *
+     * @param conditions the faces of each challenge's condition, in the order of the challenges in the lock;
+     *                   a condition with a face of -1 can never be met
+     */
+    public ChallengeMatcher(List<int[]> conditions) {
+        final int faces = CardCode.NUMBER_OF_FACES;
+        // Builds the trie of all the conditions, with state 0 as the root
+        List<int[]> children = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        children.add(newRow(faces));
+        ends.add(new ArrayList<Integer>());
+        depths.add(0);
+        int longest = 0;
+        for (int index = 0; index < conditions.size(); index++) {
+            int[] condition = conditions.get(index);
+            if (condition.length == 0 || !isValid(condition)) {
+                continue;
+            }
+            int state = START_STATE;
+            for (int face : condition) {
+                if (children.get(state)[face] < 0) {
+                    children.get(state)[face] = children.size();
+                    depths.add(depths.get(state) + 1);
+                    children.add(newRow(faces));
+                    ends.add(new ArrayList<Integer>());
+                }
+                state = children.get(state)[face];
+            }
+            ends.get(state).add(index);
+            longest = Math.max(longest, condition.length);
+        }
+        maxLength = longest;
+
+        // Works out the failure links breadth first, filling in the missing transitions as it goes
+        int numberOfStates = children.size();
+        depth = new int[numberOfStates];
+        for (int state = 0; state < numberOfStates; state++) {
+            depth[state] = depths.get(state);
+        }
+        transitions = new int[numberOfStates * faces];
+        int[] fail = new int[numberOfStates];
+        List<List<Integer>> found = new ArrayList<>();
+        for (int state = 0; state < numberOfStates; state++) {
+            found.add(null);
+        }
+        found.set(START_STATE, ends.get(START_STATE));
+        int[] queue = new int[numberOfStates];
+        int head = 0, tail = 0;
+        for (int face = 0; face < faces; face++) {
+            int child = children.get(START_STATE)[face];
+            if (child < 0) {
+                transitions[face] = START_STATE;
+            } else {
+                transitions[face] = child;
+                fail[child] = START_STATE;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            // Shorter conditions come first as they are found at the failure state, then this state's own
+            List<Integer> matched = new ArrayList<>(found.get(fail[state]));
+            matched.addAll(ends.get(state));
+            found.set(state, matched);
+            for (int face = 0; face < faces; face++) {
+                int child = children.get(state)[face];
+                int fallback = transitions[fail[state] * faces + face];
+                if (child < 0) {
+                    transitions[state * faces + face] = fallback;
+                } else {
+                    transitions[state * faces + face] = child;
+                    fail[child] = fallback;
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        // Flattens the matches of every state into one array
+        matchStart = new int[numberOfStates + 1];
+        for (int state = 0; state < numberOfStates; state++) {
+            matchStart[state + 1] = matchStart[state] + found.get(state).size();
+        }
+        matches = new int[matchStart[numberOfStates]];
+        for (int state = 0; state < numberOfStates; state++) {
+            for (int pos = 0; pos < found.get(state).size(); pos++) {
+                matches[matchStart[state] + pos] = found.get(state).get(pos);
+            }
+        }
+    }
+
+    private static int[] newRow(int size) {
+        int[] row = new int[size];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static boolean isValid(int[] condition) {
+        for (int face : condition) {
+            if (face < 0 || face >= CardCode.NUMBER_OF_FACES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the state after a card is added to the end of the sequence
+     *
+     * @param state the state before the card was added
+     * @param face  the face of the card, see {@link CardCode#getFace(int)}
+     * @return the state after the card was added
+     */
+    public int next(int state, int face) {
+        if (face < 0 || face >= CardCode.NUMBER_OF_FACES) {
+            return START_STATE;
+        }
+        return transitions[state * CardCode.NUMBER_OF_FACES + face];
+    }
+
+    /**
+     * Returns the number of challenges whose condition the sequence ends with
+     *
+     * @param state the state after the last card in the sequence
+     * @return the number of challenges met by the end of the sequence
+     */
+    public int getNumberOfMatches(int state) {
+        return matchStart[state + 1] - matchStart[state];
+    }
+
+    /**
+     * Returns the position in the lock of a challenge whose condition the sequence ends with
+     * <br>
+     * Shorter conditions come first, then the challenges in the order they are in the lock
+     *
+     * @param state the state after the last card in the sequence
+     * @param pos   which of the matches to return
+     * @return the position of the challenge in the lock
+     */
+    public int getMatch(int state, int pos) {
+        return matches[matchStart[state] + pos];
+    }
+
+    /**
+     * Returns how many cards at the end of the sequence are the start of a condition
+     *
+     * @param state the state after the last card in the sequence
+     * @return the number of cards at the end of the sequence which a condition starts with
+     */
+    public int getDepth(int state) {
+        return depth[state];
+    }
+
+    /**
+     * Returns the number of states, so state numbers run from 0 up to one less than this
+     *
+     * @return the number of states
+     */
+    public int getNumberOfStates() {
+        return depth.length;
+    }
+
+    /**
+     * Returns the length of the longest condition, i.e. how many cards at the end of the sequence can matter
+     *
+     * @return the length of the longest condition
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+}
+
+class Card {
+    protected int cardNumber, score;
+    // Only used by cards created without a number; games number their own cards so they can run side by side
+    private static final AtomicInteger nextCardNumber = new AtomicInteger(1);
+
+    /**
+     * Constructor for a card
+     */
+    public Card() {
+        this(nextCardNumber.getAndIncrement());
+    }
+
+    /**
+     * Constructor for a card with a given number
+     *
+     * @param cardNo the card number
+     */
+    protected Card(int cardNo) {
+        cardNumber = cardNo;
         score = 0;
     }
 
     /**
-     * Returns the score of the card
+     * Returns the score of the card
+     *
+     * @return score of the card
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Currently a blank overridable method
+     *
+     * @param deck
+     * @param discard
+     * @param hand
+     * @param sequence
+     * @param currentLock
+     * @param choice
+     * @param cardChoice
+     */
+    public void process(CardCollection deck, CardCollection discard, CardCollection hand, CardCollection sequence, Lock currentLock, int choice, int cardChoice) {
+    }
+
+    /**
+     * Returns the card number of the card
+     *
+     * @return the card number of the card
+     */
+    public int getCardNumber() {
+        return cardNumber;
+    }
+
+    /**
+     * Returns the description of the card
+     * Formats the card number into a 2 character string
+     *
+     * @return description of the card
+     */
+    public String getDescription() {
+        if (cardNumber < 10) {
+            return " " + cardNumber;
+        } else {
+            return cardNumber + "";
+        }
+    }
+}
+
+class ToolCard extends Card {
+    protected String toolType;
+    protected String kit;
+
+    /**
+     * Constructor for ToolCard
+     *
+     * @param t type of tool card (P, F, K)
+     * @param k kit of tool card (a, b, c)
+     */
+    public ToolCard(String t, String k) {
+        super();
+        toolType = t;
+        kit = k;
+        // Determines the score of the card based on its type
+        setScore();
+    }
+
+    /**
+     * Constructor for ToolCard
+     * <br>
+     * Used when loading a game from a file
+     *
+     * @param t      type of tool card
+     * @param k      kit of tool card
+     * @param cardNo card number of tool card
+     */
+    public ToolCard(String t, String k, int cardNo) {
+        super(cardNo);
+        toolType = t;
+        kit = k;
+        setScore();
+    }
+
+    /**
+     * Determines the score of the tool card
+     * <br>
+     * Keys: 3
+     * <br>
+     * File: 2
+     * <br>
+     * Pick: 1
+     */
+    private void setScore() {
+        switch (toolType) {
+            case "K":
+                score = 3;
+                break;
+            case "F":
+                score = 2;
+                break;
+            case "P":
+                score = 1;
+                break;
+        }
+    }
+
+    /**
+     * Returns the description of tool card
+     *
+     * @return the description of tool card
+     */
+    @Override
+    public String getDescription() {
+        return toolType + " " + kit;
+    }
+}
+
+class DifficultyCard extends Card {
+    protected String cardType;
+
+    /**
+     * Constructor for the difficulty card
+     */
+    public DifficultyCard() {
+        super();
+        cardType = "Dif";
+    }
+
+    /**
+     * Constructor for the difficulty card
+     * <br>
+     * Used when loading a game from a file
+     *
+     * @param cardNo the card number
+     */
+    public DifficultyCard(int cardNo) {
+        super(cardNo);
+        cardType = "Dif";
+    }
+
+    /**
+     * Returns the description of the card (the card type)
+     *
+     * @return the description of the card (the card type)
+     */
+    @Override
+    public String getDescription() {
+        return cardType;
+    }
+
+    /**
+     * Works out which card in the hand a choice of key to lose refers to
+     * <p>
+     * The card that was played or discarded has already left the hand, so choices after it are moved down by one
+     *
+     * @param choice     the position of the key to lose (1-5)
+     * @param cardChoice the position of the card the player played or discarded
+     * @return the zero based position in the hand
+     */
+    public static int getHandPosition(int choice, int cardChoice) {
+        int handPos = choice >= cardChoice ? choice - 1 : choice;
+        // Removes one from the variable for zero indexing
+        if (handPos > 0) {
+            handPos -= 1;
+        }
+        return handPos;
+    }
+
+    /**
+     * Process what should happen when the user has encountered a difficulty card
+     * Depending on the {@code choice}, the program will either remove a key or discard 5 cards from the deck
+     * @param deck the  deck
+     * @param discard the user's discard pile
+     * @param hand the user's hand
+     * @param sequence the sequence of cards
+     * @param currentLock the current lock
+     * @param choice the user's choice whether they want to discard a key (1-5) or if they want to discard 5 cards (anything else)
+     * @param cardChoice the card the user wants to play to the sequence
+     */
+    @Override
+    public void process(CardCollection deck, CardCollection discard, CardCollection hand, CardCollection sequence, Lock currentLock, int choice, int cardChoice) {
+        int choiceAsInteger = choice;
+        // If the choice is between 1 and 5
+        if (choiceAsInteger >= 1 && choiceAsInteger <= 5) {
+
+            // Un/intentional bug discovered: https://gyazo.com/0e043bd6abb04defeb6c910af8b23c08
+            // Because one of the cards is moved from the hand to the sequence, the options should no longer be 1-5
+            // Instead, the options should be 1-4
+            // Steps to reproduce:
+            // 1. Load the game from the file
+            // 2. U, 1, P
+            // 3. U, 1, P
+            // 4. Encounter a difficulty card
+            // 5. Try to lose card #2 (K a)
+            // Result: Game attempts to remove Card #1 instead but since it's not a key, it discards 5 cards
+
+            choiceAsInteger = getHandPosition(choiceAsInteger, cardChoice);
+            // If the chosen card is a key card, it is discarded and the method returns
+            // If the chosen card is not a key, method proceeds and discards 5 cards from the deck
+            // (as it does if there is no card at that position once the hand has run low)
+            if (choiceAsInteger < hand.getNumberOfCards() && hand.getCardDescriptionAt(choiceAsInteger).charAt(0) == 'K') {
+                // Moves the card from the hand to the discard pile
+                hand.moveCardTo(discard, hand.getCardNumberAt(choiceAsInteger));
+                return;
+            }
+        }
+        // Discards 5 cards from the deck, or as many as are left
+        deck.drawTop(discard, 5);
+    }
+}
+
+class CardCollection {
+    // The lines of dashes for rows of 0 to 10 cards, the most that fit on one row
+    private static final String[] LINES_OF_DASHES = new String[11];
+    protected List<Card> cards = new ArrayList<>();
+    protected String name;
+    private String cardDisplay;
+
+    static {
+        LINES_OF_DASHES[0] = "";
+        for (int size = 1; size < LINES_OF_DASHES.length; size++) {
+            LINES_OF_DASHES[size] = LINES_OF_DASHES[size - 1] + "------";
+        }
+    }
+
+    /**
+     * Constructor for a CardCollection
      *
-     * @return score of the card
+     * @param n the name of the collection
      */
-    public int getScore() {
-        return score;
+    public CardCollection(String n) {
+        name = n;
     }
 
     /**
-     * Currently a blank overridable method
+     * Returns the name of the card collection
      *
-     * @param deck
-     * @param discard
-     * @param hand
-     * @param sequence
-     * @param currentLock
-     * @param choice
-     * @param cardChoice
+     * @return the name of the card collection
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the card number of the card at the specified position.
+     *
+     * @param x the position of the card
+     * @return the card number of the card at the specified position
      */
-    public void process(CardCollection deck, CardCollection discard, CardCollection hand, CardCollection sequence, Lock currentLock, String choice, int cardChoice) {
+    public int getCardNumberAt(int x) {
+        return cards.get(x).getCardNumber();
     }
 
     /**
-     * Returns the card number of the card
+     * Returns the description of the card at the given position.
      *
-     * @return the card number of the card
+     * @param x the position of the card
+     * @return the description of the card at the given position
      */
-    public int getCardNumber() {
-        return cardNumber;
+    public String getCardDescriptionAt(int x) {
+        return cards.get(x).getDescription();
     }
 
     /**
-     * Returns the description of the card
-     * Formats the card number into a 2 character string
+     * Returns the card at the given position packed by {@link CardCode}
      *
-     * @return description of the card
+     * @param x the position of the card
+     * @return the packed card
      */
-    public String getDescription() {
-        if (cardNumber < 10) {
-            return " " + cardNumber;
-        } else {
-            return cardNumber + "";
+    public int getCardCodeAt(int x) {
+        return CardCode.encode(cards.get(x));
+    }
+
+    /**
+     * Returns the face of the card at the given position, see {@link CardCode#getFace(int)}
+     *
+     * @param x the position of the card
+     * @return the face of the card at the given position
+     */
+    public int getCardFaceAt(int x) {
+        return CardCode.getFace(getCardDescriptionAt(x));
+    }
+
+    /**
+     * Adds a card to the collection.
+     *
+     * @param c The card to be added.
+     */
+    public void addCard(Card c) {
+        cards.add(c);
+        invalidateDisplay();
+    }
+
+    /**
+     * Returns the number of cards in the collection
+     *
+     * @return the number of cards in the collection
+     */
+    public int getNumberOfCards() {
+        return cards.size();
+    }
+
+    /**
+     * Performs a fisher-yates shuffle on the cards in the collection.
+     */
+    public void shuffle() {
+        shuffle(new SplittableRandom());
+    }
+
+    /**
+     * Returns a random number from 0 up to one less than the bound
+     * <br>
+     * Takes exactly one step of the generator whatever the bound, so a game can count its draws and restart
+     * the generator from the same point. As a draw is never thrown away and taken again, the numbers are not quite
+     * equally likely: their chances differ by at most bound / 2^32, less than one in a hundred million for a deck.
+     *
+     * @param rNoGen the random number generator to draw from
+     * @param bound  the number of possible results
+     * @return the random number
+     */
+    public static int randomIndex(SplittableRandom rNoGen, int bound) {
+        return (int) ((rNoGen.nextLong() >>> 32) * bound >>> 32);
+    }
+
+    /**
+     * Performs a fisher-yates shuffle on the cards in the collection using the given random number generator
+     * <br>
+     * Every order is equally likely to within the bias of {@link CardCollection#randomIndex(SplittableRandom, int)}
+     * and the same seed always gives the same order
+     *
+     * @param rNoGen the random number generator to shuffle with
+     */
+    public void shuffle(SplittableRandom rNoGen) {
+        // Init
+        Card tempCard;
+        int rNo;
+        // Swaps each card, from the last to the second, with a random card at or before it
+        for (int pos = cards.size() - 1; pos > 0; pos--) {
+            rNo = randomIndex(rNoGen, pos + 1);
+
+            // Swap cards
+            tempCard = cards.get(pos);
+            cards.set(pos, cards.get(rNo));
+            cards.set(rNo, tempCard);
+        }
+        if (cards.size() > 1) {
+            invalidateDisplay();
         }
     }
-}
 
-class ToolCard extends Card {
-    protected String toolType;
-    protected String kit;
+    /**
+     * Removes the card at the specified index.
+     *
+     * @param cardNumber The index of the card to remove.
+     * @return the card that was removed, null if the card does not exist
+     */
+    public Card removeCard(int cardNumber) {
+        // Init
+        boolean cardFound = false;
+        int pos = 0;
+        Card cardToGet = null;
+
+        // Search for the card
+        while (pos < cards.size() && !cardFound) {
+            // If the card is found, remove it
+            if (cards.get(pos).getCardNumber() == cardNumber) {
+                // Save the removed card
+                cardToGet = cards.get(pos);
+                cardFound = true;
+                cards.remove(pos);
+                invalidateDisplay();
+            }
+            pos++;
+        }
+        return cardToGet;
+    }
 
     /**
-     * Constructor for ToolCard
+     * Moves a card from this collection to the end of another collection
      *
-     * @param t type of tool card (P, F, K)
-     * @param k kit of tool card (a, b, c)
+     * @param toCollection the collection to move the card to
+     * @param cardNumber   the number of the card to move
+     * @return the score of the card moved, 0 if the card does not exist
      */
-    public ToolCard(String t, String k) {
-        super();
-        toolType = t;
-        kit = k;
-        // Determines the score of the card based on its type
-        setScore();
+    public int moveCardTo(CardCollection toCollection, int cardNumber) {
+        Card cardToMove = removeCard(cardNumber);
+        if (cardToMove == null) {
+            return 0;
+        }
+        toCollection.addCard(cardToMove);
+        return cardToMove.getScore();
+    }
+
+    /**
+     * Removes the card at the given position
+     *
+     * @param x the position of the card
+     * @return the card that was removed
+     */
+    public Card removeAt(int x) {
+        Card removed = cards.remove(x);
+        invalidateDisplay();
+        return removed;
+    }
+
+    /**
+     * Moves cards from the top of this collection to the end of another collection, keeping their order
+     *
+     * @param toCollection the collection to move the cards to
+     * @param n            the most cards to move
+     * @return the number of cards moved, fewer than n if this collection runs out
+     */
+    public int drawTop(CardCollection toCollection, int n) {
+        int count = Math.min(n, getNumberOfCards());
+        for (int pos = 0; pos < count; pos++) {
+            toCollection.addCard(cards.get(pos));
+        }
+        if (count > 0) {
+            cards.subList(0, count).clear();
+            invalidateDisplay();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the cards as they are now, for a {@link SaveSnapshot}
+     *
+     * @return the cards packed by {@link CardCode}, which do not change as the collection does
+     */
+    public SavedCards snapshotCodes() {
+        // The ring's length must be a power of two
+        int[] codes = new int[Integer.highestOneBit(Math.max(1, getNumberOfCards()) * 2 - 1)];
+        for (int pos = 0; pos < getNumberOfCards(); pos++) {
+            codes[pos] = getCardCodeAt(pos);
+        }
+        return new SavedCards(codes, 0, getNumberOfCards());
+    }
+
+    /**
+     * Moves every card in this collection to the end of another collection, keeping their order
+     *
+     * @param toCollection the collection to move the cards to
+     * @return the number of cards moved
+     */
+    public int moveAllTo(CardCollection toCollection) {
+        return drawTop(toCollection, getNumberOfCards());
+    }
+
+    /**
+     * Creates a string with 6*{@code size} dashes
+     *
+     * @param size The number of dashes to create
+     * @return A string of dashes
+     */
+    protected String createLineOfDashes(int size) {
+        if (size < LINES_OF_DASHES.length) {
+            return LINES_OF_DASHES[size];
+        }
+        StringBuilder lineOfDashes = new StringBuilder();
+        for (int count = 1; count <= size; count++) {
+            lineOfDashes.append("------");
+        }
+        return lineOfDashes.toString();
+    }
+
+    /**
+     * Creates a string representation of the cards in the collection.
+     *
+     * @return the string representation of the cards
+     */
+    public String getCardDisplay() {
+        // The display is only built again after the cards have changed
+        if (cardDisplay == null) {
+            cardDisplay = buildCardDisplay();
+        }
+        return cardDisplay;
+    }
+
+    /**
+     * Throws away the cached display, called whenever the cards in the collection change
+     */
+    protected void invalidateDisplay() {
+        cardDisplay = null;
+    }
+
+    /**
+     * Builds the string representation of the cards in the collection.
+     *
+     * @return the string representation of the cards
+     */
+    private String buildCardDisplay() {
+        StringBuilder cardDisplay = new StringBuilder();
+        cardDisplay.append(System.lineSeparator()).append(name).append(":");
+        // If the card collection is empty, return "CollectionName: empty"
+        if (getNumberOfCards() == 0) {
+            return cardDisplay.append(" empty").append(System.lineSeparator()).append(System.lineSeparator()).toString();
+        } else {
+            cardDisplay.append(System.lineSeparator()).append(System.lineSeparator());
+        }
+
+        // Creates a line of dashes
+        // Maximum size is 10,
+        // If there are fewer cards in the collection, then the amount of dashes is adjusted
+        String lineOfDashes;
+        final int cardsPerLine = 10;
+        if (getNumberOfCards() > cardsPerLine) {
+            lineOfDashes = createLineOfDashes(cardsPerLine);
+        } else {
+            lineOfDashes = createLineOfDashes(getNumberOfCards());
+        }
+        cardDisplay.append(lineOfDashes).append(System.lineSeparator());
+
+        boolean complete = false;
+        int pos = 0;
+        while (!complete) {
+            // Adds the card to the display and increments the position
+            cardDisplay.append("| ").append(getCardDescriptionAt(pos)).append(" ");
+            pos += 1;
+            // If the 10 cards have been added:
+            // Add a line of dashes and start adding the next 10 cards
+            if (pos % cardsPerLine == 0) {
+                cardDisplay.append("|").append(System.lineSeparator()).append(lineOfDashes).append(System.lineSeparator());
+            }
+            // All the cards have been added to the display
+            if (pos == getNumberOfCards()) {
+                complete = true;
+            }
+        }
+
+        // If the last row is not filled with cards:
+        // The last bar "|", and dashes have not been added in the preceding loop
+        if (getNumberOfCards() % cardsPerLine > 0) {
+            cardDisplay.append("|").append(System.lineSeparator());
+            // If there are less than 10 cards in the collection: then the lineOfDashes already holds the correct amount of dashes
+            // If there are more than 10 cards in the collection, the lineOfDashes holds 10 dashes and needs to be adjusted
+            if (getNumberOfCards() > cardsPerLine) {
+                lineOfDashes = createLineOfDashes(getNumberOfCards() % cardsPerLine);
+            }
+            cardDisplay.append(lineOfDashes).append(System.lineSeparator());
+        }
+        return cardDisplay.toString();
+    }
+}
+
+final class CardCode {
+    /**
+     * Bits 0-1 hold the tool type: 0 = Pick, 1 = File, 2 = Key
+     */
+    public static final int TOOL_MASK = 0x3;
+    /**
+     * Bits 2-3 hold the kit: 0 = Acute (a), 1 = Basic (b), 2 = Crude (c)
+     */
+    public static final int KIT_SHIFT = 2;
+    public static final int KIT_MASK = 0x3;
+    /**
+     * Bit 4 is set for difficulty cards
+     */
+    public static final int DIFFICULTY_FLAG = 0x10;
+    /**
+     * Bits 0-4 together are the face of the card i.e. everything except its number
+     */
+    public static final int FACE_MASK = 0x1F;
+    /**
+     * The number of different faces
+     */
+    public static final int NUMBER_OF_FACES = FACE_MASK + 1;
+    /**
+     * Bits 8-31 hold the card number
+     */
+    public static final int NUMBER_SHIFT = 8;
+
+    private static final String TOOL_TYPES = "PFK";
+    private static final String KITS = "abc";
+    private static final int[] SCORES = {1, 2, 3};
+    private static final String[] DESCRIPTIONS = new String[NUMBER_OF_FACES];
+
+    static {
+        // Every description is built once so that looking one up never creates a string
+        for (int tool = 0; tool < TOOL_TYPES.length(); tool++) {
+            for (int kit = 0; kit < KITS.length(); kit++) {
+                DESCRIPTIONS[tool | kit << KIT_SHIFT] = TOOL_TYPES.charAt(tool) + " " + KITS.charAt(kit);
+            }
+        }
+        DESCRIPTIONS[DIFFICULTY_FLAG] = "Dif";
+    }
+
+    private CardCode() {
+    }
+
+    /**
+     * Packs a tool card into an int
+     *
+     * @param toolType   type of tool card (P, F, K)
+     * @param kit        kit of tool card (a, b, c)
+     * @param cardNumber the card number
+     * @return the packed card
+     * @throws IllegalArgumentException if the tool type or the kit is not one of the above
+     */
+    public static int encode(char toolType, char kit, int cardNumber) {
+        int tool = TOOL_TYPES.indexOf(toolType);
+        int kitIndex = KITS.indexOf(kit);
+        if (tool < 0 || kitIndex < 0) {
+            throw new IllegalArgumentException("Not a tool card: " + toolType + " " + kit);
+        }
+        return cardNumber << NUMBER_SHIFT | kitIndex << KIT_SHIFT | tool;
     }
 
     /**
-     * Constructor for ToolCard
-     * <br>
-     * Used when loading a game from a file
+     * Packs a difficulty card into an int
      *
-     * @param t      type of tool card
-     * @param k      kit of tool card
-     * @param cardNo card number of tool card
+     * @param cardNumber the card number
+     * @return the packed card
      */
-    public ToolCard(String t, String k, int cardNo) {
-        toolType = t;
-        kit = k;
-        cardNumber = cardNo;
-        setScore();
+    public static int encodeDifficulty(int cardNumber) {
+        return cardNumber << NUMBER_SHIFT | DIFFICULTY_FLAG;
     }
 
     /**
-     * Determines the score of the tool card
-     * <br>
-     * Keys: 3
-     * <br>
-     * File: 2
-     * <br>
-     * Pick: 1
+     * Packs a {@link Card} into an int
+     *
+     * @param c the card to pack
+     * @return the packed card
+     * @throws IllegalArgumentException if the card is neither a difficulty card nor a tool card of a known type and kit
      */
-    private void setScore() {
-        switch (toolType) {
-            case "K":
-                score = 3;
-                break;
-            case "F":
-                score = 2;
-                break;
-            case "P":
-                score = 1;
-                break;
+    public static int encode(Card c) {
+        String description = c.getDescription();
+        if (description.equals("Dif")) {
+            return encodeDifficulty(c.getCardNumber());
         }
+        return encode(description.charAt(0), description.charAt(2), c.getCardNumber());
     }
 
     /**
-     * Returns the description of tool card
+     * Unpacks an int into a new {@link ToolCard} or {@link DifficultyCard}
      *
-     * @return the description of tool card
+     * @param code the packed card
+     * @return the card
      */
-    @Override
-    public String getDescription() {
-        return toolType + " " + kit;
+    public static Card toCard(int code) {
+        if (isDifficulty(code)) {
+            return new DifficultyCard(getCardNumber(code));
+        }
+        return new ToolCard(TOOL_TYPES.charAt(code & TOOL_MASK) + "", KITS.charAt(code >> KIT_SHIFT & KIT_MASK) + "", getCardNumber(code));
     }
-}
 
-class DifficultyCard extends Card {
-    protected String cardType;
+    public static int getCardNumber(int code) {
+        return code >>> NUMBER_SHIFT;
+    }
 
-    /**
-     * Constructor for the difficulty card
-     */
-    public DifficultyCard() {
-        super();
-        cardType = "Dif";
+    public static int getFace(int code) {
+        return code & FACE_MASK;
     }
 
     /**
-     * Constructor for the difficulty card
-     * <br>
-     * Used when loading a game from a file
+     * Returns the face of a card from its description
      *
-     * @param cardNo the card number
+     * @param description the description of the card, e.g. "P a" or "Dif"
+     * @return the face of the card, -1 if the description is not a card
      */
-    public DifficultyCard(int cardNo) {
-        cardType = "Dif";
-        cardNumber = cardNo;
+    public static int getFace(String description) {
+        if (description.equals("Dif")) {
+            return DIFFICULTY_FLAG;
+        }
+        if (description.length() != 3 || description.charAt(1) != ' ') {
+            return -1;
+        }
+        int tool = TOOL_TYPES.indexOf(description.charAt(0));
+        int kit = KITS.indexOf(description.charAt(2));
+        if (tool < 0 || kit < 0) {
+            return -1;
+        }
+        return tool | kit << KIT_SHIFT;
+    }
+
+    public static boolean isDifficulty(int code) {
+        return (code & DIFFICULTY_FLAG) != 0;
     }
 
     /**
-     * Returns the description of the card (the card type)
+     * Returns the description of the card, e.g. "P a" or "Dif"
      *
-     * @return the description of the card (the card type)
+     * @param code the packed card
+     * @return the description of the card
      */
-    @Override
-    public String getDescription() {
-        return cardType;
+    public static String getDescription(int code) {
+        return DESCRIPTIONS[code & FACE_MASK];
     }
 
     /**
-     * Process what should happen when the user has encountered a difficulty card
-     * Depending on the {@code choice}, the program will either remove a key or discard 5 cards from the deck
-     * @param deck the  deck
-     * @param discard the user's discard pile
-     * @param hand the user's hand
-     * @param sequence the sequence of cards
-     * @param currentLock the current lock
-     * @param choice the user's choice whether they want to discard a key (1-5) or if they want to discard 5 cards
-     * @param cardChoice the card the user wants to play to the sequence
+     * Returns the score of the card when it is played to the sequence
+     *
+     * @param code the packed card
+     * @return 3 for keys, 2 for files, 1 for picks and 0 for difficulty cards
      */
-    @Override
-    public void process(CardCollection deck, CardCollection discard, CardCollection hand, CardCollection sequence, Lock currentLock, String choice, int cardChoice) {
-        int choiceAsInteger = 0;
-        boolean parsed;
-        // Converts the choice to an integer
-        try {
-            choiceAsInteger = Integer.parseInt(choice);
-            parsed = true;
-        } catch (NumberFormatException e) {
-            parsed = false;
-        }
-        // If the choice was a valid integer
-        if (parsed) {
-            // If the choice is between 1 and 5
-            if (choiceAsInteger >= 1 && choiceAsInteger <= 5) {
-
-                // Un/intentional bug discovered: https://gyazo.com/0e043bd6abb04defeb6c910af8b23c08
-                // Because one of the cards is moved from the hand to the sequence, the options should no longer be 1-5
-                // Instead, the options should be 1-4
-                // Steps to reproduce:
-                // 1. Load the game from the file
-                // 2. U, 1, P
-                // 3. U, 1, P
-                // 4. Encounter a difficulty card
-                // 5. Try to lose card #2 (K a)
-                // Result: Game attempts to remove Card #1 instead but since it's not a key, it discards 5 cards
-
-                if (choiceAsInteger >= cardChoice) {
-                    choiceAsInteger -= 1;
-                }
-                // Removes one from the variable for zero indexing
-                if (choiceAsInteger > 0) {
-                    choiceAsInteger -= 1;
-                }
-                // If the chosen card is a key card, it is discarded and the method returns
-                // If the chosen card is not a key, method proceeds and discards 5 cards from the deck
-                if (hand.getCardDescriptionAt(choiceAsInteger).charAt(0) == 'K') {
-                    // Moves the card from the hand to the discard pile
-                    Card cardToMove = hand.removeCard(hand.getCardNumberAt(choiceAsInteger));
-                    discard.addCard(cardToMove);
-                    return;
-                }
-            }
-        }
-        // Discards 5 cards from the deck
-        int count = 0;
-        while (count < 5 && deck.getNumberOfCards() > 0) {
-            Card cardToMove = deck.removeCard(deck.getCardNumberAt(0));
-            discard.addCard(cardToMove);
-            count += 1;
+    public static int getScore(int code) {
+        if (isDifficulty(code)) {
+            return 0;
         }
+        return SCORES[code & TOOL_MASK];
     }
 }
 
-class CardCollection {
-    protected List<Card> cards = new ArrayList<>();
-    protected String name;
+class PackedCardCollection extends CardCollection {
+    // Card numbers up to this are found through the index, a table with one int per number
+    private static final int MAX_INDEXED_NUMBER = 1 << 16;
+
+    // A ring buffer: the card at position x is at codes[(head + x) & (codes.length - 1)], so taking cards
+    // from the top of the deck never moves the rest. The length is always a power of two
+    protected int[] codes = new int[16];
+    protected int head;
+    protected int size;
+    // The slot of each card number plus one, 0 if the card is not in the collection
+    private int[] slotOfNumber = new int[64];
+    // Set while two cards share a number or a number is too big for the index, when cards are found by a search
+    private boolean searchByNumber;
+    // Set while a snapshot shares the codes, which are then copied before they next change
+    private boolean codesShared;
 
     /**
-     * Constructor for a CardCollection
+     * Constructor for a PackedCardCollection
+     * <br>
+     * The cards are held as ints packed by {@link CardCode} rather than as {@link Card} objects
      *
      * @param n the name of the collection
      */
-    public CardCollection(String n) {
-        name = n;
+    public PackedCardCollection(String n) {
+        super(n);
     }
 
-    /**
-     * Returns the name of the card collection
-     *
-     * @return the name of the card collection
-     */
-    public String getName() {
-        return name;
+    @Override
+    public int getCardNumberAt(int x) {
+        return CardCode.getCardNumber(getCodeAt(x));
+    }
+
+    @Override
+    public String getCardDescriptionAt(int x) {
+        return CardCode.getDescription(getCodeAt(x));
+    }
+
+    @Override
+    public int getCardFaceAt(int x) {
+        return CardCode.getFace(getCodeAt(x));
+    }
+
+    @Override
+    public int getCardCodeAt(int x) {
+        return getCodeAt(x);
     }
 
     /**
-     * Returns the card number of the card at the specified position.
+     * Returns the packed card at the given position
      *
      * @param x the position of the card
-     * @return the card number of the card at the specified position
+     * @return the packed card
      */
-    public int getCardNumberAt(int x) {
-        return cards.get(x).getCardNumber();
+    public int getCodeAt(int x) {
+        if (x < 0 || x >= size) {
+            throw new IndexOutOfBoundsException("Index: " + x + ", Size: " + size);
+        }
+        return codes[slot(x)];
+    }
+
+    @Override
+    public void addCard(Card c) {
+        addCode(CardCode.encode(c));
     }
 
     /**
-     * Returns the description of the card at the given position.
+     * Adds a packed card to the end of the collection
      *
-     * @param x the position of the card
-     * @return the description of the card at the given position
+     * @param code the packed card
      */
-    public String getCardDescriptionAt(int x) {
-        return cards.get(x).getDescription();
+    public void addCode(int code) {
+        if (size == codes.length) {
+            grow();
+        } else {
+            unshare();
+        }
+        int slot = slot(size);
+        codes[slot] = code;
+        size++;
+        index(code, slot);
+        invalidateDisplay();
+    }
+
+    @Override
+    public int getNumberOfCards() {
+        return size;
+    }
+
+    @Override
+    public void shuffle(SplittableRandom rNoGen) {
+        // Init
+        int tempCode;
+        int rNo;
+        // The random numbers are drawn in the same order as CardCollection so a seed gives the same deck
+        if (size > 1) {
+            unshare();
+        }
+        for (int pos = size - 1; pos > 0; pos--) {
+            rNo = randomIndex(rNoGen, pos + 1);
+
+            tempCode = codes[slot(pos)];
+            codes[slot(pos)] = codes[slot(rNo)];
+            codes[slot(rNo)] = tempCode;
+        }
+        if (size > 1) {
+            reindex();
+            invalidateDisplay();
+        }
+    }
+
+    @Override
+    public Card removeCard(int cardNumber) {
+        int pos = indexOfCardNumber(cardNumber);
+        if (pos < 0) {
+            return null;
+        }
+        return CardCode.toCard(removeCodeAt(pos));
+    }
+
+    @Override
+    public Card removeAt(int x) {
+        if (x < 0 || x >= size) {
+            throw new IndexOutOfBoundsException("Index: " + x + ", Size: " + size);
+        }
+        return CardCode.toCard(removeCodeAt(x));
     }
 
     /**
-     * Adds a card to the collection.
+     * Moves a card without creating a {@link Card} object when both collections are packed
      *
-     * @param c The card to be added.
+     * @param toCollection the collection to move the card to
+     * @param cardNumber   the number of the card to move
+     * @return the score of the card moved, 0 if the card does not exist
      */
-    public void addCard(Card c) {
-        cards.add(c);
+    @Override
+    public int moveCardTo(CardCollection toCollection, int cardNumber) {
+        if (!(toCollection instanceof PackedCardCollection)) {
+            return super.moveCardTo(toCollection, cardNumber);
+        }
+        int pos = indexOfCardNumber(cardNumber);
+        if (pos < 0) {
+            return 0;
+        }
+        int code = removeCodeAt(pos);
+        ((PackedCardCollection) toCollection).addCode(code);
+        return CardCode.getScore(code);
     }
 
     /**
-     * Returns the number of cards in the collection
+     * Moves cards from the top of this collection to the end of another, taking a step of the ring for each card
      *
-     * @return the number of cards in the collection
+     * @param toCollection the collection to move the cards to
+     * @param n            the most cards to move
+     * @return the number of cards moved
      */
-    public int getNumberOfCards() {
-        return cards.size();
+    @Override
+    public int drawTop(CardCollection toCollection, int n) {
+        int count = Math.min(n, size);
+        for (int moved = 0; moved < count; moved++) {
+            int code = codes[head];
+            unindex(code);
+            head = slot(1);
+            size--;
+            if (toCollection instanceof PackedCardCollection) {
+                ((PackedCardCollection) toCollection).addCode(code);
+            } else {
+                toCollection.addCard(CardCode.toCard(code));
+            }
+        }
+        if (count > 0) {
+            emptied();
+            invalidateDisplay();
+        }
+        return count;
     }
 
     /**
-     * Performs a fisher-yates shuffle on the cards in the collection.
+     * Shares the ring with the snapshot rather than copying it, the ring is copied before it next changes
+     * <br>
+     * Taking cards from either end only moves {@link PackedCardCollection#head} and {@link PackedCardCollection#size},
+     * so most turns after a save copy only the collections which cards are added to
      */
-    public void shuffle() {
-        // Init
-        Card tempCard;
-        int rNo1, rNo2;
-        Random rNoGen = new Random();
-        // Swap two random cards in the array 10000 times
-        for (int count = 1; count <= 10000; count++) {
-            // Pick two random indexes
-            rNo1 = rNoGen.nextInt(cards.size());
-            rNo2 = rNoGen.nextInt(cards.size());
+    @Override
+    public SavedCards snapshotCodes() {
+        codesShared = true;
+        return new SavedCards(codes, head, size);
+    }
 
-            // Swap cards
-            tempCard = cards.get(rNo1);
-            cards.set(rNo1, cards.get(rNo2));
-            cards.set(rNo2, tempCard);
+    /**
+     * Copies the ring if a snapshot shares it, before it is changed
+     */
+    private void unshare() {
+        if (codesShared) {
+            codes = codes.clone();
+            codesShared = false;
         }
     }
 
     /**
-     * Removes the card at the specified index.
+     * Returns the position of the card with the given number
      *
-     * @param cardNumber The index of the card to remove.
-     * @return the card that was removed, null if the card does not exist
+     * @param cardNumber the number of the card
+     * @return the position of the card, -1 if it is not in the collection
      */
-    public Card removeCard(int cardNumber) {
-        // Init
-        boolean cardFound = false;
-        int pos = 0;
-        Card cardToGet = null;
-
-        // Search for the card
-        while (pos < cards.size() && !cardFound) {
-            // If the card is found, remove it
-            if (cards.get(pos).getCardNumber() == cardNumber) {
-                // Save the removed card
-                cardToGet = cards.get(pos);
-                cardFound = true;
-                cards.remove(pos);
+    protected int indexOfCardNumber(int cardNumber) {
+        if (!searchByNumber) {
+            if (cardNumber < 0 || cardNumber >= slotOfNumber.length || slotOfNumber[cardNumber] == 0) {
+                return -1;
             }
-            pos++;
+            return (slotOfNumber[cardNumber] - 1 - head) & (codes.length - 1);
         }
-        return cardToGet;
+        for (int pos = 0; pos < size; pos++) {
+            if (CardCode.getCardNumber(codes[slot(pos)]) == cardNumber) {
+                return pos;
+            }
+        }
+        return -1;
     }
 
     /**
-     * Creates a string with 6*{@code size} dashes
+     * Removes the packed card at the given position
+     * <br>
+     * Whichever side of the card has fewer cards is moved up to close the gap, so taking the top or the
+     * bottom card moves nothing
      *
-     * @param size The number of dashes to create
-     * @return A string of dashes
+     * @param pos the position of the card
+     * @return the packed card removed
      */
-    private String createLineOfDashes(int size) {
-        String lineOfDashes = "";
-        for (int count = 1; count <= size; count++) {
-            lineOfDashes += "------";
+    protected int removeCodeAt(int pos) {
+        int code = codes[slot(pos)];
+        unindex(code);
+        if (pos > 0 && pos < size - 1) {
+            // Only closing a gap in the middle moves any codes
+            unshare();
         }
-        return lineOfDashes;
+        if (pos < size / 2) {
+            for (int from = pos - 1; from >= 0; from--) {
+                move(slot(from), slot(from + 1));
+            }
+            head = slot(1);
+        } else {
+            for (int from = pos + 1; from < size; from++) {
+                move(slot(from), slot(from - 1));
+            }
+        }
+        size--;
+        emptied();
+        invalidateDisplay();
+        return code;
     }
 
     /**
-     * Creates a string representation of the cards in the collection.
-     *
-     * @return the string representation of the cards
+     * Returns the slot in the ring buffer of the given position
      */
-    public String getCardDisplay() {
-        String cardDisplay = System.lineSeparator() + name + ":";
-        // If the card collection is empty, return "CollectionName: empty"
-        if (cards.isEmpty()) {
-            return cardDisplay + " empty" + System.lineSeparator() + System.lineSeparator();
-        } else {
-            cardDisplay += System.lineSeparator() + System.lineSeparator();
+    private int slot(int pos) {
+        return (head + pos) & (codes.length - 1);
+    }
+
+    private void move(int fromSlot, int toSlot) {
+        codes[toSlot] = codes[fromSlot];
+        if (!searchByNumber) {
+            slotOfNumber[CardCode.getCardNumber(codes[toSlot])] = toSlot + 1;
         }
+    }
 
-        // Creates a line of dashes
-        // Maximum size is 10,
-        // If there are fewer cards in the collection, then the amount of dashes is adjusted
-        String lineOfDashes;
-        final int cardsPerLine = 10;
-        if (cards.size() > cardsPerLine) {
-            lineOfDashes = createLineOfDashes(cardsPerLine);
-        } else {
-            lineOfDashes = createLineOfDashes(cards.size());
+    /**
+     * Doubles the ring buffer, laying the cards out again from the first slot
+     */
+    private void grow() {
+        int[] grown = new int[codes.length * 2];
+        for (int pos = 0; pos < size; pos++) {
+            grown[pos] = codes[slot(pos)];
         }
-        cardDisplay += lineOfDashes + System.lineSeparator();
+        codes = grown;
+        codesShared = false;
+        head = 0;
+        reindex();
+    }
 
-        boolean complete = false;
-        int pos = 0;
-        while (!complete) {
-            // Adds the card to the display and increments the position
-            cardDisplay += "| " + cards.get(pos).getDescription() + " ";
-            pos += 1;
-            // If the 10 cards have been added:
-            // Add a line of dashes and start adding the next 10 cards
-            if (pos % cardsPerLine == 0) {
-                cardDisplay += "|" + System.lineSeparator() + lineOfDashes + System.lineSeparator();
-            }
-            // All the cards have been added to the display
-            if (pos == cards.size()) {
-                complete = true;
-            }
+    private void index(int code, int slot) {
+        if (searchByNumber) {
+            return;
+        }
+        int cardNumber = CardCode.getCardNumber(code);
+        if (cardNumber >= MAX_INDEXED_NUMBER) {
+            searchByNumber = true;
+            return;
         }
+        if (cardNumber >= slotOfNumber.length) {
+            slotOfNumber = Arrays.copyOf(slotOfNumber, Math.max(slotOfNumber.length * 2, Integer.highestOneBit(cardNumber) * 2));
+        }
+        if (slotOfNumber[cardNumber] != 0) {
+            // Only a hand-edited save can have two cards with the same number
+            searchByNumber = true;
+            return;
+        }
+        slotOfNumber[cardNumber] = slot + 1;
+    }
 
-        // If the last row is not filled with cards:
-        // The last bar "|", and dashes have not been added in the preceding loop
-        if (cards.size() % cardsPerLine > 0) {
-            cardDisplay += "|" + System.lineSeparator();
-            // If there are less than 10 cards in the collection: then the lineOfDashes already holds the correct amount of dashes
-            // If there are more than 10 cards in the collection, the lineOfDashes holds 10 dashes and needs to be adjusted
-            if (cards.size() > cardsPerLine) {
-                lineOfDashes = createLineOfDashes(cards.size() % cardsPerLine);
-            }
-            cardDisplay += lineOfDashes + System.lineSeparator();
+    private void unindex(int code) {
+        if (!searchByNumber) {
+            slotOfNumber[CardCode.getCardNumber(code)] = 0;
+        }
+    }
+
+    /**
+     * Builds the index again after the cards have been moved around
+     */
+    private void reindex() {
+        Arrays.fill(slotOfNumber, 0);
+        searchByNumber = false;
+        for (int pos = 0; pos < size; pos++) {
+            index(codes[slot(pos)], slot(pos));
+        }
+    }
+
+    /**
+     * Goes back to using the index once there are no cards left to share a number
+     */
+    private void emptied() {
+        if (size == 0 && searchByNumber) {
+            reindex();
         }
-        return cardDisplay;
     }
-}
\ No newline at end of file
+}
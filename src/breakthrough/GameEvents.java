@@ -0,0 +1,319 @@
+package breakthrough;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the life of a game, so a recording of a server can be lined up with its CPU
+ * and allocation samples
+ * <p>
+ * The events are off by default. A recording turns them on with the settings in breakthrough.jfc, e.g.
+ * java -XX:StartFlightRecording=settings=breakthrough.jfc,filename=games.jfr ...
+ * <br>
+ * Until then each call is a check of a flag, and the game is only read once an event is going to be written.
+ * <p>
+ * This class never refers to jdk.jfr itself, so the game still runs on a Java runtime made without that module,
+ * where every method does nothing. The events are only loaded through {@link JfrGameEvents}.
+ */
+final class GameEvents {
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private GameEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts timing a decision, if turn events are being recorded
+     *
+     * @return the event to pass to {@link GameEvents#endTurn(Object, Breakthrough, int)}, null if it is not being recorded
+     */
+    static Object beginTurn() {
+        return AVAILABLE ? JfrGameEvents.beginTurn() : null;
+    }
+
+    static void endTurn(Object turn, Breakthrough game, int action) {
+        if (turn != null) {
+            JfrGameEvents.endTurn(turn, game, action);
+        }
+    }
+
+    static void gameStarted(Breakthrough game, boolean loaded) {
+        if (AVAILABLE) {
+            JfrGameEvents.gameStarted(game, loaded);
+        }
+    }
+
+    static void cardPlayed(Breakthrough game) {
+        if (AVAILABLE) {
+            JfrGameEvents.cardPlayed(game);
+        }
+    }
+
+    static void challengeMet(Breakthrough game) {
+        if (AVAILABLE) {
+            JfrGameEvents.challengeMet(game);
+        }
+    }
+
+    static void lockSolved(Breakthrough game, int solvedLockNumber) {
+        if (AVAILABLE) {
+            JfrGameEvents.lockSolved(game, solvedLockNumber);
+        }
+    }
+
+    static boolean isLockSolvedEnabled() {
+        return AVAILABLE && JfrGameEvents.isLockSolvedEnabled();
+    }
+
+    static void difficultyResolved(Breakthrough game, boolean keyLost) {
+        if (AVAILABLE) {
+            JfrGameEvents.difficultyResolved(game, keyLost);
+        }
+    }
+
+    static void gameOver(Breakthrough game) {
+        if (AVAILABLE) {
+            JfrGameEvents.gameOver(game);
+        }
+    }
+}
+
+/**
+ * Writes the {@link GameEvents}, only loaded once jdk.jfr is known to be there
+ * <p>
+ * Each event type is looked up once, and checking if it is on is a field read
+ */
+final class JfrGameEvents {
+    private static final EventType TURN = EventType.getEventType(TurnEvent.class);
+    private static final EventType GAME_STARTED = EventType.getEventType(GameStartedEvent.class);
+    private static final EventType CARD_PLAYED = EventType.getEventType(CardPlayedEvent.class);
+    private static final EventType CHALLENGE_MET = EventType.getEventType(ChallengeMetEvent.class);
+    private static final EventType LOCK_SOLVED = EventType.getEventType(LockSolvedEvent.class);
+    private static final EventType DIFFICULTY_RESOLVED = EventType.getEventType(DifficultyResolvedEvent.class);
+    private static final EventType GAME_OVER = EventType.getEventType(GameOverEvent.class);
+
+    private JfrGameEvents() {
+    }
+
+    static Object beginTurn() {
+        if (!TURN.isEnabled()) {
+            return null;
+        }
+        TurnEvent event = new TurnEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endTurn(Object turn, Breakthrough game, int action) {
+        TurnEvent event = (TurnEvent) turn;
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.score = game.getScore();
+            event.sequenceLength = game.getSequence().getNumberOfCards();
+            event.deckSize = game.getDeck().getNumberOfCards();
+            event.commit();
+        }
+    }
+
+    static void gameStarted(Breakthrough game, boolean loaded) {
+        if (GAME_STARTED.isEnabled()) {
+            GameStartedEvent event = new GameStartedEvent();
+            event.loaded = loaded;
+            event.lockNumber = game.getCurrentLockNumber();
+            event.deckSize = game.getDeck().getNumberOfCards();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+
+    static void cardPlayed(Breakthrough game) {
+        if (CARD_PLAYED.isEnabled()) {
+            CardPlayedEvent event = new CardPlayedEvent();
+            CardCollection sequence = game.getSequence();
+            event.card = CardCode.getDescription(sequence.getCardFaceAt(sequence.getNumberOfCards() - 1));
+            event.sequenceLength = sequence.getNumberOfCards();
+            event.deckSize = game.getDeck().getNumberOfCards();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+
+    static void challengeMet(Breakthrough game) {
+        if (CHALLENGE_MET.isEnabled()) {
+            ChallengeMetEvent event = new ChallengeMetEvent();
+            event.lockNumber = game.getCurrentLockNumber();
+            event.sequenceLength = game.getSequence().getNumberOfCards();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+
+    static boolean isLockSolvedEnabled() {
+        return LOCK_SOLVED.isEnabled();
+    }
+
+    static void lockSolved(Breakthrough game, int solvedLockNumber) {
+        if (LOCK_SOLVED.isEnabled()) {
+            LockSolvedEvent event = new LockSolvedEvent();
+            event.lockNumber = solvedLockNumber;
+            event.nextLockNumber = game.getCurrentLockNumber();
+            event.locksSolved = game.getLocksSolved();
+            event.deckSize = game.getDeck().getNumberOfCards();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+
+    static void difficultyResolved(Breakthrough game, boolean keyLost) {
+        if (DIFFICULTY_RESOLVED.isEnabled()) {
+            DifficultyResolvedEvent event = new DifficultyResolvedEvent();
+            event.keyLost = keyLost;
+            event.handSize = game.getHand().getNumberOfCards();
+            event.deckSize = game.getDeck().getNumberOfCards();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+
+    static void gameOver(Breakthrough game) {
+        if (GAME_OVER.isEnabled()) {
+            GameOverEvent event = new GameOverEvent();
+            event.lockNumber = game.getCurrentLockNumber();
+            event.locksSolved = game.getLocksSolved();
+            event.cardsUsed = game.getCardsUsed();
+            event.score = game.getScore();
+            event.commit();
+        }
+    }
+}
+
+@Name("breakthrough.Turn")
+@Label("Turn")
+@Description("One decision applied to the game, from the choice to the end of its effects")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class TurnEvent extends Event {
+    @Label("Action")
+    int action;
+    @Label("Score")
+    int score;
+    @Label("Sequence Length")
+    int sequenceLength;
+    @Label("Deck Size")
+    int deckSize;
+}
+
+@Name("breakthrough.GameStarted")
+@Label("Game Started")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class GameStartedEvent extends Event {
+    @Label("Loaded")
+    @Description("True if the game was loaded from a file rather than dealt")
+    boolean loaded;
+    @Label("Lock Number")
+    @Description("The position of the current lock in the library, -1 if it came from a saved game")
+    int lockNumber;
+    @Label("Deck Size")
+    int deckSize;
+    @Label("Score")
+    int score;
+}
+
+@Name("breakthrough.CardPlayed")
+@Label("Card Played")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class CardPlayedEvent extends Event {
+    @Label("Card")
+    String card;
+    @Label("Sequence Length")
+    int sequenceLength;
+    @Label("Deck Size")
+    int deckSize;
+    @Label("Score")
+    int score;
+}
+
+@Name("breakthrough.ChallengeMet")
+@Label("Challenge Met")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class ChallengeMetEvent extends Event {
+    @Label("Lock Number")
+    int lockNumber;
+    @Label("Sequence Length")
+    int sequenceLength;
+    @Label("Score")
+    int score;
+}
+
+@Name("breakthrough.LockSolved")
+@Label("Lock Solved")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class LockSolvedEvent extends Event {
+    @Label("Lock Number")
+    int lockNumber;
+    @Label("Next Lock Number")
+    int nextLockNumber;
+    @Label("Locks Solved")
+    int locksSolved;
+    @Label("Deck Size")
+    int deckSize;
+    @Label("Score")
+    int score;
+}
+
+@Name("breakthrough.DifficultyResolved")
+@Label("Difficulty Resolved")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class DifficultyResolvedEvent extends Event {
+    @Label("Key Lost")
+    @Description("True if a key was lost, false if five cards were discarded from the deck")
+    boolean keyLost;
+    @Label("Hand Size")
+    int handSize;
+    @Label("Deck Size")
+    int deckSize;
+    @Label("Score")
+    int score;
+}
+
+@Name("breakthrough.GameOver")
+@Label("Game Over")
+@Category("Breakthrough")
+@Enabled(false)
+@StackTrace(false)
+class GameOverEvent extends Event {
+    @Label("Lock Number")
+    int lockNumber;
+    @Label("Locks Solved")
+    int locksSolved;
+    @Label("Cards Used")
+    int cardsUsed;
+    @Label("Score")
+    int score;
+}
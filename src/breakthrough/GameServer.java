@@ -0,0 +1,330 @@
+package breakthrough;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+
+/**
+ * Hosts many games of Breakthrough in one JVM, one game per TCP connection on localhost
+ * <p>
+ * The protocol is the game as it is played on the console: the server writes the game display and the prompts,
+ * and the client answers each prompt with a line. The connection is closed when the game is over or the client
+ * stops sending.
+ * <p>
+ * Each connection is served by its own thread, which has its own {@link Console} and its own {@link GameSession}
+ * with its deck, hand, sequence, discard pile, random number generator and copies of the locks it uses. The lock
+ * library is loaded once and shared by every game. A connection's {@link Console}, line reader and character
+ * encoder and decoder all have small buffers, so an idle connection holds about 11 KB of heap whether its game is
+ * in memory or not. Its thread is given a 256 KB stack as the game never recurses, which is reserved rather than
+ * committed until it is used. Only the games of the most recently active players are kept in memory, about 3 KB
+ * each, the rest are spilled to disk by a {@link SessionCache} until their players send another line.
+ * <p>
+ * Usage: java breakthrough.GameServer [--port 2022] [--locks locks.txt] [--max-sessions 1000] [--max-resident 100]
+ * [--spill-dir tmpdir] [--save-dir saves] [--metrics-port n] [--lock-selection uniform] [--hint-ms 50] [--hint-threads n]
+ * <br>
+ * The lock selection is one of the modes of {@link LockSelector#create(String, int, LockDifficultyTable)}, e.g.
+ * ramp,no-repeat. Modes other than uniform need the lock file's difficulty table, see {@link LockEvaluator}.
+ * <br>
+ * Games are spilled to a new directory of this server's own, made in the spill directory, see {@link SessionCache}.
+ * <br>
+ * Games are saved to another new directory of this server's own, made in the save directory, one file per session,
+ * see {@link GameSession}. The saves are kept when the server stops.
+ * <br>
+ * Every session shares one {@link HintEngine}, which searches for the given time with the given number of threads.
+ * <br>
+ * The {@link EngineMetrics} are always registered with JMX, and are served for Prometheus if a metrics port is given
+ */
+public class GameServer {
+    public static final int DEFAULT_PORT = 2022;
+    private static final long SESSION_STACK_SIZE = 256 * 1024;
+    // The client only sends short answers to prompts, so the reader holds a few lines at most
+    private static final int LINE_BUFFER_SIZE = 256;
+    // The bytes the socket's character encoder and decoder hold, rather than the usual 8 KB each
+    private static final int CODER_BUFFER_SIZE = 512;
+    // The most input left over at the end of a game which is read and dropped before the connection is closed
+    private static final int MAX_DRAINED_CHARS = 1 << 16;
+    private static final int DRAIN_TIMEOUT_MILLIS = 1000;
+
+    private final List<Lock> library;
+    private final SessionCache cache;
+    private final File saveDirectory;
+    private final int maxSessions;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final AtomicInteger numberOfSessions = new AtomicInteger();
+    private volatile LockSelector lockSelector;
+    private volatile HintEngine hintEngine;
+
+    /**
+     * Constructor for a GameServer, which starts listening straight away
+     *
+     * @param library     the lock library shared by every game, see {@link Breakthrough#getLocks()}
+     * @param port        the port to listen on, 0 for any free port
+     * @param maxSessions the most games which can be played at once
+     * @param cache       the cache which decides which games are kept in memory
+     * @param saveParent  the directory to make the server's save directory in, which is made if it does not exist
+     * @throws IOException if the port can't be listened on or the save directory can't be made
+     */
+    public GameServer(List<Lock> library, int port, int maxSessions, SessionCache cache, File saveParent) throws IOException {
+        this.library = library;
+        this.cache = cache;
+        this.maxSessions = maxSessions;
+        Files.createDirectories(saveParent.toPath());
+        saveDirectory = Files.createTempDirectory(saveParent.toPath(), "breakthrough-saves-").toFile();
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        final AtomicInteger threadNumber = new AtomicInteger();
+        sessions = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(null, r, "session-" + threadNumber.incrementAndGet(), SESSION_STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        String locksFileName = "locks.txt";
+        int port = DEFAULT_PORT;
+        int maxSessions = 1000;
+        int maxResident = 100;
+        File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+        File saveParent = new File("saves");
+        int metricsPort = -1;
+        String lockSelection = null;
+        long hintMillis = HintEngine.DEFAULT_BUDGET_MILLIS;
+        int hintThreads = Runtime.getRuntime().availableProcessors();
+        for (int pos = 0; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--port":
+                    port = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--locks":
+                    locksFileName = args[pos + 1];
+                    break;
+                case "--max-sessions":
+                    maxSessions = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--max-resident":
+                    maxResident = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--spill-dir":
+                    spillDirectory = new File(args[pos + 1]);
+                    break;
+                case "--save-dir":
+                    saveParent = new File(args[pos + 1]);
+                    break;
+                case "--metrics-port":
+                    metricsPort = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--lock-selection":
+                    lockSelection = args[pos + 1];
+                    break;
+                case "--hint-ms":
+                    hintMillis = Long.parseLong(args[pos + 1]);
+                    break;
+                case "--hint-threads":
+                    hintThreads = Integer.parseInt(args[pos + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[pos]);
+                    return;
+            }
+        }
+        Breakthrough loader = new Breakthrough(null, locksFileName);
+        Console.flush();
+        if (loader.getNumberOfLocks() == 0) {
+            System.err.println("No locks in file.");
+            return;
+        }
+        LockSelector selector = null;
+        if (lockSelection != null) {
+            try {
+                // The samplers are built once here and shared by every session
+                selector = LockSelector.create(lockSelection, loader.getNumberOfLocks(), LockDifficultyTable.load(locksFileName));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+        }
+        try {
+            EngineMetrics.registerMBean();
+        } catch (JMException e) {
+            System.err.println("Metrics not registered: " + e.getMessage());
+        }
+        if (metricsPort >= 0) {
+            System.err.println("Serving metrics on port " + EngineMetrics.startEndpoint(metricsPort).getAddress().getPort());
+        }
+        GameServer server = new GameServer(loader.getLocks(), port, maxSessions, new SessionCache(maxResident, spillDirectory),
+                saveParent);
+        server.setLockSelector(selector);
+        server.setHintEngine(new HintEngine(hintThreads, hintMillis, HintEngine.DEFAULT_MAX_NODES));
+        System.err.println("Serving " + loader.getNumberOfLocks() + " locks on port " + server.getPort()
+                + ", saving games to " + server.getSaveDirectory());
+        server.serve();
+    }
+
+    /**
+     * Changes how the next lock is chosen in every game started after this
+     *
+     * @param s the selector, null for every lock to be equally likely
+     */
+    public void setLockSelector(LockSelector s) {
+        lockSelector = s;
+    }
+
+    /**
+     * Changes the engine which works out hints in every game started after this
+     *
+     * @param engine the engine, null for the one shared by the JVM
+     */
+    public void setHintEngine(HintEngine engine) {
+        hintEngine = engine;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the directory the sessions save their games in
+     *
+     * @return the save directory
+     */
+    public File getSaveDirectory() {
+        return saveDirectory;
+    }
+
+    /**
+     * Returns the number of games being played
+     *
+     * @return the number of games
+     */
+    public int getNumberOfSessions() {
+        return numberOfSessions.get();
+    }
+
+    /**
+     * Accepts connections and starts a game for each one, until the server is closed
+     *
+     * @throws IOException if a connection can't be accepted
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // The server has been closed
+                return;
+            }
+            if (numberOfSessions.incrementAndGet() > maxSessions) {
+                numberOfSessions.decrementAndGet();
+                refuse(socket);
+            } else {
+                sessions.execute(() -> playSession(socket));
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, waits a short time for the games being played to finish and for their saves to be written
+     *
+     * @throws IOException if the server can't be closed
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        sessions.shutdown();
+        try {
+            sessions.awaitTermination(1, TimeUnit.SECONDS);
+            // The games saved by the last sessions are written before the server goes
+            SaveWriter.flushShared();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Plays one game with the client on the other end of the connection
+     *
+     * @param socket the connection to the client
+     */
+    private void playSession(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            // Small buffers, as there may be thousands of connections which are mostly idle
+            BufferedReader in = new BufferedReader(Channels.newReader(Channels.newChannel(s.getInputStream()),
+                    StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE), CODER_BUFFER_SIZE), LINE_BUFFER_SIZE);
+            Console.attach(Channels.newWriter(Channels.newChannel(s.getOutputStream()),
+                    StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE), CODER_BUFFER_SIZE));
+            GameSession session = new GameSession(library, cache, lockSelector, hintEngine, saveDirectory);
+            try {
+                session.start();
+                String line;
+                while (!session.isOver()) {
+                    Console.flush();
+                    line = in.readLine();
+                    if (line == null) {
+                        session.endOfInput();
+                    } else {
+                        session.handleLine(line);
+                    }
+                }
+            } finally {
+                session.close();
+                Console.detach();
+            }
+            drain(s, in);
+        } catch (IOException e) {
+            // The client has gone, so there is no one to tell
+        } finally {
+            numberOfSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads and drops any lines the game did not need, e.g. the rest of a script, before the connection is closed
+     * <br>
+     * Closing with input still unread resets the connection, and the client could lose the end of the game
+     *
+     * @param s  the connection to the client, whose output has all been written
+     * @param in the reader of the connection
+     * @throws IOException if the client has gone
+     */
+    private static void drain(Socket s, BufferedReader in) throws IOException {
+        s.shutdownOutput();
+        s.setSoTimeout(DRAIN_TIMEOUT_MILLIS);
+        char[] rest = new char[LINE_BUFFER_SIZE];
+        int drained = 0;
+        int read = 0;
+        while (read >= 0 && drained < MAX_DRAINED_CHARS) {
+            read = in.read(rest);
+            drained += read;
+        }
+    }
+
+    private void refuse(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write(("Server full, try again later" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client has gone, so there is no one to tell
+        }
+    }
+}
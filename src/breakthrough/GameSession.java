@@ -0,0 +1,372 @@
+package breakthrough;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One player's interactive game, driven a line at a time rather than by a thread waiting in {@link Breakthrough#playGame()}
+ * <p>
+ * The session shows the same display and asks the same prompts as {@link Breakthrough#playGame()} with a
+ * {@link ConsolePolicy}, but in between lines nothing is waiting on a stack, so the game can be spilled to disk by the
+ * {@link SessionCache} while the player is idle. It is loaded again when their next line arrives.
+ * <p>
+ * Output goes to the {@link Console} of the thread which hands over the line.
+ * <p>
+ * Each session saves to a file of its own in the save directory, game-ID.txt, which it claims from the
+ * {@link SaveWriter} for as long as it lasts. L at the start of the game loads that file, so sessions never
+ * load or save each other's games.
+ */
+class GameSession {
+    // The prompt the session is waiting for an answer to
+    private static final int SETUP = 0, CHOICE = 1, CARD_CHOICE = 2, DISCARD_OR_PLAY = 3, DIFFICULTY = 4, OVER = 5;
+
+    private final long id;
+    private final List<Lock> library;
+    private final SessionCache cache;
+    private final LockSelector lockSelector;
+    private final HintEngine hintEngine;
+    private final File saveFile;
+    // Held while a line is being handled or the game is being spilled
+    private final ReentrantLock lock = new ReentrantLock();
+    // Null while the game is spilled to disk
+    private Breakthrough game;
+    // The game's last save while the game is spilled, if it may still fail, reported once the game is restored
+    private CompletableFuture<Boolean> spilledSave;
+    private int state;
+    private int cardChoice;
+    private boolean endOfInput;
+    private boolean saveClaimed;
+
+    /**
+     * Constructor for a GameSession
+     *
+     * @param library       the lock library shared by every session
+     * @param cache         the cache which decides which sessions are kept in memory
+     * @param lockSelector  how the next lock is chosen, shared by every session; null for every lock to be equally likely
+     * @param hintEngine    the engine which works out hints, shared by every session; null for the one shared by the JVM
+     * @param saveDirectory the directory the session saves its game in, not shared with the sessions of another cache as their ids repeat
+     */
+    public GameSession(List<Lock> library, SessionCache cache, LockSelector lockSelector, HintEngine hintEngine,
+                       File saveDirectory) {
+        this.library = library;
+        this.cache = cache;
+        this.lockSelector = lockSelector;
+        this.hintEngine = hintEngine;
+        id = cache.newSessionId();
+        saveFile = new File(saveDirectory, "game-" + id + ".txt");
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the file the session's game is loaded from and saved to
+     *
+     * @return the save file
+     */
+    public File getSaveFile() {
+        return saveFile;
+    }
+
+    /**
+     * Returns true once the game is over or the player has stopped sending lines
+     *
+     * @return true if the session is over
+     */
+    public boolean isOver() {
+        return state == OVER;
+    }
+
+    /**
+     * Returns true if the game is in memory rather than spilled to disk
+     *
+     * @return true if the game is in memory
+     */
+    public boolean isResident() {
+        return game != null;
+    }
+
+    /**
+     * Starts the game and asks the first prompt
+     */
+    public void start() {
+        lock.lock();
+        try {
+            game = new Breakthrough(null, library);
+            game.setLockSelector(lockSelector);
+            game.setHintEngine(hintEngine);
+            game.setSaveFile(saveFile.getPath());
+            if (game.getNumberOfLocks() == 0) {
+                // Throws error if there are no locks in the locks file
+                Console.writeLine("No locks in file.");
+                finish();
+                return;
+            }
+            saveClaimed = SaveWriter.getShared().claim(saveFile.toPath());
+            if (!saveClaimed) {
+                Console.writeLine("Save file in use by another game: " + saveFile);
+                finish();
+                return;
+            }
+            game.startInteractive();
+            Console.prompt(Breakthrough.SETUP_PROMPT);
+            state = SETUP;
+            cache.touch(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Answers the prompt the session is waiting on and asks the next one
+     *
+     * @param line the line the player entered
+     */
+    public void handleLine(String line) {
+        lock.lock();
+        try {
+            if (state == OVER) {
+                return;
+            }
+            if (game == null && !restore()) {
+                if (endOfInput) {
+                    Console.writeLine("Game not restored");
+                    finish();
+                } else {
+                    // The spill file is kept, so the game can be loaded when the player answers again
+                    Console.writeLine("Game not restored, please try again");
+                }
+                return;
+            }
+            cache.touch(this);
+            switch (state) {
+                case SETUP:
+                    game.setupGame(line.toUpperCase());
+                    nextTurn();
+                    break;
+                case CHOICE:
+                    handleChoice(line.toUpperCase());
+                    break;
+                case CARD_CHOICE:
+                    handleCardChoice(line);
+                    break;
+                case DISCARD_OR_PLAY:
+                    handleDiscardOrPlay(line.toUpperCase());
+                    break;
+                case DIFFICULTY:
+                    Console.writeLine();
+                    game.apply(Action.fromDifficultyChoice(line));
+                    afterAction();
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finishes the game the way {@link Breakthrough#playGame()} does once its input has run out
+     * <br>
+     * Every prompt still to come in the turn is answered with an empty line
+     */
+    public void endOfInput() {
+        lock.lock();
+        try {
+            endOfInput = true;
+            while (state != OVER) {
+                handleLine("");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the session where it is, e.g. when the connection to the player has been lost
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (state != OVER) {
+                finish();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handleChoice(String choice) {
+        switch (choice) {
+            case "D":
+                // Shows the discard pile
+                Console.writeLine(game.getDiscard().getCardDisplay());
+                game.endStep();
+                nextTurn();
+                break;
+            case "H":
+                // A hint does not use up the turn
+                game.showHint();
+                nextTurn();
+                break;
+            case "S":
+                // Saving does not use up the turn, and the session goes on without waiting for the disk
+                game.saveInBackground();
+                nextTurn();
+                break;
+            case "U":
+                Console.prompt(ConsolePolicy.CARD_CHOICE_PROMPT);
+                state = CARD_CHOICE;
+                break;
+            default:
+                game.endStep();
+                nextTurn();
+                break;
+        }
+    }
+
+    private void handleCardChoice(String choice) {
+        boolean valid;
+        try {
+            cardChoice = Integer.parseInt(choice);
+            valid = cardChoice >= 1 && cardChoice <= game.getHand().getNumberOfCards();
+        } catch (NumberFormatException e) {
+            valid = false;
+        }
+        if (!valid) {
+            cardChoice = 0;
+        }
+        // Asks again until the player enters the position of a card in the hand
+        if (valid || endOfInput) {
+            Console.prompt(ConsolePolicy.DISCARD_OR_PLAY_PROMPT);
+            state = DISCARD_OR_PLAY;
+        } else {
+            Console.prompt(ConsolePolicy.CARD_CHOICE_PROMPT);
+        }
+    }
+
+    private void handleDiscardOrPlay(String discardOrPlay) {
+        if (discardOrPlay.equals("D")) {
+            game.apply(Action.discard(cardChoice));
+        } else if (discardOrPlay.equals("P")) {
+            game.apply(Action.play(cardChoice));
+        } else {
+            game.endStep();
+        }
+        afterAction();
+    }
+
+    /**
+     * Asks about a difficulty card drawn from the deck, as it has to be dealt with before the turn can end
+     */
+    private void afterAction() {
+        if (game.isDifficultyPending()) {
+            game.showDifficulty();
+            Console.prompt(ConsolePolicy.DIFFICULTY_PROMPT);
+            state = DIFFICULTY;
+        } else {
+            nextTurn();
+        }
+    }
+
+    /**
+     * Shows the game and asks the first prompt of the next turn, unless the game is over
+     */
+    private void nextTurn() {
+        if (game.isGameOver() || endOfInput) {
+            finish();
+            return;
+        }
+        game.showGame();
+        Console.writeLine();
+        Console.prompt(ConsolePolicy.CHOICE_PROMPT);
+        state = CHOICE;
+    }
+
+    private void finish() {
+        state = OVER;
+        game = null;
+        cache.remove(this);
+        if (saveClaimed) {
+            SaveWriter.getShared().release(saveFile.toPath());
+            saveClaimed = false;
+        }
+    }
+
+    /**
+     * Writes the game to disk and lets go of it, unless a line is being handled
+     * <br>
+     * A save of the game which may still fail is kept by the session, and reported once the game is loaded again
+     *
+     * @return true if the game is no longer in memory, false if it has to stay
+     */
+    boolean spill() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (game == null) {
+                return true;
+            }
+            File file = cache.getSpillFile(id);
+            boolean written;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(SessionCache.MAGIC);
+                out.writeShort(SessionCache.VERSION);
+                out.writeShort(0);
+                written = game.writeSession(out);
+            } catch (IOException e) {
+                written = false;
+            }
+            if (!written) {
+                file.delete();
+                return false;
+            }
+            spilledSave = game.takeLastSave();
+            game = null;
+            cache.countSpill();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the game back from disk, deleting the spill file only once the game has been loaded
+     *
+     * @return true if the game was loaded successfully, false otherwise
+     */
+    private boolean restore() {
+        File file = cache.getSpillFile(id);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buffer.limit() < SessionCache.HEADER_SIZE || buffer.getInt(0) != SessionCache.MAGIC
+                    || buffer.getShort(4) != SessionCache.VERSION) {
+                return false;
+            }
+            Breakthrough restored = new Breakthrough(null, library);
+            restored.setLockSelector(lockSelector);
+            restored.setHintEngine(hintEngine);
+            restored.setSaveFile(saveFile.getPath());
+            if (!restored.loadSession(buffer, SessionCache.HEADER_SIZE)) {
+                return false;
+            }
+            restored.setLastSave(spilledSave);
+            spilledSave = null;
+            game = restored;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+        file.delete();
+        cache.countRestore();
+        return true;
+    }
+}
@@ -0,0 +1,420 @@
+package breakthrough;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays a corpus of saved games through the rules, across all cores, and checks each one ends where it should
+ * <p>
+ * A case is three files with the same name in one directory:
+ * <br>
+ * NAME.txt, the game to start from, in the format of game1.txt
+ * <br>
+ * NAME.moves, the moves to make, e.g. P1 to play the first card in the hand, D3 to discard the third, K2 to lose
+ * the key in position 2 and F to discard five cards from the deck when a difficulty card is drawn. The script can
+ * start with seed n, the seed of the shuffles and the locks chosen after a lock is solved, 0 if it is left out.
+ * Anything after a # on a line is a comment.
+ * <br>
+ * NAME.expected, the game after the last move, in the format of game1.txt
+ * <p>
+ * A case fails with the smallest list of cards to take out of or put into each collection to get from what was
+ * expected to what the game ended with, along with any difference in the score, the lock and its met flags.
+ * <p>
+ * Usage: java breakthrough.GoldenReplay [--locks locks.txt] [--threads n] [--record false] directory
+ * <br>
+ * --record true writes NAME.expected from the replay rather than checking it, to add cases to the corpus.
+ * The exit status is 1 if any case fails.
+ */
+public class GoldenReplay {
+    private static final int CASES_PER_TASK = 16;
+
+    private final List<Lock> library;
+    private final boolean record;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor for a GoldenReplay
+     *
+     * @param library the locks the games were played with, see {@link Breakthrough#getLocks()}
+     * @param record  true to write the expected games, false to check them
+     * @param threads the number of threads to replay on
+     */
+    public GoldenReplay(List<Lock> library, boolean record, int threads) {
+        this.library = library;
+        this.record = record;
+        pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) {
+        String locksFileName = "locks.txt";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean record = false;
+        int pos = 0;
+        for (; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--locks":
+                    locksFileName = args[pos + 1];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--record":
+                    record = Boolean.parseBoolean(args[pos + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[pos]);
+            }
+        }
+        if (pos != args.length - 1) {
+            System.err.println("Usage: java breakthrough.GoldenReplay [--locks locks.txt] [--threads n] [--record false] directory");
+            return;
+        }
+        List<File> scripts = findScripts(new File(args[pos]));
+        Breakthrough loader = new Breakthrough(null, locksFileName);
+        Console.flush();
+
+        long start = System.nanoTime();
+        GoldenReplay replay = new GoldenReplay(loader.getLocks(), record, threads);
+        String[] failures = replay.run(scripts);
+        replay.shutdown();
+        int failed = 0;
+        for (int count = 0; count < scripts.size(); count++) {
+            if (failures[count] != null) {
+                failed++;
+                System.out.println(getCaseName(scripts.get(count)) + ": FAILED" + System.lineSeparator() + failures[count]);
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "%d cases: %d %s, %d failed in %.1f s", scripts.size(), scripts.size() - failed,
+                record ? "recorded" : "passed", failed, (System.nanoTime() - start) / 1e9));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the move scripts in a directory, in order of name
+     *
+     * @param directory the directory of cases
+     * @return the move scripts, empty if the directory can't be read
+     */
+    static List<File> findScripts(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".moves"));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static String getCaseName(File script) {
+        String path = script.getPath();
+        return path.substring(0, path.length() - ".moves".length());
+    }
+
+    /**
+     * Replays every case
+     *
+     * @param scripts the move scripts of the cases
+     * @return for each case, what went wrong, or null if it ended as expected
+     */
+    public String[] run(List<File> scripts) {
+        String[] failures = new String[scripts.size()];
+        pool.invoke(new ReplayTask(scripts, failures, 0, scripts.size()));
+        return failures;
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Replays one case, on the calling thread
+     *
+     * @param script the move script of the case
+     * @return what went wrong, or null if the game ended as expected
+     */
+    String replay(File script) {
+        String name = getCaseName(script);
+        Breakthrough game = new Breakthrough(null, library);
+        long seed = 0;
+        List<String> moves = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(script.toPath(), StandardCharsets.UTF_8)) {
+                int comment = line.indexOf('#');
+                for (String token : (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+")) {
+                    if (!token.isEmpty()) {
+                        moves.add(token);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return "  moves could not be read: " + e.getMessage();
+        }
+        if (moves.size() >= 2 && moves.get(0).equals("seed")) {
+            try {
+                seed = Long.parseLong(moves.get(1));
+            } catch (NumberFormatException e) {
+                return "  not a seed: " + moves.get(1);
+            }
+            moves = moves.subList(2, moves.size());
+        }
+        game.setSeed(seed);
+        if (!game.loadGame(name + ".txt")) {
+            return "  " + name + ".txt could not be loaded";
+        }
+
+        for (int count = 0; count < moves.size(); count++) {
+            String move = moves.get(count);
+            int action = parseMove(move);
+            String problem;
+            if (action < 0) {
+                problem = "is not a move";
+            } else if (game.isGameOver()) {
+                problem = "comes after the game is over";
+            } else if (game.isDifficultyPending() != (action >= Action.LOSE_KEY)) {
+                problem = game.isDifficultyPending() ? "is not an answer to the difficulty card" : "answers a difficulty card which was not drawn";
+            } else if (action < Action.LOSE_KEY && Action.getPosition(action) > game.getHand().getNumberOfCards()) {
+                problem = "is past the end of the hand";
+            } else {
+                try {
+                    game.apply(action);
+                    continue;
+                } catch (RuntimeException e) {
+                    problem = "threw " + e;
+                }
+            }
+            return "  move " + (count + 1) + " (" + move + ") " + problem;
+        }
+        if (game.isDifficultyPending()) {
+            return "  the moves end waiting for a difficulty card to be dealt with";
+        }
+
+        GameSnapshot actual = GameSnapshot.of(game);
+        File expectedFile = new File(name + ".expected");
+        try {
+            if (record) {
+                Files.write(expectedFile.toPath(), actual.toLines(), StandardCharsets.UTF_8);
+                return null;
+            }
+            List<String> differences = GameSnapshot.read(Files.readAllLines(expectedFile.toPath(), StandardCharsets.UTF_8)).diff(actual);
+            return differences.isEmpty() ? null : "  " + String.join(System.lineSeparator() + "  ", differences);
+        } catch (IOException e) {
+            return "  " + expectedFile + " could not be " + (record ? "written: " : "read: ") + e.getMessage();
+        }
+    }
+
+    /**
+     * Converts a move of a script to an action
+     *
+     * @param move the move e.g. P1
+     * @return the action, see {@link Action}, -1 if it is not a move
+     */
+    static int parseMove(String move) {
+        if (move.equals("F")) {
+            return Action.DISCARD_FIVE;
+        }
+        if (move.length() != 2 || move.charAt(1) < '1' || move.charAt(1) > '5') {
+            return -1;
+        }
+        int pos = move.charAt(1) - '0';
+        switch (move.charAt(0)) {
+            case 'P':
+                return Action.play(pos);
+            case 'D':
+                return Action.discard(pos);
+            case 'K':
+                return Action.loseKey(pos);
+            default:
+                return -1;
+        }
+    }
+
+    private class ReplayTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<File> scripts;
+        private final String[] failures;
+        private final int from;
+        private final int to;
+
+        ReplayTask(List<File> scripts, String[] failures, int from, int to) {
+            this.scripts = scripts;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CASES_PER_TASK) {
+                for (int count = from; count < to; count++) {
+                    failures[count] = replay(scripts.get(count));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ReplayTask(scripts, failures, from, middle), new ReplayTask(scripts, failures, middle, to));
+        }
+    }
+}
+
+/**
+ * A game as it is written in the format of game1.txt, for comparing two games
+ * <p>
+ * Each card is its description and number, e.g. P a 1, so a card which has moved shows up as a difference
+ */
+class GameSnapshot {
+    private static final String[] COLLECTION_NAMES = {"HAND", "SEQUENCE", "DISCARD", "DECK"};
+
+    private final String score;
+    private final String lock;
+    private final String[] met;
+    private final String[][] collections;
+
+    private GameSnapshot(String score, String lock, String[] met, String[][] collections) {
+        this.score = score;
+        this.lock = lock;
+        this.met = met;
+        this.collections = collections;
+    }
+
+    /**
+     * Takes a snapshot of a game
+     *
+     * @param game the game, which must not be waiting for a difficulty card to be dealt with
+     * @return the snapshot
+     */
+    static GameSnapshot of(Breakthrough game) {
+        Lock l = game.getCurrentLock();
+        String[] met = new String[l.getNumberOfChallenges()];
+        for (int count = 0; count < l.getNumberOfChallenges(); count++) {
+            met[count] = l.getChallengeMet(count) ? "Y" : "N";
+        }
+        CardCollection[] fromGame = {game.getHand(), game.getSequence(), game.getDiscard(), game.getDeck()};
+        String[][] collections = new String[fromGame.length][];
+        for (int collection = 0; collection < fromGame.length; collection++) {
+            collections[collection] = new String[fromGame[collection].getNumberOfCards()];
+            for (int pos = 0; pos < collections[collection].length; pos++) {
+                collections[collection][pos] = fromGame[collection].getCardDescriptionAt(pos) + " " + fromGame[collection].getCardNumberAt(pos);
+            }
+        }
+        return new GameSnapshot(Integer.toString(game.getScore()), l.getSaveLine(), met, collections);
+    }
+
+    /**
+     * Reads a snapshot from the lines of a file in the format of game1.txt
+     *
+     * @param lines the lines of the file, missing lines are taken as empty
+     * @return the snapshot
+     */
+    static GameSnapshot read(List<String> lines) {
+        String[] line = new String[7];
+        for (int count = 0; count < line.length; count++) {
+            line[count] = count < lines.size() ? lines.get(count).trim() : "";
+        }
+        String[][] collections = new String[COLLECTION_NAMES.length][];
+        for (int collection = 0; collection < collections.length; collection++) {
+            collections[collection] = split(line[3 + collection], ",");
+        }
+        return new GameSnapshot(line[0], line[1], split(line[2], ";"), collections);
+    }
+
+    private static String[] split(String line, String separator) {
+        return line.isEmpty() ? new String[0] : line.split(separator);
+    }
+
+    /**
+     * Returns the lines of the game in the format of game1.txt
+     *
+     * @return the seven lines
+     */
+    List<String> toLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(score);
+        lines.add(lock);
+        lines.add(String.join(";", met));
+        for (String[] collection : collections) {
+            lines.add(String.join(",", collection));
+        }
+        return lines;
+    }
+
+    /**
+     * Lists the differences between this game, the one expected, and another
+     *
+     * @param actual the game which was played
+     * @return one line per difference, empty if the games are the same
+     */
+    List<String> diff(GameSnapshot actual) {
+        List<String> differences = new ArrayList<>();
+        if (!score.equals(actual.score)) {
+            differences.add("score: expected " + score + ", got " + actual.score);
+        }
+        if (!lock.equals(actual.lock)) {
+            differences.add("lock: expected " + lock + ", got " + actual.lock);
+        }
+        for (int count = 0; count < Math.max(met.length, actual.met.length); count++) {
+            String expectedMet = count < met.length ? met[count] : "missing";
+            String actualMet = count < actual.met.length ? actual.met[count] : "missing";
+            if (!expectedMet.equals(actualMet)) {
+                differences.add("challenge " + (count + 1) + " met: expected " + expectedMet + ", got " + actualMet);
+            }
+        }
+        for (int collection = 0; collection < collections.length; collection++) {
+            String edits = diffCards(collections[collection], actual.collections[collection]);
+            if (edits != null) {
+                differences.add(COLLECTION_NAMES[collection] + ": " + edits);
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Returns the fewest cards to take out of the expected collection and put into it to get the actual one,
+     * from their longest common subsequence
+     * <br>
+     * e.g. -P a 1 at 2, +K b 20 at 4, where the positions are in the expected and actual collections
+     *
+     * @param expected the cards expected
+     * @param actual   the cards the game ended with
+     * @return the edits, null if the collections are the same
+     */
+    static String diffCards(String[] expected, String[] actual) {
+        if (Arrays.equals(expected, actual)) {
+            return null;
+        }
+        // common[i][j] is the length of the longest common subsequence of the cards from i and j on
+        int[][] common = new int[expected.length + 1][actual.length + 1];
+        for (int i = expected.length - 1; i >= 0; i--) {
+            for (int j = actual.length - 1; j >= 0; j--) {
+                common[i][j] = expected[i].equals(actual[j]) ? common[i + 1][j + 1] + 1 : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+        List<String> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < expected.length || j < actual.length) {
+            if (i < expected.length && j < actual.length && expected[i].equals(actual[j])) {
+                i++;
+                j++;
+            } else if (j == actual.length || (i < expected.length && common[i + 1][j] >= common[i][j + 1])) {
+                edits.add("-" + expected[i] + " at " + i);
+                i++;
+            } else {
+                edits.add("+" + actual[j] + " at " + j);
+                j++;
+            }
+        }
+        return String.join(", ", edits);
+    }
+}
@@ -0,0 +1,620 @@
+package breakthrough;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Recommends a move with a Monte Carlo tree search which stops when its time is up, for the in-game hint
+ * <p>
+ * The search sees the game as the player does, as a {@link PlayerPosition} like {@link ExpectimaxSolver} does: the
+ * order of the deck is hidden, so each card drawn is any of the cards left in the deck with equal chance. The score
+ * of a move is the points it leads to before the current lock is solved or the game is lost. Rather than working
+ * through every way the deck can be drawn, which takes too long with a full deck, the search plays out random
+ * draws and spends its time on the moves which have done best so far, so it has an answer whenever it is stopped.
+ * <p>
+ * Each worker thread has its own tree, a table of positions keyed by a hash of the position, and plays out games
+ * from the same position until the time is up. The root statistics of all the trees are added up and the move
+ * tried most is recommended. The trees are kept between hints, so after the player makes a move the positions
+ * they can reach have usually been searched already. A tree is cleared once it holds the most positions allowed.
+ * <p>
+ * An engine can be shared by any number of games, e.g. every session of a {@link GameServer}, as positions from
+ * different locks are told apart by the lock's {@link ChallengeMatcher}. Hints asked for at the same time queue for
+ * the workers, but every hint is answered within its time, with whatever has been searched by then.
+ */
+class HintEngine {
+    public static final long DEFAULT_BUDGET_MILLIS = Long.getLong("breakthrough.hintMillis", 50);
+    public static final int DEFAULT_MAX_NODES = 1 << 14;
+    // How long to wait past the budget for the workers to hand back their results
+    private static final long GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static HintEngine shared;
+
+    private final long budgetNanos;
+    private final Worker[] workers;
+
+    /**
+     * Constructor for a HintEngine, which starts its worker threads straight away
+     *
+     * @param threads        the number of worker threads, each with its own tree
+     * @param budgetMillis   the time to search for each hint
+     * @param maxNodes       the most positions each tree holds before it is cleared
+     */
+    public HintEngine(int threads, long budgetMillis, int maxNodes) {
+        budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(budgetMillis, 1));
+        workers = new Worker[Math.max(threads, 1)];
+        for (int pos = 0; pos < workers.length; pos++) {
+            workers[pos] = new Worker(pos, maxNodes);
+        }
+    }
+
+    /**
+     * Returns the engine shared by every game in the JVM which has not been given one, made the first time it is asked for
+     * <br>
+     * It uses every core and searches for 50 ms, or the time given by -Dbreakthrough.hintMillis
+     *
+     * @return the shared engine
+     */
+    public static synchronized HintEngine getShared() {
+        if (shared == null) {
+            shared = new HintEngine(Runtime.getRuntime().availableProcessors(), DEFAULT_BUDGET_MILLIS, DEFAULT_MAX_NODES);
+        }
+        return shared;
+    }
+
+    public long getBudgetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(budgetNanos);
+    }
+
+    /**
+     * Searches from the game's position until the time is up and returns the best move found
+     *
+     * @param game the game to search from, which is not changed
+     * @return the recommended action, see {@link Action}, or -1 if the game has no legal actions
+     */
+    public int chooseAction(Breakthrough game) {
+        return search(game).getBestAction();
+    }
+
+    /**
+     * Searches from the game's position until the time is up
+     *
+     * @param game the game to search from, which is not changed
+     * @return the legal actions with how often each was tried and its mean score
+     */
+    public HintResult search(Breakthrough game) {
+        int[] actions = game.legalActions();
+        int[] ids = new int[actions.length];
+        SearchPosition root = SearchPosition.of(game, actions, ids);
+        long[] visits = new long[SearchPosition.NUMBER_OF_MOVES];
+        double[] totals = new double[SearchPosition.NUMBER_OF_MOVES];
+        long simulations = 0;
+        if (root != null && actions.length > 1) {
+            long deadline = System.nanoTime() + budgetNanos;
+            List<Future<long[]>> results = new ArrayList<>();
+            for (Worker worker : workers) {
+                results.add(worker.submit(root, deadline));
+            }
+            for (int pos = 0; pos < results.size(); pos++) {
+                Future<long[]> result = results.get(pos);
+                try {
+                    long[] stats = result.get(Math.max(deadline + GRACE_NANOS - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                    simulations += stats[SearchPosition.NUMBER_OF_MOVES * 2];
+                    for (int move = 0; move < SearchPosition.NUMBER_OF_MOVES; move++) {
+                        visits[move] += stats[move];
+                        totals[move] += Double.longBitsToDouble(stats[SearchPosition.NUMBER_OF_MOVES + move]);
+                    }
+                } catch (TimeoutException | CancellationException e) {
+                    // A worker which is still busy with an earlier hint is left out, so the hint is on time
+                    result.cancel(false);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return new HintResult(game, actions, ids, visits, totals, simulations);
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        for (Worker worker : workers) {
+            worker.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A worker thread with its own tree, which is only ever touched on that thread
+     */
+    private static class Worker {
+        private final ExecutorService executor;
+        private final TreeSearch search;
+
+        Worker(final int number, int maxNodes) {
+            search = new TreeSearch(maxNodes, new SplittableRandom(0x5EED ^ number * 0x9E3779B97F4A7C15L));
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "hint-" + number);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        Future<long[]> submit(final SearchPosition root, final long deadline) {
+            return executor.submit(() -> search.run(root, deadline));
+        }
+    }
+}
+
+/**
+ * The moves the {@link HintEngine} looked at from one position, and the one it recommends
+ */
+class HintResult {
+    private final int[] actions;
+    private final long[] actionVisits;
+    private final double[] actionMeans;
+    private final long simulations;
+    private final int bestAction;
+
+    HintResult(Breakthrough game, int[] actions, int[] ids, long[] visits, double[] totals, long simulations) {
+        this.actions = actions;
+        this.simulations = simulations;
+        actionVisits = new long[actions.length];
+        actionMeans = new double[actions.length];
+        int best = -1;
+        for (int pos = 0; pos < actions.length; pos++) {
+            if (ids[pos] >= 0) {
+                actionVisits[pos] = visits[ids[pos]];
+                actionMeans[pos] = visits[ids[pos]] == 0 ? 0 : totals[ids[pos]] / visits[ids[pos]];
+            }
+            // The move tried most, which is the one the search trusts most, with the better mean breaking ties
+            if (best < 0 || actionVisits[pos] > actionVisits[best]
+                    || actionVisits[pos] == actionVisits[best] && actionMeans[pos] > actionMeans[best]) {
+                best = pos;
+            }
+        }
+        if (best >= 0 && actionVisits[best] == 0) {
+            // Nothing was searched in time, e.g. there was only one move, so the greedy bot's move is given
+            bestAction = new GreedyPolicy().chooseAction(game, actions, actions.length);
+        } else {
+            bestAction = best < 0 ? -1 : actions[best];
+        }
+    }
+
+    /**
+     * Returns the recommended action
+     *
+     * @return the action, see {@link Action}, or -1 if there were no legal actions
+     */
+    public int getBestAction() {
+        return bestAction;
+    }
+
+    /**
+     * Returns the legal actions, in the order of {@link Breakthrough#legalActions()}
+     *
+     * @return the actions; it must not be changed
+     */
+    public int[] getActions() {
+        return actions;
+    }
+
+    /**
+     * Returns how often an action was tried, in this search and in earlier ones which reached the same position
+     *
+     * @param pos the position of the action in {@link HintResult#getActions()}
+     * @return the number of playouts which started with the action
+     */
+    public long getVisits(int pos) {
+        return actionVisits[pos];
+    }
+
+    /**
+     * Returns the mean points scored after an action before the lock was solved or the game was lost
+     *
+     * @param pos the position of the action in {@link HintResult#getActions()}
+     * @return the mean score of the playouts which started with the action
+     */
+    public double getMeanScore(int pos) {
+        return actionMeans[pos];
+    }
+
+    /**
+     * Returns the number of playouts made by this search
+     *
+     * @return the number of playouts
+     */
+    public long getSimulations() {
+        return simulations;
+    }
+}
+
+/**
+ * A {@link PlayerPosition} which the search can play moves on, drawing the cards at random
+ * <p>
+ * A move is a kind of action and a card face rather than a place in the hand, as cards with the same face can't be
+ * told apart: the play of each tool card, the discard of each tool card, the loss of each key and discarding five
+ * cards from the deck.
+ */
+final class SearchPosition extends PlayerPosition {
+    private static final int NUMBER_OF_KEYS = DIFFICULTY - FIRST_KEY;
+    static final int PLAY = 0, DISCARD = PLAY + NUMBER_OF_TOOLS, LOSE_KEY = DISCARD + NUMBER_OF_TOOLS,
+            DISCARD_FIVE = LOSE_KEY + NUMBER_OF_KEYS, NUMBER_OF_MOVES = DISCARD_FIVE + 1;
+
+    // True while a difficulty card is waiting, and true if the challenges are checked once it is dealt with
+    boolean difficultyPending, played;
+    boolean over;
+
+    /**
+     * Copies the game's position, and works out the move of each of the game's legal actions
+     *
+     * @param game    the game
+     * @param actions the game's legal actions
+     * @param ids     filled with the move of each action, -1 for an action the search does not know
+     * @return the position, null if it can't be searched e.g. the lock has more than 31 challenges
+     */
+    static SearchPosition of(Breakthrough game, int[] actions, int[] ids) {
+        Arrays.fill(ids, -1);
+        SearchPosition position = new SearchPosition();
+        try {
+            position.load(game);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        position.difficultyPending = game.isDifficultyPending();
+        position.played = game.isChallengeCheckPending();
+        for (int pos = 0; pos < actions.length; pos++) {
+            int place = Action.getPosition(actions[pos]);
+            switch (Action.getKind(actions[pos])) {
+                case Action.PLAY:
+                    ids[pos] = PLAY + indexOf(game.getHand().getCardFaceAt(place - 1));
+                    break;
+                case Action.DISCARD:
+                    ids[pos] = DISCARD + indexOf(game.getHand().getCardFaceAt(place - 1));
+                    break;
+                case Action.LOSE_KEY:
+                    int key = game.getHand().getCardFaceAt(DifficultyCard.getHandPosition(place, game.getPendingCardChoice()));
+                    ids[pos] = LOSE_KEY + (indexOf(key) - FIRST_KEY);
+                    break;
+                default:
+                    ids[pos] = DISCARD_FIVE;
+                    break;
+            }
+        }
+        return position;
+    }
+
+    void copyFrom(SearchPosition other) {
+        super.copyFrom(other);
+        difficultyPending = other.difficultyPending;
+        played = other.played;
+        over = other.over;
+    }
+
+    /**
+     * Returns a hash of everything about the position which can change the result
+     *
+     * @return the hash
+     */
+    long hash() {
+        long h = matchState;
+        for (int pos = 0; pos < FACES.length; pos++) {
+            h = h * 31 + deckCounts[pos];
+            h = h * 31 + handCounts[pos];
+        }
+        h = h * 31 + lastTool;
+        h = h * 0x100000001B3L ^ metFlags;
+        h = h << 2 | (difficultyPending ? 2 : 0) | (played ? 1 : 0);
+        // The finaliser of MurmurHash3, so that positions which differ by little are spread across the table
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+
+    /**
+     * Fills the array with the moves which can be made
+     *
+     * @param moves the array to fill, must hold at least {@link SearchPosition#NUMBER_OF_MOVES} moves
+     * @return the number of moves
+     */
+    int legalMoves(int[] moves) {
+        int count = 0;
+        if (over) {
+            return 0;
+        }
+        if (difficultyPending) {
+            for (int index = FIRST_KEY; index < NUMBER_OF_TOOLS; index++) {
+                if (handCounts[index] > 0) {
+                    moves[count++] = LOSE_KEY + index - FIRST_KEY;
+                }
+            }
+            moves[count++] = DISCARD_FIVE;
+            return count;
+        }
+        for (int index = 0; index < NUMBER_OF_TOOLS; index++) {
+            if (handCounts[index] > 0) {
+                if (canPlay(index)) {
+                    moves[count++] = PLAY + index;
+                }
+                moves[count++] = DISCARD + index;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes a move, drawing any cards at random from the deck
+     *
+     * @param move   the move
+     * @param rNoGen the random number generator to draw with
+     * @return the points scored
+     */
+    int play(int move, SplittableRandom rNoGen) {
+        if (move < DISCARD) {
+            return playCard(move - PLAY) + drawCard(true, rNoGen);
+        }
+        if (move < LOSE_KEY) {
+            removeFromHand(move - DISCARD);
+            return drawCard(false, rNoGen);
+        }
+        difficultyPending = false;
+        if (move < DISCARD_FIVE) {
+            removeFromHand(move - LOSE_KEY + FIRST_KEY);
+        } else {
+            for (int count = getDifficultyDiscards(); count > 0; count--) {
+                removeFromDeck(drawFace(rNoGen));
+            }
+        }
+        return refillHand(played, rNoGen);
+    }
+
+    /**
+     * Returns the move which does the most for the lock straight away, like {@link GreedyPolicy}
+     *
+     * @param moves           the legal moves
+     * @param numberOfMoves   the number of legal moves
+     * @return the move
+     */
+    int greedyMove(int[] moves, int numberOfMoves) {
+        int best = moves[0];
+        int bestValue = Integer.MIN_VALUE;
+        for (int pos = 0; pos < numberOfMoves; pos++) {
+            int move = moves[pos];
+            int value;
+            if (move < DISCARD) {
+                int face = FACES[move - PLAY];
+                int state = matcher.next(matchState, face);
+                value = 100 * matcher.getDepth(state) + 10 + CardCode.getScore(face);
+                for (int match = 0; match < matcher.getNumberOfMatches(state); match++) {
+                    if ((metFlags & 1 << matcher.getMatch(state, match)) == 0) {
+                        value += 10000;
+                        break;
+                    }
+                }
+            } else if (move < LOSE_KEY) {
+                value = -CardCode.getScore(FACES[move - DISCARD]);
+            } else {
+                value = move < DISCARD_FIVE ? 1 : 0;
+            }
+            if (value > bestValue) {
+                best = move;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    private int drawFace(SplittableRandom rNoGen) {
+        int card = rNoGen.nextInt(deckSize);
+        for (int index = 0; ; index++) {
+            card -= deckCounts[index];
+            if (card < 0) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Draws the card which replaces the one just used, which may be a difficulty card the player has to deal with
+     */
+    private int drawCard(boolean played, SplittableRandom rNoGen) {
+        if (deckSize == 0) {
+            return refillHand(played, rNoGen);
+        }
+        int index = drawFace(rNoGen);
+        if (index == DIFFICULTY) {
+            removeFromDeck(index);
+            difficultyPending = true;
+            this.played = played;
+            return 0;
+        }
+        drawToHand(index);
+        return refillHand(played, rNoGen);
+    }
+
+    private int refillHand(boolean played, SplittableRandom rNoGen) {
+        while (needsCard()) {
+            drawToHand(drawFace(rNoGen));
+        }
+        return endStep(played, isLost());
+    }
+
+    /**
+     * Checks the challenges if a card was played, then ends the playout if the lock is solved or the game is lost
+     */
+    private int endStep(boolean played, boolean lost) {
+        int points = 0;
+        if (played) {
+            points = checkChallenges();
+            if (isSolved()) {
+                over = true;
+                return points + POINTS_PER_LOCK;
+            }
+        }
+        if (lost) {
+            over = true;
+        }
+        return points;
+    }
+}
+
+/**
+ * One worker's search tree, a table of the positions it has reached with the statistics of each move from them
+ */
+class TreeSearch {
+    // How far the search looks beyond the best move so far, relative to the best score seen
+    private static final double EXPLORATION = 0.7;
+    // The chance of a playout making a random move rather than the greedy one
+    private static final double RANDOM_MOVE = 0.25;
+
+    private final int maxNodes;
+    private final SplittableRandom rNoGen;
+    private final Map<Long, Node> table = new HashMap<>();
+    private final SearchPosition position = new SearchPosition();
+    private final int[] moves = new int[SearchPosition.NUMBER_OF_MOVES];
+    private Node[] pathNodes = new Node[64];
+    private int[] pathMoves = new int[64];
+    private int[] pointsBefore = new int[64];
+    // The best score of any playout, which the scores are scaled by when choosing a move
+    private double bestScore = 1;
+
+    TreeSearch(int maxNodes, SplittableRandom rNoGen) {
+        this.maxNodes = Math.max(maxNodes, 1);
+        this.rNoGen = rNoGen;
+    }
+
+    /**
+     * Plays out games from the position until the deadline, at least once
+     *
+     * @param root     the position to search from
+     * @param deadline the {@link System#nanoTime()} to stop at
+     * @return the visits of each move from the root, then the total score of each move as double bits, then the number of playouts
+     */
+    long[] run(SearchPosition root, long deadline) {
+        if (table.size() >= maxNodes) {
+            table.clear();
+        }
+        long playouts = 0;
+        do {
+            playout(root);
+            playouts++;
+        } while (System.nanoTime() < deadline);
+        long[] stats = new long[SearchPosition.NUMBER_OF_MOVES * 2 + 1];
+        Node node = table.get(root.hash());
+        if (node != null && node.matcher == root.matcher) {
+            for (int move = 0; move < SearchPosition.NUMBER_OF_MOVES; move++) {
+                stats[move] = node.moveVisits[move];
+                stats[SearchPosition.NUMBER_OF_MOVES + move] = Double.doubleToLongBits(node.moveTotals[move]);
+            }
+        }
+        stats[SearchPosition.NUMBER_OF_MOVES * 2] = playouts;
+        return stats;
+    }
+
+    /**
+     * Walks down the tree choosing moves by their upper confidence bound, adds the first position not in the tree,
+     * then plays on with mostly greedy moves until the lock is solved or the game is lost
+     */
+    private void playout(SearchPosition root) {
+        position.copyFrom(root);
+        int pathLength = 0;
+        int points = 0;
+        boolean inTree = true;
+        int numberOfMoves;
+        while ((numberOfMoves = position.legalMoves(moves)) > 0) {
+            int move;
+            Node node = null;
+            if (inTree) {
+                long key = position.hash();
+                node = table.get(key);
+                if (node == null || node.matcher != position.matcher) {
+                    // The new position is the last one in the tree for this playout
+                    inTree = false;
+                    if (node == null && table.size() < maxNodes) {
+                        node = new Node(position.matcher);
+                        table.put(key, node);
+                    } else {
+                        node = null;
+                    }
+                }
+            }
+            if (node != null) {
+                move = selectMove(node, numberOfMoves);
+                if (pathLength == pathNodes.length) {
+                    pathNodes = Arrays.copyOf(pathNodes, pathLength * 2);
+                    pathMoves = Arrays.copyOf(pathMoves, pathLength * 2);
+                    pointsBefore = Arrays.copyOf(pointsBefore, pathLength * 2);
+                }
+                pathNodes[pathLength] = node;
+                pathMoves[pathLength] = move;
+                pointsBefore[pathLength] = points;
+                pathLength++;
+            } else if (rNoGen.nextDouble() < RANDOM_MOVE) {
+                move = moves[rNoGen.nextInt(numberOfMoves)];
+            } else {
+                move = position.greedyMove(moves, numberOfMoves);
+            }
+            points += position.play(move, rNoGen);
+        }
+        bestScore = Math.max(bestScore, points);
+        for (int pos = 0; pos < pathLength; pos++) {
+            Node node = pathNodes[pos];
+            node.visits++;
+            node.moveVisits[pathMoves[pos]]++;
+            node.moveTotals[pathMoves[pos]] += points - pointsBefore[pos];
+            pathNodes[pos] = null;
+        }
+    }
+
+    /**
+     * Chooses a move not tried yet from the position, or else the one with the highest upper confidence bound
+     */
+    private int selectMove(Node node, int numberOfMoves) {
+        int start = rNoGen.nextInt(numberOfMoves);
+        int best = moves[start];
+        double bestBound = Double.NEGATIVE_INFINITY;
+        double logVisits = Math.log(node.visits + 1);
+        for (int count = 0; count < numberOfMoves; count++) {
+            int move = moves[(start + count) % numberOfMoves];
+            int visits = node.moveVisits[move];
+            if (visits == 0) {
+                return move;
+            }
+            double bound = node.moveTotals[move] / visits / bestScore + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (bound > bestBound) {
+                best = move;
+                bestBound = bound;
+            }
+        }
+        return best;
+    }
+
+    private static final class Node {
+        final ChallengeMatcher matcher;
+        int visits;
+        final int[] moveVisits = new int[SearchPosition.NUMBER_OF_MOVES];
+        final double[] moveTotals = new double[SearchPosition.NUMBER_OF_MOVES];
+
+        Node(ChallengeMatcher matcher) {
+            this.matcher = matcher;
+        }
+    }
+}
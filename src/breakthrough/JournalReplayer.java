@@ -0,0 +1,168 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a {@link MoveJournal} through the engine without any {@link Console} input or output
+ * <p>
+ * To reach a turn the journal is scanned for the last checkpoint at or before it, which is only stepping over bytes,
+ * then the game is loaded from that checkpoint and the decisions after it are applied. A journal cut short by a crash
+ * is replayed up to the last whole entry.
+ * <p>
+ * Usage: java breakthrough.JournalReplayer [--locks locks.txt] [--turn n] journal...
+ * <br>
+ * One line with the result of the replay is printed per journal.
+ */
+public class JournalReplayer {
+    private final ByteBuffer buffer;
+    private final long seed;
+
+    /**
+     * Constructor for a JournalReplayer
+     *
+     * @param buffer the buffer holding the journal
+     * @throws IllegalArgumentException if the buffer does not hold a journal this version can read
+     */
+    public JournalReplayer(ByteBuffer buffer) {
+        if (buffer.limit() < MoveJournal.HEADER_SIZE || buffer.getInt(0) != MoveJournal.MAGIC) {
+            throw new IllegalArgumentException("Not a journal");
+        }
+        int version = buffer.getShort(4);
+        if (version < 1 || version > MoveJournal.VERSION) {
+            throw new IllegalArgumentException("Unsupported journal version " + version);
+        }
+        this.buffer = buffer;
+        seed = buffer.getLong(8);
+    }
+
+    /**
+     * Maps a journal file into memory
+     *
+     * @param fileName the name of the journal file
+     * @return a replayer for the journal
+     * @throws IOException if the file can't be read
+     */
+    public static JournalReplayer map(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            return new JournalReplayer(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String locksFileName = "locks.txt";
+        int turn = Integer.MAX_VALUE;
+        List<String> journals = new ArrayList<>();
+        for (int pos = 0; pos < args.length; pos++) {
+            if (args[pos].equals("--locks") && pos + 1 < args.length) {
+                pos++;
+                locksFileName = args[pos];
+            } else if (args[pos].equals("--turn") && pos + 1 < args.length) {
+                pos++;
+                turn = Integer.parseInt(args[pos]);
+            } else {
+                journals.add(args[pos]);
+            }
+        }
+        Breakthrough game = new Breakthrough(null, locksFileName);
+        for (String journal : journals) {
+            int reached = map(journal).replay(game, turn);
+            System.out.println(journal + ": turn " + reached + ", " + game.getSummary());
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of whole decisions in the journal
+     *
+     * @return the number of decisions
+     */
+    public int getNumberOfTurns() {
+        int turns = 0;
+        int pos = MoveJournal.HEADER_SIZE;
+        while (pos < buffer.limit()) {
+            if ((buffer.get(pos) & 0xFF) == MoveJournal.CHECKPOINT) {
+                int next = stepOverCheckpoint(pos);
+                if (next < 0) {
+                    break;
+                }
+                pos = next;
+            } else {
+                turns++;
+                pos++;
+            }
+        }
+        return turns;
+    }
+
+    /**
+     * Replays the game up to a turn, or to the end of the journal if it is shorter
+     *
+     * @param game the game to replay into, which must have the same lock library the journal was written with
+     * @param turn the number of decisions to replay
+     * @return the number of decisions replayed
+     * @throws IllegalArgumentException if the journal has no checkpoint to start from
+     */
+    public int replay(Breakthrough game, int turn) {
+        // Finds the last checkpoint at or before the turn
+        int checkpoint = -1;
+        int checkpointTurn = 0;
+        int turns = 0;
+        int pos = MoveJournal.HEADER_SIZE;
+        while (pos < buffer.limit() && turns <= turn) {
+            if ((buffer.get(pos) & 0xFF) == MoveJournal.CHECKPOINT) {
+                int next = stepOverCheckpoint(pos);
+                if (next < 0) {
+                    break;
+                }
+                checkpoint = pos;
+                checkpointTurn = turns;
+                pos = next;
+            } else {
+                turns++;
+                pos++;
+            }
+        }
+        if (checkpoint < 0 || !game.loadCheckpoint(seed, buffer, checkpoint + 9)) {
+            throw new IllegalArgumentException("The journal has no checkpoint to start from");
+        }
+
+        // Applies the decisions after the checkpoint
+        turns = checkpointTurn;
+        pos = stepOverCheckpoint(checkpoint);
+        while (pos < buffer.limit() && turns < turn) {
+            int entry = buffer.get(pos) & 0xFF;
+            if (entry == MoveJournal.CHECKPOINT) {
+                pos = stepOverCheckpoint(pos);
+                if (pos < 0) {
+                    break;
+                }
+            } else {
+                game.apply(entry);
+                turns++;
+                pos++;
+            }
+        }
+        return turns;
+    }
+
+    /**
+     * Returns the position after the checkpoint which starts at the given position
+     *
+     * @return the position after the checkpoint, -1 if the journal is cut short inside it
+     */
+    private int stepOverCheckpoint(int pos) {
+        if (pos + 9 > buffer.limit()) {
+            return -1;
+        }
+        int next = pos + 9 + buffer.getInt(pos + 1);
+        return next <= buffer.limit() ? next : -1;
+    }
+}
@@ -0,0 +1,334 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Estimates how hard each lock in a lock file is by playing many seeded headless games with each policy
+ * <p>
+ * Every game starts with the lock being evaluated and ends when that lock is solved or the player loses.
+ * Games are played in rounds across all cores; once the confidence intervals of the solve rate and the mean score
+ * are narrower than the precision asked for, no more rounds are played for that lock and policy.
+ * <p>
+ * Usage: java breakthrough.LockEvaluator [--locks locks.txt] [--policies random,greedy] [--max-games 100000]
+ * [--precision 0.01] [--threads n] [--seed 0] [--write-table false]
+ * <br>
+ * One CSV row is printed per lock and policy.
+ * <br>
+ * --write-table true also keeps the mean solve rate of each lock over the policies in a {@link LockDifficultyTable}
+ * next to the lock file, for {@link LockSelector}. If the table is already up to date with the lock file, nothing is played.
+ */
+public class LockEvaluator {
+    private static final int ROUND_SIZE = 1024;
+    private static final int GAMES_PER_TASK = 64;
+
+    private final int maxGames;
+    private final double precision;
+    private final long baseSeed;
+    private final ForkJoinPool pool;
+    // Each worker thread has its own game on the shared library, so nothing about a game is ever shared between threads
+    private final ThreadLocal<Breakthrough> games;
+
+    /**
+     * Constructor for a LockEvaluator
+     *
+     * @param library   the locks to evaluate, loaded once and shared by every thread, see {@link Breakthrough#getLocks()}
+     * @param maxGames  the most games to play for each lock and policy
+     * @param precision the half width of the 95% confidence interval of the solve rate to stop at
+     * @param threads   the number of threads to play games on
+     * @param baseSeed  the seed the seed of every game is made from
+     */
+    public LockEvaluator(final List<Lock> library, int maxGames, double precision, int threads, long baseSeed) {
+        this.maxGames = maxGames;
+        this.precision = precision;
+        this.baseSeed = baseSeed;
+        pool = new ForkJoinPool(threads);
+        games = new ThreadLocal<Breakthrough>() {
+            @Override
+            protected Breakthrough initialValue() {
+                return new Breakthrough(null, library);
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        String locksFileName = "locks.txt";
+        List<String> policies = Arrays.asList("random", "greedy");
+        int maxGames = 100000;
+        double precision = 0.01;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 0;
+        boolean writeTable = false;
+        for (int pos = 0; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--locks":
+                    locksFileName = args[pos + 1];
+                    break;
+                case "--policies":
+                    policies = Arrays.asList(args[pos + 1].split(","));
+                    break;
+                case "--max-games":
+                    maxGames = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--precision":
+                    precision = Double.parseDouble(args[pos + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[pos + 1]);
+                    break;
+                case "--write-table":
+                    writeTable = Boolean.parseBoolean(args[pos + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[pos]);
+            }
+        }
+
+        Breakthrough loader = new Breakthrough(null, locksFileName);
+        int numberOfLocks = loader.getNumberOfLocks();
+        if (writeTable) {
+            LockDifficultyTable table = LockDifficultyTable.load(locksFileName);
+            if (table != null && table.getNumberOfLocks() == numberOfLocks) {
+                System.err.println("Difficulty table " + LockDifficultyTable.getFileName(locksFileName) + " is up to date");
+                return;
+            }
+        }
+        LockEvaluator evaluator = new LockEvaluator(loader.getLocks(), maxGames, precision, threads, seed);
+        double[] solveRates = new double[numberOfLocks];
+        System.out.println("lock,policy,games,solve_rate,solve_low,solve_high,mean_score,score_low,score_high,p10_score,p50_score,p90_score,mean_cards");
+        for (int lockNumber = 0; lockNumber < numberOfLocks; lockNumber++) {
+            for (String policy : policies) {
+                LockStats stats = evaluator.evaluate(lockNumber, policy);
+                double[] solve = stats.getSolveInterval();
+                System.out.println(String.format(Locale.ROOT, "%d,%s,%d,%.4f,%.4f,%.4f,%.3f,%.3f,%.3f,%d,%d,%d,%.3f",
+                        lockNumber, policy, stats.getGames(), stats.getSolveRate(), solve[0], solve[1],
+                        stats.getMeanScore(), stats.getMeanScore() - stats.getScoreHalfWidth(), stats.getMeanScore() + stats.getScoreHalfWidth(),
+                        stats.getPercentileScore(0.1), stats.getPercentileScore(0.5), stats.getPercentileScore(0.9), stats.getMeanCardsUsed()));
+                solveRates[lockNumber] += stats.getSolveRate() / policies.size();
+            }
+        }
+        evaluator.shutdown();
+        if (writeTable) {
+            writeTable(locksFileName, solveRates);
+        }
+    }
+
+    /**
+     * Keeps the solve rates next to the lock file, for {@link LockSelector}
+     *
+     * @param locksFileName the lock file which was evaluated
+     * @param solveRates    the solve rate of each lock
+     */
+    private static void writeTable(String locksFileName, double[] solveRates) {
+        String tableFileName = LockDifficultyTable.getFileName(locksFileName);
+        try {
+            LockDifficultyTable table = new LockDifficultyTable(LockDifficultyTable.fingerprint(locksFileName), solveRates);
+            if (table.write(locksFileName)) {
+                System.err.println("Difficulty table written to " + tableFileName);
+                return;
+            }
+        } catch (IOException e) {
+            // Reported below
+        }
+        System.err.println("Difficulty table not written to " + tableFileName);
+    }
+
+    /**
+     * Plays rounds of games with the lock and policy until the results are precise enough or the most games are played
+     *
+     * @param lockNumber the position of the lock in the lock file
+     * @param policy     the name of the policy, see {@link ActionPolicy#create(String, SplittableRandom)}
+     * @return the results of all the games played
+     */
+    public LockStats evaluate(int lockNumber, String policy) {
+        LockStats stats = new LockStats();
+        while (stats.getGames() < maxGames) {
+            int from = stats.getGames();
+            int to = Math.min(maxGames, from + ROUND_SIZE);
+            stats.merge(pool.invoke(new EvaluationTask(lockNumber, policy, from, to)));
+            if (stats.getSolveHalfWidth() <= precision && stats.getScoreHalfWidth() <= precision * Math.max(1, stats.getMeanScore())) {
+                break;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Plays one game, on the calling thread, and adds its result to the stats
+     * <p>
+     * The seed depends only on the lock and the game number, so every policy is dealt the same games
+     */
+    private void playGame(int lockNumber, String policy, int gameNumber, LockStats stats) {
+        SplittableRandom stream = new SplittableRandom(baseSeed ^ (lockNumber * 0x9E3779B97F4A7C15L + gameNumber));
+        Breakthrough game = games.get();
+        game.setPolicy(ActionPolicy.create(policy, stream.split()));
+        game.reset(stream, lockNumber);
+        while (!game.isGameOver() && game.getLocksSolved() == 0) {
+            game.playTurn();
+        }
+        stats.add(game.getLocksSolved() > 0, game.getScore(), game.getCardsUsed());
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private class EvaluationTask extends RecursiveTask<LockStats> {
+        private static final long serialVersionUID = 1L;
+        private final int lockNumber;
+        private final String policy;
+        private final int from;
+        private final int to;
+
+        EvaluationTask(int lockNumber, String policy, int from, int to) {
+            this.lockNumber = lockNumber;
+            this.policy = policy;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LockStats compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                LockStats stats = new LockStats();
+                for (int gameNumber = from; gameNumber < to; gameNumber++) {
+                    playGame(lockNumber, policy, gameNumber, stats);
+                }
+                return stats;
+            }
+            int middle = (from + to) >>> 1;
+            EvaluationTask left = new EvaluationTask(lockNumber, policy, from, middle);
+            left.fork();
+            LockStats stats = new EvaluationTask(lockNumber, policy, middle, to).compute();
+            stats.merge(left.join());
+            return stats;
+        }
+    }
+}
+
+class LockStats {
+    // 95% of a normal distribution is within this many standard deviations of the mean
+    private static final double Z = 1.96;
+    // Scores are small whole numbers so a histogram gives exact percentiles without keeping every score
+    private static final int MAX_SCORE = 1023;
+    private final long[] scoreCounts = new long[MAX_SCORE + 1];
+    private int games;
+    private int solved;
+    private double sumScore;
+    private double sumSquaredScore;
+    private long sumCardsUsed;
+
+    /**
+     * Adds the result of one game
+     *
+     * @param lockSolved true if the lock was solved
+     * @param score      the score at the end of the game
+     * @param cardsUsed  the number of cards played or discarded
+     */
+    public void add(boolean lockSolved, int score, int cardsUsed) {
+        games++;
+        if (lockSolved) {
+            solved++;
+        }
+        sumScore += score;
+        sumSquaredScore += (double) score * score;
+        sumCardsUsed += cardsUsed;
+        scoreCounts[Math.min(Math.max(score, 0), MAX_SCORE)]++;
+    }
+
+    /**
+     * Adds the results of other games
+     *
+     * @param other the results to add
+     */
+    public void merge(LockStats other) {
+        games += other.games;
+        solved += other.solved;
+        sumScore += other.sumScore;
+        sumSquaredScore += other.sumSquaredScore;
+        sumCardsUsed += other.sumCardsUsed;
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            scoreCounts[score] += other.scoreCounts[score];
+        }
+    }
+
+    public int getGames() {
+        return games;
+    }
+
+    public double getSolveRate() {
+        return games == 0 ? 0 : (double) solved / games;
+    }
+
+    /**
+     * Returns the 95% Wilson score interval of the solve rate, which stays sensible when the rate is near 0 or 1
+     *
+     * @return the lower and upper bounds of the interval
+     */
+    public double[] getSolveInterval() {
+        if (games == 0) {
+            return new double[]{0, 1};
+        }
+        double p = getSolveRate();
+        double denominator = 1 + Z * Z / games;
+        double centre = (p + Z * Z / (2 * games)) / denominator;
+        double halfWidth = Z * Math.sqrt(p * (1 - p) / games + Z * Z / (4.0 * games * games)) / denominator;
+        return new double[]{Math.max(0, centre - halfWidth), Math.min(1, centre + halfWidth)};
+    }
+
+    public double getSolveHalfWidth() {
+        double[] interval = getSolveInterval();
+        return (interval[1] - interval[0]) / 2;
+    }
+
+    public double getMeanScore() {
+        return games == 0 ? 0 : sumScore / games;
+    }
+
+    /**
+     * Returns the half width of the 95% confidence interval of the mean score
+     *
+     * @return the half width of the interval
+     */
+    public double getScoreHalfWidth() {
+        if (games < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = getMeanScore();
+        double variance = Math.max(0, (sumSquaredScore - games * mean * mean) / (games - 1));
+        return Z * Math.sqrt(variance / games);
+    }
+
+    /**
+     * Returns the score which the given fraction of games scored no more than
+     *
+     * @param fraction the fraction of games, e.g. 0.5 for the median
+     * @return the score
+     */
+    public int getPercentileScore(double fraction) {
+        long target = (long) Math.ceil(fraction * games);
+        long seen = 0;
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            seen += scoreCounts[score];
+            if (seen >= Math.max(1, target)) {
+                return score;
+            }
+        }
+        return MAX_SCORE;
+    }
+
+    public double getMeanCardsUsed() {
+        return games == 0 ? 0 : (double) sumCardsUsed / games;
+    }
+}
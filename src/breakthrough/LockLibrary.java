@@ -0,0 +1,124 @@
+package breakthrough;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of locks which can answer questions about its locks by position, without every lock having to be in memory
+ */
+interface LockLibrary {
+    /**
+     * Returns the number of challenges in a lock
+     *
+     * @param lockNo the position of the lock in the library
+     * @return the number of challenges
+     */
+    int getNumberOfChallenges(int lockNo);
+
+    /**
+     * Returns the condition of a challenge as card faces
+     *
+     * @param lockNo      the position of the lock in the library
+     * @param challengeNo the position of the challenge in the lock
+     * @return the faces in the condition, -1 for anything which is not a card; it must not be changed
+     */
+    int[] getConditionFaces(int lockNo, int challengeNo);
+
+    /**
+     * Returns true if a challenge has been met
+     *
+     * @param lockNo      the position of the lock in the library
+     * @param challengeNo the position of the challenge in the lock
+     * @return true if the challenge has been met
+     */
+    boolean getChallengeMet(int lockNo, int challengeNo);
+}
+
+/**
+ * One session's view of a lock library which is shared by many sessions, e.g. the players of a {@link GameServer}
+ * <p>
+ * The challenges met are part of a {@link Lock}, so a session never hands out the shared locks themselves.
+ * The first time a lock is asked for it is copied with {@link Lock#copy()}, which shares its conditions and
+ * compiled matcher, and the session keeps using that copy. The shared library is only ever read.
+ */
+class SessionLocks extends AbstractList<Lock> implements LockLibrary {
+    private final List<Lock> library;
+    private final Map<Integer, Lock> sessionLocks = new HashMap<>();
+
+    /**
+     * Constructor for a SessionLocks
+     *
+     * @param library the shared library, which must not be changed while any session uses it
+     */
+    public SessionLocks(List<Lock> library) {
+        this.library = library;
+    }
+
+    @Override
+    public int size() {
+        return library.size();
+    }
+
+    /**
+     * Returns this session's copy of a lock, copying it from the library the first time it is asked for
+     *
+     * @param lockNo the position of the lock in the library
+     * @return the lock
+     */
+    @Override
+    public Lock get(int lockNo) {
+        Lock l = sessionLocks.get(lockNo);
+        if (l == null) {
+            l = library.get(lockNo).copy();
+            l.setLibraryNumber(lockNo);
+            sessionLocks.put(lockNo, l);
+        }
+        return l;
+    }
+
+    /**
+     * Returns the position of a lock, which the session's copy carries, see {@link Lock#getLibraryNumber()}
+     *
+     * @param o the lock to find
+     * @return the position of the lock in the library, -1 if it is not one of this session's locks
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Lock)) {
+            return -1;
+        }
+        int lockNo = ((Lock) o).getLibraryNumber();
+        return lockNo >= 0 && sessionLocks.get(lockNo) == o ? lockNo : -1;
+    }
+
+    @Override
+    public int getNumberOfChallenges(int lockNo) {
+        if (library instanceof LockLibrary) {
+            return ((LockLibrary) library).getNumberOfChallenges(lockNo);
+        }
+        return library.get(lockNo).getNumberOfChallenges();
+    }
+
+    @Override
+    public int[] getConditionFaces(int lockNo, int challengeNo) {
+        if (library instanceof LockLibrary) {
+            return ((LockLibrary) library).getConditionFaces(lockNo, challengeNo);
+        }
+        return library.get(lockNo).getConditionFaces(challengeNo);
+    }
+
+    /**
+     * Returns true if a challenge has been met in this session, which can only be so if the lock has been used
+     *
+     * @param lockNo      the position of the lock in the library
+     * @param challengeNo the position of the challenge in the lock
+     * @return true if the challenge has been met
+     */
+    @Override
+    public boolean getChallengeMet(int lockNo, int challengeNo) {
+        Lock l = sessionLocks.get(lockNo);
+        return l != null && l.getChallengeMet(challengeNo);
+    }
+}
@@ -0,0 +1,370 @@
+package breakthrough;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A lock library compiled from a lock file into a memory mapped pack, where each lock is only parsed when it is first used
+ * <p>
+ * The pack starts with a header: the magic number "BTLP", the version, two spare bytes, the number of locks and the
+ * CRC-32 of the index. The index has three ints per lock: where the lock starts in the file, its length and its CRC-32.
+ * A lock is the number of challenges as a short, then for each challenge the number of cards in its condition and the
+ * face of each card, see {@link CardCode#getFace(int)}, with 0xFF for anything which is not a card.
+ * <p>
+ * Opening a pack only reads the header, and only the most recently used locks are held in memory, so loading
+ * takes the same time and space however many locks there are, and so does playing through them. A lock's checksum
+ * is checked when it is parsed.
+ * <br>
+ * A lock which has been let go of is parsed afresh the next time it is asked for, so the challenges met on the
+ * pack's own locks do not last. Games therefore play on copies they hold themselves, from a {@link SessionLocks}
+ * over the pack, which also keeps parsing safe from many threads.
+ * <p>
+ * Usage: java breakthrough.LockPack locks.txt locks.pack compiles a lock file,
+ * java breakthrough.LockPack --verify locks.pack checks every checksum in a pack
+ */
+public class LockPack extends AbstractList<Lock> implements LockLibrary {
+    public static final int MAGIC = 0x42544C50;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int INDEX_ENTRY_SIZE = 12;
+    /**
+     * The most parsed locks kept in memory, set with -Dbreakthrough.cachedLocks
+     */
+    public static final int DEFAULT_CACHED_LOCKS = Integer.getInteger("breakthrough.cachedLocks", 4096);
+    private static final int NOT_A_CARD = 0xFF;
+
+    private final ByteBuffer buffer;
+    private final int numberOfLocks;
+    // In least recently used order, so the first lock is the one to let go of, guarded by itself
+    private final Map<Integer, Lock> parsedLocks;
+
+    /**
+     * Constructor for a LockPack reading from a buffer
+     *
+     * @param buffer the buffer holding the pack
+     * @throws IllegalArgumentException if the buffer does not hold a pack this version can read
+     */
+    public LockPack(ByteBuffer buffer) {
+        this(buffer, DEFAULT_CACHED_LOCKS);
+    }
+
+    /**
+     * Constructor for a LockPack reading from a buffer
+     *
+     * @param buffer      the buffer holding the pack
+     * @param cachedLocks the most parsed locks to keep in memory
+     * @throws IllegalArgumentException if the buffer does not hold a pack this version can read
+     */
+    public LockPack(ByteBuffer buffer, int cachedLocks) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a lock pack");
+        }
+        int version = buffer.getShort(4);
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported lock pack version " + version);
+        }
+        numberOfLocks = buffer.getInt(8);
+        if (numberOfLocks < 0 || HEADER_SIZE + (long) numberOfLocks * INDEX_ENTRY_SIZE > buffer.limit()) {
+            throw new IllegalArgumentException("The lock pack is cut short");
+        }
+        this.buffer = buffer;
+        final int maxCached = Math.max(cachedLocks, 1);
+        parsedLocks = new LinkedHashMap<Integer, Lock>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Lock> eldest) {
+                return size() > maxCached;
+            }
+        };
+    }
+
+    /**
+     * Maps a pack file into memory
+     *
+     * @param fileName the name of the pack
+     * @return the lock library in the pack
+     * @throws IOException if the file can't be read
+     */
+    public static LockPack open(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            return new LockPack(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Returns true if the file starts with the magic number of a pack rather than being a lock file
+     *
+     * @param fileName the name of the file
+     * @return true if the file is a pack
+     */
+    public static boolean isPack(String fileName) {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            return file.length() >= HEADER_SIZE && file.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--verify")) {
+            LockPack pack = open(args[1]);
+            int corrupt = pack.verify();
+            System.out.println(args[1] + ": " + pack.size() + " locks, " + (corrupt < 0 ? "all checksums match" : "lock " + corrupt + " is corrupt"));
+        } else if (args.length == 2) {
+            int count = compile(args[0], args[1]);
+            System.out.println(args[1] + ": " + count + " locks");
+        } else {
+            System.out.println("Usage: LockPack locks.txt locks.pack | LockPack --verify locks.pack");
+        }
+    }
+
+    /**
+     * Compiles a lock file, in the format of locks.txt, into a pack
+     * <p>
+     * Each line is split into challenges and conditions the same way as {@link Breakthrough#LoadLocks(String)}
+     *
+     * @param locksFileName the lock file to read
+     * @param packFileName  the pack to write, replacing any file with the same name
+     * @return the number of locks compiled
+     * @throws IOException if a file can't be read or written, or a lock can't be packed
+     */
+    public static int compile(String locksFileName, String packFileName) throws IOException {
+        // The number of locks is needed first as the index comes before the locks
+        int count = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(locksFileName))) {
+            while (in.readLine() != null) {
+                count++;
+            }
+        }
+        long dataStart = HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(packFileName);
+             BufferedReader in = new BufferedReader(new FileReader(locksFileName))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            // Room for the header and the index, which are written once the locks are
+            for (long pos = 0; pos < dataStart; pos++) {
+                out.writeByte(0);
+            }
+            long offset = dataStart;
+            byte[] lock = new byte[256];
+            for (int lockNo = 0; lockNo < count; lockNo++) {
+                String line = in.readLine();
+                String[] challenges = line.split(";");
+                if (challenges.length > Short.MAX_VALUE) {
+                    throw new IOException("Line " + (lockNo + 1) + ": too many challenges");
+                }
+                int length = 2;
+                lock[0] = (byte) (challenges.length >> 8);
+                lock[1] = (byte) challenges.length;
+                for (String challenge : challenges) {
+                    String[] condition = challenge.split(",");
+                    if (condition.length > 255) {
+                        throw new IOException("Line " + (lockNo + 1) + ": a condition has more than 255 cards");
+                    }
+                    if (length + 1 + condition.length > lock.length) {
+                        lock = Arrays.copyOf(lock, Math.max(lock.length * 2, length + 1 + condition.length));
+                    }
+                    lock[length++] = (byte) condition.length;
+                    for (String card : condition) {
+                        int face = CardCode.getFace(card);
+                        lock[length++] = (byte) (face < 0 ? NOT_A_CARD : face);
+                    }
+                }
+                if (offset + length > Integer.MAX_VALUE) {
+                    throw new IOException("Line " + (lockNo + 1) + ": packs are limited to 2 GB");
+                }
+                crc.reset();
+                crc.update(lock, 0, length);
+                index.putInt((int) offset).putInt(length).putInt((int) crc.getValue());
+                out.write(lock, 0, length);
+                offset += length;
+            }
+            out.flush();
+
+            crc.reset();
+            crc.update(index.array(), 0, index.capacity());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putInt(count).putInt((int) crc.getValue());
+            header.flip();
+            index.flip();
+            FileChannel channel = file.getChannel();
+            channel.write(header, 0);
+            channel.write(index, HEADER_SIZE);
+        }
+        return count;
+    }
+
+    /**
+     * Checks the checksum of the index and of every lock, without parsing any of them
+     *
+     * @return the number of the first corrupt lock, -1 if every checksum matches,
+     * or the number of locks if it is the index which is corrupt
+     */
+    public int verify() {
+        CRC32 crc = new CRC32();
+        ByteBuffer index = slice(HEADER_SIZE, numberOfLocks * INDEX_ENTRY_SIZE);
+        crc.update(index);
+        if ((int) crc.getValue() != buffer.getInt(12)) {
+            return numberOfLocks;
+        }
+        for (int lockNo = 0; lockNo < numberOfLocks; lockNo++) {
+            if (!checksumMatches(lockNo, crc)) {
+                return lockNo;
+            }
+        }
+        return -1;
+    }
+
+    private boolean checksumMatches(int lockNo, CRC32 crc) {
+        int entry = HEADER_SIZE + lockNo * INDEX_ENTRY_SIZE;
+        int offset = buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        if (offset < 0 || length < 2 || (long) offset + length > buffer.limit()) {
+            return false;
+        }
+        crc.reset();
+        crc.update(slice(offset, length));
+        return (int) crc.getValue() == buffer.getInt(entry + 8);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return slice;
+    }
+
+    /**
+     * Returns a lock, parsing it unless it is one of the most recently used
+     *
+     * @param lockNo the position of the lock in the library
+     * @return the lock
+     * @throws IllegalStateException if the lock's checksum does not match
+     */
+    @Override
+    public Lock get(int lockNo) {
+        if (lockNo < 0 || lockNo >= numberOfLocks) {
+            throw new IndexOutOfBoundsException("Index: " + lockNo + ", Size: " + numberOfLocks);
+        }
+        Lock l;
+        synchronized (parsedLocks) {
+            l = parsedLocks.get(lockNo);
+        }
+        if (l == null) {
+            // Parsed without holding the cache, so threads asking for other locks are not held up
+            l = parse(lockNo);
+            synchronized (parsedLocks) {
+                Lock parsed = parsedLocks.putIfAbsent(lockNo, l);
+                if (parsed != null) {
+                    l = parsed;
+                }
+            }
+        }
+        return l;
+    }
+
+    private Lock parse(int lockNo) {
+        if (!checksumMatches(lockNo, new CRC32())) {
+            throw new IllegalStateException("Lock " + lockNo + " in the lock pack is corrupt");
+        }
+        Lock l = new Lock();
+        int pos = getLockOffset(lockNo);
+        int challenges = buffer.getShort(pos);
+        pos += 2;
+        for (int count = 0; count < challenges; count++) {
+            int length = buffer.get(pos) & 0xFF;
+            int[] condition = new int[length];
+            for (int card = 1; card <= length; card++) {
+                int face = buffer.get(pos + card) & 0xFF;
+                condition[card - 1] = face == NOT_A_CARD ? -1 : face;
+            }
+            l.addChallenge(Condition.intern(condition));
+            pos += 1 + length;
+        }
+        l.compile();
+        l.setLibraryNumber(lockNo);
+        return l;
+    }
+
+    private int getLockOffset(int lockNo) {
+        return buffer.getInt(HEADER_SIZE + lockNo * INDEX_ENTRY_SIZE);
+    }
+
+    @Override
+    public int size() {
+        return numberOfLocks;
+    }
+
+    /**
+     * Returns the position a lock was parsed from, which it carries, see {@link Lock#getLibraryNumber()}
+     *
+     * @param o the lock to find
+     * @return the position of the lock in the library, -1 if it was not parsed from a library of this size
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Lock)) {
+            return -1;
+        }
+        int lockNo = ((Lock) o).getLibraryNumber();
+        return lockNo < numberOfLocks ? lockNo : -1;
+    }
+
+    /**
+     * Returns the number of challenges in a lock without parsing it
+     *
+     * @param lockNo the position of the lock in the library
+     * @return the number of challenges
+     */
+    public int getNumberOfChallenges(int lockNo) {
+        return buffer.getShort(getLockOffset(lockNo));
+    }
+
+    /**
+     * Returns the condition of a challenge as card faces without parsing the lock
+     *
+     * @param lockNo      the position of the lock in the library
+     * @param challengeNo the position of the challenge in the lock
+     * @return the faces in the condition, -1 for anything which is not a card
+     */
+    public int[] getConditionFaces(int lockNo, int challengeNo) {
+        int pos = getLockOffset(lockNo) + 2;
+        for (int count = 0; count < challengeNo; count++) {
+            pos += 1 + (buffer.get(pos) & 0xFF);
+        }
+        int[] faces = new int[buffer.get(pos) & 0xFF];
+        for (int card = 0; card < faces.length; card++) {
+            int face = buffer.get(pos + 1 + card) & 0xFF;
+            faces[card] = face == NOT_A_CARD ? -1 : face;
+        }
+        return faces;
+    }
+
+    /**
+     * Returns true if a challenge has been met, which can only be so if the lock is still in memory
+     *
+     * @param lockNo      the position of the lock in the library
+     * @param challengeNo the position of the challenge in the lock
+     * @return true if the challenge has been met
+     */
+    public boolean getChallengeMet(int lockNo, int challengeNo) {
+        Lock l;
+        synchronized (parsedLocks) {
+            l = parsedLocks.get(lockNo);
+        }
+        return l != null && l.getChallengeMet(challengeNo);
+    }
+}
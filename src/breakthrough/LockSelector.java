@@ -0,0 +1,415 @@
+package breakthrough;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Chooses the next lock from the library using how hard each lock is, rather than every lock being equally likely
+ * <p>
+ * The difficulty of each lock is worked out offline by {@link LockEvaluator} and kept next to the lock file in a
+ * {@link LockDifficultyTable}. The samplers are built from the table once, when the library is loaded, and can be
+ * shared by every game playing from that library. Choosing a lock is then O(1) however many locks there are.
+ * <p>
+ * The modes are:
+ * <br>
+ * uniform - every lock is equally likely, as in the original game
+ * <br>
+ * weighted - a lock is chosen in proportion to its solve rate, so locks which are hardly ever solved come up rarely
+ * <br>
+ * ramp - the locks are split into tiers from easiest to hardest, and the player moves up a tier every few locks solved
+ * <p>
+ * Any mode can also be no-repeat, where the lock which has just been solved is never chosen again straight away.
+ * Otherwise the same lock, with all of its challenges still met, can be handed back and is solved again for nothing.
+ * <p>
+ * Every sample takes exactly one step of the game's random number generator, like
+ * {@link CardCollection#randomIndex(java.util.SplittableRandom, int)}, so a game can still be restarted from its seed and the
+ * number of draws. A journal must be replayed with the same selector as it was recorded with.
+ */
+class LockSelector {
+    public static final int UNIFORM = 0, WEIGHTED = 1, RAMP = 2;
+    public static final int DEFAULT_RAMP_TIERS = 3;
+    public static final int DEFAULT_LOCKS_PER_TIER = 2;
+    // Locks which were never solved in the evaluation are still chosen now and again
+    private static final double MIN_WEIGHT = 0.01;
+
+    private final int mode;
+    private final boolean noRepeat;
+    // One sampler for each tier of the ramp, or a single sampler for the other modes
+    private final AliasSampler[] tiers;
+    private final int locksPerTier;
+
+    private LockSelector(int mode, boolean noRepeat, AliasSampler[] tiers, int locksPerTier) {
+        this.mode = mode;
+        this.noRepeat = noRepeat;
+        this.tiers = tiers;
+        this.locksPerTier = locksPerTier;
+    }
+
+    /**
+     * Returns a selector where every lock is equally likely
+     *
+     * @param numberOfLocks the number of locks in the library
+     * @param noRepeat      true if the lock just solved must not be chosen again straight away
+     * @return the selector
+     */
+    public static LockSelector uniform(int numberOfLocks, boolean noRepeat) {
+        int[] lockNumbers = new int[numberOfLocks];
+        double[] weights = new double[numberOfLocks];
+        for (int lockNo = 0; lockNo < numberOfLocks; lockNo++) {
+            lockNumbers[lockNo] = lockNo;
+            weights[lockNo] = 1;
+        }
+        return new LockSelector(UNIFORM, noRepeat, new AliasSampler[]{new AliasSampler(lockNumbers, weights)}, 1);
+    }
+
+    /**
+     * Returns a selector which chooses each lock in proportion to its solve rate
+     *
+     * @param table    the difficulty of each lock in the library
+     * @param noRepeat true if the lock just solved must not be chosen again straight away
+     * @return the selector
+     */
+    public static LockSelector weighted(LockDifficultyTable table, boolean noRepeat) {
+        int numberOfLocks = table.getNumberOfLocks();
+        int[] lockNumbers = new int[numberOfLocks];
+        double[] weights = new double[numberOfLocks];
+        for (int lockNo = 0; lockNo < numberOfLocks; lockNo++) {
+            lockNumbers[lockNo] = lockNo;
+            weights[lockNo] = Math.max(table.getSolveRate(lockNo), MIN_WEIGHT);
+        }
+        return new LockSelector(WEIGHTED, noRepeat, new AliasSampler[]{new AliasSampler(lockNumbers, weights)}, 1);
+    }
+
+    /**
+     * Returns a selector which starts with the easiest locks and moves on to harder ones as locks are solved
+     * <p>
+     * The locks are sorted by solve rate and split into tiers of about the same size. Each lock in a tier is equally likely.
+     *
+     * @param table        the difficulty of each lock in the library
+     * @param numberOfTiers the number of tiers to split the locks into
+     * @param locksPerTier the number of locks to solve before moving up a tier
+     * @param noRepeat     true if the lock just solved must not be chosen again straight away
+     * @return the selector
+     */
+    public static LockSelector ramp(final LockDifficultyTable table, int numberOfTiers, int locksPerTier, boolean noRepeat) {
+        int numberOfLocks = table.getNumberOfLocks();
+        numberOfTiers = Math.max(1, Math.min(numberOfTiers, numberOfLocks));
+        Integer[] byDifficulty = new Integer[numberOfLocks];
+        for (int lockNo = 0; lockNo < numberOfLocks; lockNo++) {
+            byDifficulty[lockNo] = lockNo;
+        }
+        // Easiest first, with ties kept in library order so the tiers are the same every time
+        Arrays.sort(byDifficulty, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(table.getSolveRate(b), table.getSolveRate(a));
+            }
+        });
+        AliasSampler[] tiers = new AliasSampler[numberOfTiers];
+        for (int tier = 0; tier < numberOfTiers; tier++) {
+            int from = (int) ((long) numberOfLocks * tier / numberOfTiers);
+            int to = (int) ((long) numberOfLocks * (tier + 1) / numberOfTiers);
+            int[] lockNumbers = new int[to - from];
+            double[] weights = new double[to - from];
+            for (int pos = from; pos < to; pos++) {
+                lockNumbers[pos - from] = byDifficulty[pos];
+                weights[pos - from] = 1;
+            }
+            tiers[tier] = new AliasSampler(lockNumbers, weights);
+        }
+        return new LockSelector(RAMP, noRepeat, tiers, Math.max(locksPerTier, 1));
+    }
+
+    /**
+     * Returns a selector from its description, e.g. "weighted" or "ramp,no-repeat"
+     * <p>
+     * The weighted and ramp modes need the difficulty table of the lock file, see {@link LockDifficultyTable#load(String)}
+     *
+     * @param description   the mode, uniform, weighted or ramp, optionally followed by ",no-repeat"
+     * @param numberOfLocks the number of locks in the library
+     * @param table         the difficulty table of the library, null if there isn't an up to date one
+     * @return the selector
+     * @throws IllegalArgumentException if the mode is unknown or needs a table which there isn't
+     */
+    public static LockSelector create(String description, int numberOfLocks, LockDifficultyTable table) {
+        String[] parts = description.split(",");
+        boolean noRepeat = false;
+        for (int pos = 1; pos < parts.length; pos++) {
+            if (!parts[pos].equals("no-repeat")) {
+                throw new IllegalArgumentException("Unknown lock selection option: " + parts[pos]);
+            }
+            noRepeat = true;
+        }
+        if (parts[0].equals("uniform")) {
+            return uniform(numberOfLocks, noRepeat);
+        }
+        if (!parts[0].equals("weighted") && !parts[0].equals("ramp")) {
+            throw new IllegalArgumentException("Unknown lock selection: " + parts[0]);
+        }
+        if (table == null || table.getNumberOfLocks() != numberOfLocks) {
+            throw new IllegalArgumentException("No up to date difficulty table for " + parts[0] + " lock selection");
+        }
+        if (parts[0].equals("weighted")) {
+            return weighted(table, noRepeat);
+        }
+        return ramp(table, DEFAULT_RAMP_TIERS, DEFAULT_LOCKS_PER_TIER, noRepeat);
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public boolean isNoRepeat() {
+        return noRepeat;
+    }
+
+    /**
+     * Chooses a lock from one step of the random number generator
+     *
+     * @param random      the next value of the game's random number generator
+     * @param locksSolved the number of locks the player has solved so far
+     * @return the position of the lock in the library
+     */
+    public int select(long random, int locksSolved) {
+        return getTier(locksSolved).sample(random);
+    }
+
+    /**
+     * Returns true if there is more than one lock to choose from, so that the lock just solved can be avoided
+     *
+     * @param locksSolved the number of locks the player has solved so far
+     * @return true if a different lock can be chosen
+     */
+    public boolean canAvoidRepeat(int locksSolved) {
+        return noRepeat && getTier(locksSolved).size() > 1;
+    }
+
+    private AliasSampler getTier(int locksSolved) {
+        return tiers[Math.min(locksSolved / locksPerTier, tiers.length - 1)];
+    }
+}
+
+/**
+ * Walker's alias method, which samples from a fixed discrete distribution in O(1)
+ * <p>
+ * The distribution is split into as many columns as it has items. Each column holds part of the probability of its
+ * own item and the rest of a single other item, its alias. A sample picks a column and then tosses a coin weighted by
+ * the column's threshold. Both come from one 64 bit random value: the high half picks the column, the low half is the coin.
+ */
+class AliasSampler {
+    private static final long ONE = 1L << 32;
+
+    private final int[] items;
+    // The column of the alias of each column
+    private final int[] aliases;
+    // The chance of keeping each column's own item, out of 2^32
+    private final long[] thresholds;
+
+    /**
+     * Builds the sampler with Vose's method, in O(n)
+     *
+     * @param items   the items to sample from
+     * @param weights the weight of each item, which must not be negative and must not all be zero
+     */
+    public AliasSampler(int[] items, double[] weights) {
+        int n = items.length;
+        this.items = items.clone();
+        aliases = new int[n];
+        thresholds = new long[n];
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numberOfSmall = 0, numberOfLarge = 0;
+        for (int column = 0; column < n; column++) {
+            scaled[column] = weights[column] * n / total;
+            if (scaled[column] < 1) {
+                small[numberOfSmall++] = column;
+            } else {
+                large[numberOfLarge++] = column;
+            }
+        }
+        // Each small column is topped up from a large one, which may then become small itself
+        while (numberOfSmall > 0 && numberOfLarge > 0) {
+            int less = small[--numberOfSmall];
+            int more = large[--numberOfLarge];
+            thresholds[less] = Math.round(scaled[less] * ONE);
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[numberOfSmall++] = more;
+            } else {
+                large[numberOfLarge++] = more;
+            }
+        }
+        // Whatever is left is full to within rounding, so always keeps its own item
+        while (numberOfLarge > 0) {
+            int column = large[--numberOfLarge];
+            thresholds[column] = ONE;
+            aliases[column] = column;
+        }
+        while (numberOfSmall > 0) {
+            int column = small[--numberOfSmall];
+            thresholds[column] = ONE;
+            aliases[column] = column;
+        }
+    }
+
+    /**
+     * Samples an item
+     * <br>
+     * With equal weights this is the same as {@link CardCollection#randomIndex(java.util.SplittableRandom, int)}
+     *
+     * @param random a uniformly random 64 bit value
+     * @return the item
+     */
+    public int sample(long random) {
+        int column = (int) ((random >>> 32) * items.length >>> 32);
+        long coin = random & 0xFFFFFFFFL;
+        return items[coin < thresholds[column] ? column : aliases[column]];
+    }
+
+    public int size() {
+        return items.length;
+    }
+}
+
+/**
+ * The solve rate of every lock in a lock file, as measured by {@link LockEvaluator}, kept in a file next to the lock file
+ * <p>
+ * The table file is the lock file's name with its extension changed to .difficulty, e.g. locks.difficulty for
+ * locks.txt. Its first line holds the CRC-32 of the lock file it was made from, so a table is only used while the lock
+ * file is unchanged and only needs to be evaluated again when it is changed. The rest of the file is CSV with a header
+ * line then one line per lock: the position of the lock in the file and its solve rate.
+ */
+class LockDifficultyTable {
+    private static final String FIRST_LINE = "# breakthrough lock difficulty, lock file crc ";
+
+    private final long fingerprint;
+    private final double[] solveRates;
+
+    /**
+     * Constructor for a LockDifficultyTable
+     *
+     * @param fingerprint the fingerprint of the lock file, see {@link LockDifficultyTable#fingerprint(String)}
+     * @param solveRates  the solve rate of each lock, by its position in the lock file
+     */
+    public LockDifficultyTable(long fingerprint, double[] solveRates) {
+        this.fingerprint = fingerprint;
+        this.solveRates = solveRates.clone();
+    }
+
+    /**
+     * Returns the name of the table file kept next to a lock file
+     *
+     * @param locksFileName the lock file
+     * @return the name of its table file
+     */
+    public static String getFileName(String locksFileName) {
+        int dot = locksFileName.lastIndexOf('.');
+        int separator = Math.max(locksFileName.lastIndexOf('/'), locksFileName.lastIndexOf('\\'));
+        String base = dot > separator ? locksFileName.substring(0, dot) : locksFileName;
+        return base + ".difficulty";
+    }
+
+    /**
+     * Returns the CRC-32 of a lock file, which changes whenever the locks in it do
+     *
+     * @param locksFileName the lock file, as text or a {@link LockPack}
+     * @return the CRC-32 of the whole file
+     * @throws IOException if the file can't be read
+     */
+    public static long fingerprint(String locksFileName) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(locksFileName)) {
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                crc.update(chunk, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Loads the table kept next to a lock file, as long as it was made from the lock file as it is now
+     *
+     * @param locksFileName the lock file
+     * @return the table, null if there isn't one, it can't be read or the lock file has changed since it was made
+     */
+    public static LockDifficultyTable load(String locksFileName) {
+        try (BufferedReader in = new BufferedReader(new FileReader(getFileName(locksFileName)))) {
+            String line = in.readLine();
+            if (line == null || !line.startsWith(FIRST_LINE)) {
+                return null;
+            }
+            long fingerprint = Long.parseLong(line.substring(FIRST_LINE.length()), 16);
+            if (fingerprint != fingerprint(locksFileName)) {
+                return null;
+            }
+            // Skips the CSV header
+            in.readLine();
+            double[] solveRates = new double[16];
+            int numberOfLocks = 0;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                int lockNo = Integer.parseInt(line.substring(0, comma));
+                if (lockNo != numberOfLocks) {
+                    return null;
+                }
+                if (numberOfLocks == solveRates.length) {
+                    solveRates = Arrays.copyOf(solveRates, numberOfLocks * 2);
+                }
+                solveRates[numberOfLocks++] = Double.parseDouble(line.substring(comma + 1));
+            }
+            return new LockDifficultyTable(fingerprint, Arrays.copyOf(solveRates, numberOfLocks));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the table next to the lock file it was made from
+     *
+     * @param locksFileName the lock file
+     * @return true if the table was written successfully, false otherwise
+     */
+    public boolean write(String locksFileName) {
+        try (PrintWriter out = new PrintWriter(getFileName(locksFileName))) {
+            out.println(FIRST_LINE + Long.toHexString(fingerprint));
+            out.println("lock,solve_rate");
+            for (int lockNo = 0; lockNo < solveRates.length; lockNo++) {
+                out.println(String.format(Locale.ROOT, "%d,%.4f", lockNo, solveRates[lockNo]));
+            }
+            return !out.checkError();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getNumberOfLocks() {
+        return solveRates.length;
+    }
+
+    public double getSolveRate(int lockNo) {
+        return solveRates[lockNo];
+    }
+}
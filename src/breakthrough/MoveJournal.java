@@ -0,0 +1,106 @@
+package breakthrough;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An append-only record of the decisions made in one game
+ * <p>
+ * The file starts with a header: the magic number "BTJN", the version, two spare bytes and the seed the game
+ * was dealt from. After that each decision is one byte, the action as encoded by {@link Action}. Every so often
+ * a checkpoint of the whole game is written: a byte of 0xFF, the length of the checkpoint, the number of decisions
+ * before it and then the checkpoint itself, see {@link Breakthrough#writeCheckpoint(DataOutputStream)}.
+ * The first checkpoint is the game as it was set up.
+ * <p>
+ * Each entry is flushed as soon as it is written, so after a crash the journal holds every decision up to it.
+ */
+class MoveJournal {
+    public static final int MAGIC = 0x42544A4E;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    /**
+     * The byte which starts a checkpoint, as no action is this big
+     */
+    public static final int CHECKPOINT = 0xFF;
+
+    private final DataOutputStream out;
+    private final int checkpointInterval;
+    private int turn;
+    private int lastCheckpoint;
+
+    /**
+     * Starts a new journal, replacing any file with the same name, and writes the first checkpoint
+     *
+     * @param fileName           the name of the journal file
+     * @param seed               the seed the game was dealt from
+     * @param checkpointInterval the number of decisions between checkpoints
+     * @param game               the game, as it has just been set up
+     * @throws UncheckedIOException if the file can't be written to
+     */
+    public MoveJournal(String fileName, long seed, int checkpointInterval, Breakthrough game) {
+        this.checkpointInterval = Math.max(checkpointInterval, 1);
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeLong(seed);
+            writeCheckpoint(game);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal could not be written to " + fileName, e);
+        }
+    }
+
+    /**
+     * Adds a decision to the journal, followed by a checkpoint if one is due and the game is between turns
+     *
+     * @param game   the game after the decision was applied
+     * @param action the decision, as encoded by {@link Action}
+     * @throws UncheckedIOException if the file can't be written to
+     */
+    public void record(Breakthrough game, int action) {
+        try {
+            out.writeByte(action);
+            turn++;
+            if (turn - lastCheckpoint >= checkpointInterval && !game.isDifficultyPending() && !game.isGameOver()) {
+                writeCheckpoint(game);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal could not be written to", e);
+        }
+    }
+
+    private void writeCheckpoint(Breakthrough game) throws IOException {
+        // The length goes first so that readers can step over the checkpoint
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        game.writeCheckpoint(new DataOutputStream(checkpoint));
+        out.writeByte(CHECKPOINT);
+        out.writeInt(checkpoint.size());
+        out.writeInt(turn);
+        checkpoint.writeTo(out);
+        lastCheckpoint = turn;
+    }
+
+    /**
+     * Returns the number of decisions recorded so far
+     *
+     * @return the number of decisions
+     */
+    public int getNumberOfTurns() {
+        return turn;
+    }
+
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal could not be closed", e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package breakthrough;
+
+import java.util.Arrays;
+
+/**
+ * A position in the current lock as the player sees it, with the steps of the rules which change it
+ * <p>
+ * The order of the deck is hidden from the player, so each card drawn is any of the cards left in the deck with
+ * equal chance. A position is boiled down to what can still change the result: how many cards of each face are in
+ * the deck and in the hand, the state of the lock's matcher (which stands for the end of the sequence that matters),
+ * the tool of the last card played and a bitmask of the challenges met.
+ * <p>
+ * Faces are counted by their place in {@link PlayerPosition#FACES}: the nine tool cards, picks then files then keys,
+ * then the difficulty card. {@link ExpectimaxSolver} goes through every card which can be drawn and the
+ * {@link HintEngine} draws them at random, but both make their moves with the steps here, which follow
+ * {@link Breakthrough}, so the two can't drift apart from each other.
+ */
+class PlayerPosition {
+    public static final int HAND_SIZE = 5;
+    public static final int POINTS_PER_CHALLENGE = 5;
+    public static final int POINTS_PER_LOCK = 10;
+    /**
+     * The most cards discarded from the deck when a difficulty card is dealt with that way
+     */
+    public static final int DIFFICULTY_DISCARDS = 5;
+    /**
+     * The last tool before any card has been played, which any tool can follow
+     */
+    public static final int NO_TOOL = 3;
+    /**
+     * The faces of the tool cards, then the difficulty card
+     */
+    static final int[] FACES = new int[10];
+    /**
+     * The tool cards are the first faces, the keys the last three of them
+     */
+    public static final int NUMBER_OF_TOOLS = 9, FIRST_KEY = 6;
+    /**
+     * The place of the difficulty card in {@link PlayerPosition#FACES}
+     */
+    public static final int DIFFICULTY = 9;
+
+    static {
+        for (int tool = 0; tool < 3; tool++) {
+            for (int kit = 0; kit < 3; kit++) {
+                FACES[tool * 3 + kit] = tool | kit << CardCode.KIT_SHIFT;
+            }
+        }
+        FACES[DIFFICULTY] = CardCode.DIFFICULTY_FLAG;
+    }
+
+    ChallengeMatcher matcher;
+    int allMet;
+    final int[] deckCounts = new int[FACES.length];
+    final int[] handCounts = new int[FACES.length];
+    int deckSize, handSize, matchState, lastTool, metFlags;
+
+    /**
+     * Copies the game's position
+     *
+     * @param game the game
+     * @throws IllegalArgumentException if the position can't be held e.g. the lock has more than 31 challenges
+     */
+    void load(Breakthrough game) {
+        Lock lock = game.getCurrentLock();
+        if (lock.getMatcher() == null) {
+            throw new IllegalArgumentException("The lock has no matcher");
+        }
+        if (lock.getNumberOfChallenges() > 31) {
+            throw new IllegalArgumentException("Locks with more than 31 challenges can't be solved");
+        }
+        matcher = lock.getMatcher();
+        allMet = (int) ((1L << lock.getNumberOfChallenges()) - 1);
+        metFlags = 0;
+        for (int pos = 0; pos < lock.getNumberOfChallenges(); pos++) {
+            if (lock.getChallengeMet(pos)) {
+                metFlags |= 1 << pos;
+            }
+        }
+        Arrays.fill(deckCounts, 0);
+        Arrays.fill(handCounts, 0);
+        countFaces(game.getDeck(), deckCounts);
+        countFaces(game.getHand(), handCounts);
+        deckSize = game.getDeck().getNumberOfCards();
+        handSize = game.getHand().getNumberOfCards();
+        matchState = game.getMatchState();
+        CardCollection sequence = game.getSequence();
+        lastTool = sequence.getNumberOfCards() > 0 ? sequence.getCardFaceAt(sequence.getNumberOfCards() - 1) & CardCode.TOOL_MASK : NO_TOOL;
+    }
+
+    /**
+     * Adds the number of cards of each face in a collection to the counts
+     *
+     * @param cards  the cards to count
+     * @param counts the counts, by the place of the face in {@link PlayerPosition#FACES}
+     * @throws IllegalArgumentException if a card is not a tool or a difficulty card
+     */
+    static void countFaces(CardCollection cards, int[] counts) {
+        for (int pos = 0; pos < cards.getNumberOfCards(); pos++) {
+            int index = indexOf(cards.getCardFaceAt(pos));
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown card: " + cards.getCardDescriptionAt(pos));
+            }
+            counts[index]++;
+        }
+    }
+
+    /**
+     * Returns the place of a face in {@link PlayerPosition#FACES}
+     *
+     * @param face the face of a card
+     * @return the place, -1 if the card is not a tool or a difficulty card
+     */
+    static int indexOf(int face) {
+        if (face == CardCode.DIFFICULTY_FLAG) {
+            return DIFFICULTY;
+        }
+        if (face < 0 || (face & ~(CardCode.TOOL_MASK | CardCode.KIT_MASK << CardCode.KIT_SHIFT)) != 0
+                || (face & CardCode.TOOL_MASK) > 2 || (face >> CardCode.KIT_SHIFT & CardCode.KIT_MASK) > 2) {
+            return -1;
+        }
+        return (face & CardCode.TOOL_MASK) * 3 + (face >> CardCode.KIT_SHIFT & CardCode.KIT_MASK);
+    }
+
+    void copyFrom(PlayerPosition other) {
+        matcher = other.matcher;
+        allMet = other.allMet;
+        System.arraycopy(other.deckCounts, 0, deckCounts, 0, FACES.length);
+        System.arraycopy(other.handCounts, 0, handCounts, 0, FACES.length);
+        deckSize = other.deckSize;
+        handSize = other.handSize;
+        matchState = other.matchState;
+        lastTool = other.lastTool;
+        metFlags = other.metFlags;
+    }
+
+    /**
+     * Returns true if a tool card in the hand can be played, as the same type of tool can't be played twice in a row
+     *
+     * @param index the place of the card's face
+     * @return true if the card can be played
+     */
+    boolean canPlay(int index) {
+        return (FACES[index] & CardCode.TOOL_MASK) != lastTool;
+    }
+
+    /**
+     * Plays a tool card from the hand to the sequence
+     * <br>
+     * The match state and the last tool are not put back by {@link PlayerPosition#addToHand(int)}, the caller keeps them to undo the play
+     *
+     * @param index the place of the card's face
+     * @return the points the card scores
+     */
+    int playCard(int index) {
+        int face = FACES[index];
+        removeFromHand(index);
+        matchState = matcher.next(matchState, face);
+        lastTool = face & CardCode.TOOL_MASK;
+        return CardCode.getScore(face);
+    }
+
+    /**
+     * Takes a card out of the hand, when it is played, discarded or lost to a difficulty card
+     *
+     * @param index the place of the card's face
+     */
+    void removeFromHand(int index) {
+        handCounts[index]--;
+        handSize--;
+    }
+
+    void addToHand(int index) {
+        handCounts[index]++;
+        handSize++;
+    }
+
+    /**
+     * Takes a card out of the deck without putting it in the hand, e.g. a difficulty card or one of five discarded
+     *
+     * @param index the place of the card's face
+     */
+    void removeFromDeck(int index) {
+        deckCounts[index]--;
+        deckSize--;
+    }
+
+    void addToDeck(int index) {
+        deckCounts[index]++;
+        deckSize++;
+    }
+
+    /**
+     * Draws a card from the deck while the hand is being refilled, where a difficulty card is discarded without effect
+     *
+     * @param index the place of the card's face
+     */
+    void drawToHand(int index) {
+        removeFromDeck(index);
+        if (index != DIFFICULTY) {
+            addToHand(index);
+        }
+    }
+
+    /**
+     * Puts back a card drawn with {@link PlayerPosition#drawToHand(int)}
+     *
+     * @param index the place of the card's face
+     */
+    void undoDrawToHand(int index) {
+        if (index != DIFFICULTY) {
+            removeFromHand(index);
+        }
+        addToDeck(index);
+    }
+
+    /**
+     * Returns true while the hand is to be refilled from the deck
+     *
+     * @return true if another card is drawn
+     */
+    boolean needsCard() {
+        return handSize < HAND_SIZE && deckSize > 0;
+    }
+
+    /**
+     * Returns true if the game is lost, once the hand has been refilled as far as it can be
+     *
+     * @return true if the deck has run out before the hand could be filled
+     */
+    boolean isLost() {
+        return deckSize == 0 && handSize < HAND_SIZE;
+    }
+
+    /**
+     * Returns the number of cards discarded from the deck when a difficulty card is dealt with that way
+     *
+     * @return the number of cards
+     */
+    int getDifficultyDiscards() {
+        return Math.min(DIFFICULTY_DISCARDS, deckSize);
+    }
+
+    /**
+     * Checks the challenges at the end of a step in which a card was played
+     * <br>
+     * Only the first unmet challenge is met, as in Lock#checkIfConditionMet(int). The caller keeps the met flags to undo it
+     *
+     * @return the points scored for the challenge, 0 if none was met
+     */
+    int checkChallenges() {
+        for (int pos = 0; pos < matcher.getNumberOfMatches(matchState); pos++) {
+            int challenge = matcher.getMatch(matchState, pos);
+            if ((metFlags & 1 << challenge) == 0) {
+                metFlags |= 1 << challenge;
+                return POINTS_PER_CHALLENGE;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true once every challenge of the lock has been met
+     *
+     * @return true if the lock is solved
+     */
+    boolean isSolved() {
+        return metFlags == allMet;
+    }
+}
@@ -0,0 +1,493 @@
+package breakthrough;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compares bots by having every one of them play the same seeded deals, across all cores
+ * <p>
+ * Each deal is a seed for the shuffles, a seed for the locks and a seed for the bot's own choices. Every bot starts
+ * from the same shuffled deck, with the difficulty cards in the same places, and is given the same locks in the same
+ * order, see {@link Breakthrough#reset(SplittableRandom, SplittableRandom)}. So the difference between two bots' scores
+ * on a deal is down to how they played rather than how lucky they were, and far fewer deals are needed to tell them
+ * apart than with separate random games.
+ * <p>
+ * Usage: java breakthrough.PolicyArena [--locks locks.txt] [--policies random,greedy] [--deals 10000] [--threads n]
+ * [--seed 0] [--lock-selection uniform] [--out arena]
+ * <br>
+ * Two CSV files are written: arena-policies.csv has the score distribution of each bot, and arena-pairs.csv has
+ * the paired differences of each pair of bots with a paired t-test, a sign test and the Holm adjusted p-value.
+ */
+public class PolicyArena {
+    private static final int DEALS_PER_TASK = 64;
+
+    private final List<String> policies;
+    private final long baseSeed;
+    private final ForkJoinPool pool;
+    // Each worker thread has its own game, over its own copies of the shared locks
+    private final ThreadLocal<Breakthrough> games;
+
+    /**
+     * Constructor for a PolicyArena
+     *
+     * @param library      the locks to play with, see {@link Breakthrough#getLocks()}
+     * @param policies     the names of the bots, see {@link ActionPolicy#create(String, SplittableRandom)}
+     * @param lockSelector how the next lock is chosen, null for every lock to be equally likely
+     * @param threads      the number of threads to play games on
+     * @param baseSeed     the seed the seeds of every deal are made from
+     */
+    public PolicyArena(final List<Lock> library, List<String> policies, final LockSelector lockSelector, int threads, long baseSeed) {
+        this.policies = policies;
+        this.baseSeed = baseSeed;
+        pool = new ForkJoinPool(threads);
+        games = new ThreadLocal<Breakthrough>() {
+            @Override
+            protected Breakthrough initialValue() {
+                Breakthrough game = new Breakthrough(null, library);
+                game.setLockSelector(lockSelector);
+                return game;
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        String locksFileName = "locks.txt";
+        List<String> policies = Arrays.asList("random", "greedy");
+        int deals = 10000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 0;
+        String lockSelection = null;
+        String out = "arena";
+        for (int pos = 0; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--locks":
+                    locksFileName = args[pos + 1];
+                    break;
+                case "--policies":
+                    policies = Arrays.asList(args[pos + 1].split(","));
+                    break;
+                case "--deals":
+                    deals = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[pos + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[pos + 1]);
+                    break;
+                case "--lock-selection":
+                    lockSelection = args[pos + 1];
+                    break;
+                case "--out":
+                    out = args[pos + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[pos]);
+            }
+        }
+        for (String policy : policies) {
+            // Fails straight away on a name which is not a bot
+            ActionPolicy.create(policy, new SplittableRandom(0));
+        }
+
+        Breakthrough loader = new Breakthrough(null, locksFileName);
+        Console.flush();
+        if (loader.getNumberOfLocks() == 0) {
+            System.err.println("No locks in file.");
+            return;
+        }
+        LockSelector selector = null;
+        if (lockSelection != null) {
+            selector = LockSelector.create(lockSelection, loader.getNumberOfLocks(), LockDifficultyTable.load(locksFileName));
+        }
+        PolicyArena arena = new PolicyArena(loader.getLocks(), policies, selector, threads, seed);
+        ArenaResults results = arena.play(deals);
+        arena.shutdown();
+        try (PrintWriter policyCsv = new PrintWriter(out + "-policies.csv");
+             PrintWriter pairCsv = new PrintWriter(out + "-pairs.csv")) {
+            results.writePolicies(policyCsv);
+            results.writePairs(pairCsv);
+        } catch (FileNotFoundException e) {
+            System.err.println("Results not written: " + e.getMessage());
+            return;
+        }
+        System.err.println("Wrote " + out + "-policies.csv and " + out + "-pairs.csv");
+    }
+
+    /**
+     * Plays every deal with every bot
+     *
+     * @param numberOfDeals the number of deals
+     * @return the result of every game
+     */
+    public ArenaResults play(int numberOfDeals) {
+        ArenaResults results = new ArenaResults(policies, numberOfDeals);
+        pool.invoke(new DealTask(results, 0, numberOfDeals));
+        return results;
+    }
+
+    /**
+     * Plays one deal with every bot, on the calling thread
+     * <p>
+     * The seeds of a deal are drawn from a generator of its own, seeded from the base seed and the deal number
+     */
+    private void playDeal(int deal, ArenaResults results) {
+        SplittableRandom seeds = new SplittableRandom(baseSeed ^ deal * 0x9E3779B97F4A7C15L);
+        long dealSeed = seeds.nextLong();
+        long lockSeed = seeds.nextLong();
+        long policySeed = seeds.nextLong();
+        Breakthrough game = games.get();
+        for (int policy = 0; policy < policies.size(); policy++) {
+            game.setPolicy(ActionPolicy.create(policies.get(policy), new SplittableRandom(policySeed)));
+            game.reset(new SplittableRandom(dealSeed), new SplittableRandom(lockSeed));
+            while (!game.isGameOver()) {
+                game.playTurn();
+            }
+            results.add(policy, deal, game.getScore(), game.getLocksSolved(), game.getCardsUsed());
+        }
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private class DealTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ArenaResults results;
+        private final int from;
+        private final int to;
+
+        DealTask(ArenaResults results, int from, int to) {
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= DEALS_PER_TASK) {
+                for (int deal = from; deal < to; deal++) {
+                    playDeal(deal, results);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DealTask(results, from, middle), new DealTask(results, middle, to));
+        }
+    }
+}
+
+/**
+ * The result of every game played in a {@link PolicyArena}, by bot and deal
+ * <br>
+ * Each game writes only its own elements, so the games of different deals can be added from different threads
+ */
+class ArenaResults {
+    // 95% of a normal distribution is within this many standard deviations of the mean
+    private static final double Z = 1.96;
+
+    private final List<String> policies;
+    private final int[][] scores;
+    private final int[][] locksSolved;
+    private final int[][] cardsUsed;
+
+    /**
+     * Constructor for an ArenaResults
+     *
+     * @param policies      the names of the bots
+     * @param numberOfDeals the number of deals each bot plays
+     */
+    public ArenaResults(List<String> policies, int numberOfDeals) {
+        this.policies = new ArrayList<>(policies);
+        scores = new int[policies.size()][numberOfDeals];
+        locksSolved = new int[policies.size()][numberOfDeals];
+        cardsUsed = new int[policies.size()][numberOfDeals];
+    }
+
+    /**
+     * Adds the result of one game
+     *
+     * @param policy the position of the bot
+     * @param deal   the number of the deal
+     * @param score  the final score
+     * @param solved the number of locks solved
+     * @param cards  the number of cards played or discarded
+     */
+    public void add(int policy, int deal, int score, int solved, int cards) {
+        scores[policy][deal] = score;
+        locksSolved[policy][deal] = solved;
+        cardsUsed[policy][deal] = cards;
+    }
+
+    public int getNumberOfDeals() {
+        return scores.length == 0 ? 0 : scores[0].length;
+    }
+
+    /**
+     * Returns the final scores of a bot; they must not be changed
+     *
+     * @param policy the position of the bot
+     * @return the score of each deal
+     */
+    public int[] getScores(int policy) {
+        return scores[policy];
+    }
+
+    /**
+     * Writes one row per bot: the mean score with its 95% confidence interval, the quantiles of the score,
+     * and the mean number of locks solved and cards used
+     *
+     * @param out the writer to write the CSV to
+     */
+    public void writePolicies(PrintWriter out) {
+        out.println("policy,games,mean_score,sd_score,mean_low,mean_high,min,p10,p25,p50,p75,p90,max,mean_locks_solved,mean_cards_used");
+        int games = getNumberOfDeals();
+        for (int policy = 0; policy < policies.size(); policy++) {
+            double mean = mean(scores[policy]);
+            double sd = Math.sqrt(variance(scores[policy]));
+            double halfWidth = games < 2 ? Double.NaN : Z * sd / Math.sqrt(games);
+            int[] sorted = scores[policy].clone();
+            Arrays.sort(sorted);
+            out.println(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f",
+                    policies.get(policy), games, mean, sd, mean - halfWidth, mean + halfWidth,
+                    quantile(sorted, 0), quantile(sorted, 0.1), quantile(sorted, 0.25), quantile(sorted, 0.5),
+                    quantile(sorted, 0.75), quantile(sorted, 0.9), quantile(sorted, 1),
+                    mean(locksSolved[policy]), mean(cardsUsed[policy])));
+        }
+    }
+
+    /**
+     * Writes one row per pair of bots, comparing the first bot's score to the second's on the same deals
+     * <p>
+     * The mean difference comes with its 95% confidence interval and a paired t-test. The sign test counts the
+     * deals each bot won and does not assume anything about the shape of the differences. As every pair is tested,
+     * the t-test p-values are also given with Holm's adjustment for testing many pairs. The variance reduction is
+     * how many times more games two separate samples would need for a confidence interval as narrow.
+     *
+     * @param out the writer to write the CSV to
+     */
+    public void writePairs(PrintWriter out) {
+        out.println("policy_a,policy_b,games,mean_difference,sd_difference,difference_low,difference_high,t,p_value,p_holm,"
+                + "wins_a,wins_b,ties,sign_p,variance_reduction");
+        int games = getNumberOfDeals();
+        int numberOfPairs = policies.size() * (policies.size() - 1) / 2;
+        int[] firsts = new int[numberOfPairs];
+        int[] seconds = new int[numberOfPairs];
+        double[] tValues = new double[numberOfPairs];
+        double[] pValues = new double[numberOfPairs];
+        int pair = 0;
+        for (int a = 0; a < policies.size(); a++) {
+            for (int b = a + 1; b < policies.size(); b++) {
+                firsts[pair] = a;
+                seconds[pair] = b;
+                double meanDifference = mean(scores[a]) - mean(scores[b]);
+                double sdDifference = Math.sqrt(differenceVariance(scores[a], scores[b]));
+                double standardError = sdDifference / Math.sqrt(games);
+                tValues[pair] = standardError > 0 ? meanDifference / standardError : meanDifference == 0 ? 0 : Double.POSITIVE_INFINITY;
+                pValues[pair] = games < 2 ? 1 : studentTwoSidedP(tValues[pair], games - 1);
+                pair++;
+            }
+        }
+        double[] holm = holmAdjust(pValues);
+        for (pair = 0; pair < numberOfPairs; pair++) {
+            int[] first = scores[firsts[pair]];
+            int[] second = scores[seconds[pair]];
+            int winsA = 0, winsB = 0;
+            for (int deal = 0; deal < games; deal++) {
+                if (first[deal] > second[deal]) {
+                    winsA++;
+                } else if (first[deal] < second[deal]) {
+                    winsB++;
+                }
+            }
+            double meanDifference = mean(first) - mean(second);
+            double differenceVariance = differenceVariance(first, second);
+            double halfWidth = games < 2 ? Double.NaN : Z * Math.sqrt(differenceVariance / games);
+            double separateVariance = variance(first) + variance(second);
+            out.println(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3g,%.3g,%d,%d,%d,%.3g,%.2f",
+                    policies.get(firsts[pair]), policies.get(seconds[pair]), games, meanDifference, Math.sqrt(differenceVariance),
+                    meanDifference - halfWidth, meanDifference + halfWidth, tValues[pair], pValues[pair], holm[pair],
+                    winsA, winsB, games - winsA - winsB, signTestP(winsA, winsB),
+                    differenceVariance > 0 ? separateVariance / differenceVariance : Double.POSITIVE_INFINITY));
+        }
+    }
+
+    private static double mean(int[] values) {
+        long total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return values.length == 0 ? 0 : (double) total / values.length;
+    }
+
+    private static double variance(int[] values) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double mean = mean(values);
+        double total = 0;
+        for (int value : values) {
+            total += (value - mean) * (value - mean);
+        }
+        return total / (values.length - 1);
+    }
+
+    private static double differenceVariance(int[] first, int[] second) {
+        int[] differences = new int[first.length];
+        for (int pos = 0; pos < first.length; pos++) {
+            differences[pos] = first[pos] - second[pos];
+        }
+        return variance(differences);
+    }
+
+    /**
+     * Returns the value which the given fraction of the sorted values are no more than, by the nearest rank
+     */
+    private static int quantile(int[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.min(Math.max(rank - 1, 0), sorted.length - 1)];
+    }
+
+    /**
+     * Adjusts p-values for testing many hypotheses with Holm's step-down method
+     *
+     * @param pValues the p-values of the tests
+     * @return the adjusted p-values, in the same order
+     */
+    static double[] holmAdjust(double[] pValues) {
+        int m = pValues.length;
+        Integer[] order = new Integer[m];
+        for (int pos = 0; pos < m; pos++) {
+            order[pos] = pos;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(pValues[a], pValues[b]));
+        double[] adjusted = new double[m];
+        double largest = 0;
+        for (int rank = 0; rank < m; rank++) {
+            // Adjusted p-values never go down as the raw ones go up
+            largest = Math.max(largest, Math.min(1, (m - rank) * pValues[order[rank]]));
+            adjusted[order[rank]] = largest;
+        }
+        return adjusted;
+    }
+
+    /**
+     * Returns the two-sided p-value of a t statistic
+     *
+     * @param t                the t statistic
+     * @param degreesOfFreedom the degrees of freedom
+     * @return the chance of a statistic at least as far from zero if the true mean difference is zero
+     */
+    static double studentTwoSidedP(double t, int degreesOfFreedom) {
+        if (Double.isInfinite(t)) {
+            return 0;
+        }
+        double x = degreesOfFreedom / (degreesOfFreedom + t * t);
+        return regularizedBeta(x, degreesOfFreedom / 2.0, 0.5);
+    }
+
+    /**
+     * Returns the exact two-sided p-value of the sign test, the chance of a split at least this uneven between
+     * two bots which are as good as each other
+     *
+     * @param winsA the deals the first bot won
+     * @param winsB the deals the second bot won
+     * @return the p-value
+     */
+    static double signTestP(int winsA, int winsB) {
+        int n = winsA + winsB;
+        int fewer = Math.min(winsA, winsB);
+        if (n == 0) {
+            return 1;
+        }
+        // The terms are added in log space as 2^-n is too small for a double when n is large
+        double logHalfToN = -n * Math.log(2);
+        double tail = 0;
+        for (int k = 0; k <= fewer; k++) {
+            tail += Math.exp(logChoose(n, k) + logHalfToN);
+        }
+        return Math.min(1, 2 * tail);
+    }
+
+    private static double logChoose(int n, int k) {
+        return logGamma(n + 1) - logGamma(k + 1) - logGamma(n - k + 1);
+    }
+
+    /**
+     * Returns the log of the gamma function, by Lanczos' approximation
+     */
+    static double logGamma(double x) {
+        final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Returns the regularized incomplete beta function I_x(a, b), from its continued fraction
+     */
+    static double regularizedBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+        // The continued fraction converges quickly on this side, otherwise the symmetry I_x(a, b) = 1 - I_1-x(b, a) is used
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+    }
+
+    /**
+     * Evaluates the continued fraction of the incomplete beta function with the modified Lentz method
+     */
+    private static double betaContinuedFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double result = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            result *= d * c;
+            numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < 1e-14) {
+                break;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,446 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads every text save in a directory tree into a {@link SaveTable} and prints aggregates of it
+ * <p>
+ * The saves are in the format of game1.txt, see {@link Breakthrough#loadGame(String)}. Each file is read into one
+ * byte buffer and decoded into one char buffer which are reused for every file, and the lines are tokenized where
+ * they are, so reading a save creates no strings and no cards. The lock of a save is found in the library by
+ * a hash of its line, so the lock id is its position in the lock file, -1 if it is not there.
+ * <p>
+ * Usage: java breakthrough.SaveIngest [--locks locks.txt] [--glob *.txt] [--where deck.K=0,met&lt;2]
+ * [--group-by lock] [--mean deck.cards] directory
+ * <br>
+ * The columns are listed in {@link SaveTable#getColumn(String)}. The games matching every condition of --where are
+ * grouped by the values of the --group-by columns, and one CSV row is printed per group with the number of games,
+ * the score and the challenges met, and the mean of each --mean column.
+ */
+public class SaveIngest {
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(4096);
+    private CharBuffer chars = CharBuffer.allocate(4096);
+    // The lines of the locks in the library by the hash of the line, with the positions of the locks
+    private final Map<Integer, List<String>> lockLines = new HashMap<>();
+    private final Map<String, Integer> lockIds = new HashMap<>();
+    private final int[] row = new int[SaveTable.NUMBER_OF_COLUMNS];
+    private final SaveTable table = new SaveTable();
+    private final List<Path> skipped = new ArrayList<>();
+
+    /**
+     * Constructor for a SaveIngest
+     *
+     * <br>
+     * If the library is a {@link LockLibrary}, e.g. a {@link LockPack}, the lines are built from the faces of the
+     * conditions, so no lock is parsed unless one of its conditions holds something which is not a card.
+     *
+     * @param library the locks the saves were played with, see {@link Breakthrough#getLocks()}
+     */
+    public SaveIngest(List<Lock> library) {
+        for (int lockNumber = 0; lockNumber < library.size(); lockNumber++) {
+            String line = library instanceof LockLibrary ? getSaveLine((LockLibrary) library, lockNumber) : null;
+            if (line == null) {
+                line = library.get(lockNumber).getSaveLine();
+            }
+            if (!lockIds.containsKey(line)) {
+                lockIds.put(line, lockNumber);
+                int hash = hash(line.toCharArray(), 0, line.length());
+                List<String> sameHash = lockLines.get(hash);
+                if (sameHash == null) {
+                    sameHash = new ArrayList<>(1);
+                    lockLines.put(hash, sameHash);
+                }
+                sameHash.add(line);
+            }
+        }
+    }
+
+    /**
+     * Returns the challenges of a lock as they are written in a saved game, see {@link Lock#getSaveLine()}
+     *
+     * @param library the locks
+     * @param lockNo  the position of the lock in the library
+     * @return the conditions of the challenges, null if one of them holds something which is not a card
+     */
+    private static String getSaveLine(LockLibrary library, int lockNo) {
+        StringBuilder line = new StringBuilder();
+        for (int challengeNo = 0; challengeNo < library.getNumberOfChallenges(lockNo); challengeNo++) {
+            if (challengeNo > 0) {
+                line.append(';');
+            }
+            int[] faces = library.getConditionFaces(lockNo, challengeNo);
+            for (int card = 0; card < faces.length; card++) {
+                if (faces[card] < 0) {
+                    return null;
+                }
+                if (card > 0) {
+                    line.append(',');
+                }
+                line.append(CardCode.getDescription(faces[card]));
+            }
+        }
+        return line.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String locksFileName = "locks.txt";
+        String glob = "*.txt";
+        String where = "";
+        String groupBy = "";
+        String mean = "";
+        int pos = 0;
+        for (; pos + 1 < args.length; pos += 2) {
+            switch (args[pos]) {
+                case "--locks":
+                    locksFileName = args[pos + 1];
+                    break;
+                case "--glob":
+                    glob = args[pos + 1];
+                    break;
+                case "--where":
+                    where = args[pos + 1];
+                    break;
+                case "--group-by":
+                    groupBy = args[pos + 1];
+                    break;
+                case "--mean":
+                    mean = args[pos + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[pos]);
+            }
+        }
+        if (pos != args.length - 1) {
+            System.err.println("Usage: java breakthrough.SaveIngest [--locks locks.txt] [--glob *.txt] [--where deck.K=0] [--group-by lock] [--mean deck.cards] directory");
+            return;
+        }
+        Breakthrough loader = new Breakthrough(null, locksFileName);
+        Console.flush();
+
+        long start = System.nanoTime();
+        SaveIngest ingest = new SaveIngest(loader.getLocks());
+        ingest.readTree(Paths.get(args[pos]), glob);
+        SaveTable table = ingest.getTable();
+        System.err.println(String.format(Locale.ROOT, "Read %d saves in %.2f s, %d files skipped",
+                table.getNumberOfRows(), (System.nanoTime() - start) / 1e9, ingest.getSkipped().size()));
+        for (int count = 0; count < Math.min(5, ingest.getSkipped().size()); count++) {
+            System.err.println("  not a save: " + ingest.getSkipped().get(count));
+        }
+        table.printAggregates(table.filter(where), groupBy, mean, System.out);
+        System.out.flush();
+    }
+
+    /**
+     * Returns the table of every save read so far; it must not be changed
+     *
+     * @return the table
+     */
+    public SaveTable getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the files which matched but could not be read as saves; it must not be changed
+     *
+     * @return the files skipped
+     */
+    public List<Path> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Reads every file under a directory whose name matches a glob
+     *
+     * @param directory the top of the tree
+     * @param glob      the pattern the names of the saves match, e.g. *.txt
+     * @throws IOException if the tree can't be walked
+     */
+    public void readTree(Path directory, String glob) throws IOException {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && matcher.matches(file.getFileName()) && !read(file, attributes.size())) {
+                    skipped.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                skipped.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Reads one save and adds it to the table
+     *
+     * @param file the save
+     * @param size the size of the file in bytes
+     * @return true if the save was added, false if it could not be read or is not a save
+     */
+    boolean read(Path file, long size) {
+        if (size > Integer.MAX_VALUE / 2) {
+            return false;
+        }
+        if (size > bytes.capacity()) {
+            // The buffers only ever grow, to the size of the biggest file
+            bytes = ByteBuffer.allocateDirect(Integer.highestOneBit((int) size) * 2);
+            chars = CharBuffer.allocate(bytes.capacity());
+        }
+        bytes.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // Keeps reading until the buffer is full or the file ends
+            }
+            if (!bytes.hasRemaining() && channel.position() < channel.size()) {
+                // The file grew after it was listed
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        bytes.flip();
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError() || decoder.flush(chars).isError()) {
+            return false;
+        }
+        chars.flip();
+        if (!parse(chars.array(), chars.limit())) {
+            return false;
+        }
+        table.addRow(row);
+        return true;
+    }
+
+    /**
+     * Tokenizes a save into {@link SaveIngest#row}
+     *
+     * @param text   the characters of the save
+     * @param length the number of characters
+     * @return true if the text is a save, false otherwise
+     */
+    private boolean parse(char[] text, int length) {
+        Arrays.fill(row, 0);
+        int start = 0;
+        for (int line = 0; line < 7; line++) {
+            int end = start;
+            while (end < length && text[end] != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && text[end - 1] == '\r') {
+                end--;
+            }
+            if (start > length || !parseLine(line, text, start, end)) {
+                return false;
+            }
+            start = next;
+        }
+        return true;
+    }
+
+    private boolean parseLine(int line, char[] text, int start, int end) {
+        switch (line) {
+            case 0:
+                return parseScore(text, start, end);
+            case 1:
+                row[SaveTable.LOCK] = findLock(text, start, end);
+                return end > start;
+            case 2:
+                return parseMet(text, start, end);
+            case 3:
+                return parseCards(text, start, end, SaveTable.HAND) >= 0;
+            case 4:
+                // Only the length of the sequence is kept
+                row[SaveTable.SEQUENCE] = parseCards(text, start, end, -1);
+                return row[SaveTable.SEQUENCE] >= 0;
+            case 5:
+                return parseCards(text, start, end, SaveTable.DISCARD) >= 0;
+            default:
+                return parseCards(text, start, end, SaveTable.DECK) >= 0;
+        }
+    }
+
+    private boolean parseScore(char[] text, int start, int end) {
+        int pos = start;
+        boolean negative = pos < end && text[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end || end - pos > 9) {
+            return false;
+        }
+        int score = 0;
+        for (; pos < end; pos++) {
+            if (text[pos] < '0' || text[pos] > '9') {
+                return false;
+            }
+            score = score * 10 + text[pos] - '0';
+        }
+        row[SaveTable.SCORE] = negative ? -score : score;
+        return true;
+    }
+
+    /**
+     * Counts the challenges and those met from a line such as N;Y;N
+     */
+    private boolean parseMet(char[] text, int start, int end) {
+        if (end == start) {
+            return false;
+        }
+        int challenges = 1;
+        int met = 0;
+        for (int pos = start; pos < end; pos++) {
+            if (text[pos] == ';') {
+                challenges++;
+            } else if (text[pos] == 'Y') {
+                met++;
+            }
+        }
+        row[SaveTable.CHALLENGES] = challenges;
+        row[SaveTable.MET] = met;
+        return true;
+    }
+
+    /**
+     * Counts the cards of a line such as P a 1,Dif 34 by tool and kit into the columns of a collection
+     *
+     * @param collection the first column of the collection, -1 to only count the cards
+     * @return the number of cards, -1 if the line is not a list of cards
+     */
+    private int parseCards(char[] text, int start, int end, int collection) {
+        int cards = 0;
+        int pos = start;
+        while (pos < end) {
+            int tokenEnd = pos;
+            while (tokenEnd < end && text[tokenEnd] != ',') {
+                tokenEnd++;
+            }
+            if (tokenEnd == pos && onlyCommas(text, pos, end)) {
+                // Commas at the end of a line are left out, as loadGame does
+                break;
+            }
+            int face = parseFace(text, pos, tokenEnd);
+            if (face < 0) {
+                return -1;
+            }
+            if (collection >= 0) {
+                row[collection + face]++;
+            }
+            cards++;
+            pos = tokenEnd + 1;
+        }
+        return cards;
+    }
+
+    private static boolean onlyCommas(char[] text, int start, int end) {
+        for (int pos = start; pos < end; pos++) {
+            if (text[pos] != ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the column within a collection of a card such as K b 20, see {@link SaveTable#FACES_PER_COLLECTION}
+     *
+     * @return the column, -1 if it is not a card
+     */
+    private static int parseFace(char[] text, int start, int end) {
+        int numberStart;
+        int face;
+        if (end - start >= 5 && text[start] == 'D' && text[start + 1] == 'i' && text[start + 2] == 'f' && text[start + 3] == ' ') {
+            numberStart = start + 4;
+            face = SaveTable.DIFFICULTY;
+        } else if (end - start >= 5 && text[start + 1] == ' ' && text[start + 3] == ' ') {
+            int tool = "PFK".indexOf(text[start]);
+            int kit = "abc".indexOf(text[start + 2]);
+            if (tool < 0 || kit < 0) {
+                return -1;
+            }
+            numberStart = start + 4;
+            face = tool * 3 + kit;
+        } else {
+            return -1;
+        }
+        // The same numbers as setupCardCollectionFromGameFile reads, one or two digits
+        if (end - numberStart > 2) {
+            return -1;
+        }
+        for (int pos = numberStart; pos < end; pos++) {
+            if (text[pos] < '0' || text[pos] > '9') {
+                return -1;
+            }
+        }
+        return face;
+    }
+
+    /**
+     * Returns the position in the library of the lock written on a line, -1 if it is not in the library
+     */
+    private int findLock(char[] text, int start, int end) {
+        List<String> sameHash = lockLines.get(hash(text, start, end));
+        if (sameHash != null) {
+            for (String line : sameHash) {
+                if (regionEquals(line, text, start, end)) {
+                    return lockIds.get(line);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(String line, char[] text, int start, int end) {
+        if (line.length() != end - start) {
+            return false;
+        }
+        for (int pos = 0; pos < line.length(); pos++) {
+            if (line.charAt(pos) != text[start + pos]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the FNV-1a hash of some characters
+     */
+    private static int hash(char[] text, int start, int end) {
+        int hash = FNV_OFFSET;
+        for (int pos = start; pos < end; pos++) {
+            hash = (hash ^ text[pos]) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
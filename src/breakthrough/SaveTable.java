@@ -0,0 +1,332 @@
+package breakthrough;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Saved games as columns of ints, one row per game, filled by {@link SaveIngest}
+ * <p>
+ * Each column is an array of its own so a filter or an aggregate only reads the columns it needs. The hand,
+ * discard pile and deck each have a column per tool and kit, e.g. how many P a cards are in the hand, and one for
+ * difficulty cards. Columns such as the number of keys in the deck are added up from these when they are read.
+ */
+class SaveTable {
+    public static final int SCORE = 0, LOCK = 1, MET = 2, CHALLENGES = 3, SEQUENCE = 4;
+    /**
+     * The columns of a collection: tool * 3 + kit for each tool (P, F, K) and kit (a, b, c), then difficulty cards
+     */
+    public static final int FACES_PER_COLLECTION = 10;
+    public static final int DIFFICULTY = 9;
+    /**
+     * The first column of each collection
+     */
+    public static final int HAND = 5, DISCARD = HAND + FACES_PER_COLLECTION, DECK = DISCARD + FACES_PER_COLLECTION;
+    public static final int NUMBER_OF_COLUMNS = DECK + FACES_PER_COLLECTION;
+    private static final String TOOLS = "PFK";
+    private static final String KITS = "abc";
+    private static final String[] OPERATORS = {"<=", ">=", "!=", "=", "<", ">"};
+
+    private int[][] columns = new int[NUMBER_OF_COLUMNS][1024];
+    private int rows;
+
+    /**
+     * Adds a game to the end of the table
+     *
+     * @param values the value of each column, see {@link SaveTable#NUMBER_OF_COLUMNS}
+     */
+    public void addRow(int[] values) {
+        if (rows == columns[0].length) {
+            for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+                columns[column] = Arrays.copyOf(columns[column], rows * 2);
+            }
+        }
+        for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+            columns[column][rows] = values[column];
+        }
+        rows++;
+    }
+
+    public int getNumberOfRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the value of a stored column in a row
+     *
+     * @param column the column e.g. {@link SaveTable#SCORE}
+     * @param row    the row
+     * @return the value
+     */
+    public int get(int column, int row) {
+        return columns[column][row];
+    }
+
+    /**
+     * Finds a column by name
+     * <p>
+     * The columns are score, lock, met, challenges, unmet and sequence (the number of cards in it), and for each
+     * of hand, discard and deck: the number of cards of a tool and kit e.g. deck.Ka, of a tool e.g. deck.K,
+     * of difficulty cards e.g. deck.Dif, and of all cards e.g. deck.cards
+     *
+     * @param name the name of the column
+     * @return the stored columns which add up to it, where ~column is taken away rather than added
+     * @throws IllegalArgumentException if there is no column with the name
+     */
+    public static int[] getColumn(String name) {
+        switch (name) {
+            case "score":
+                return new int[]{SCORE};
+            case "lock":
+                return new int[]{LOCK};
+            case "met":
+                return new int[]{MET};
+            case "challenges":
+                return new int[]{CHALLENGES};
+            case "unmet":
+                return new int[]{CHALLENGES, ~MET};
+            case "sequence":
+                return new int[]{SEQUENCE};
+        }
+        int dot = name.indexOf('.');
+        int collection = dot < 0 ? -1 : Arrays.asList("hand", "discard", "deck").indexOf(name.substring(0, dot));
+        if (collection < 0) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+        int first = HAND + collection * FACES_PER_COLLECTION;
+        String face = name.substring(dot + 1);
+        if (face.equals("cards")) {
+            int[] all = new int[FACES_PER_COLLECTION];
+            for (int column = 0; column < all.length; column++) {
+                all[column] = first + column;
+            }
+            return all;
+        }
+        if (face.equals("Dif")) {
+            return new int[]{first + DIFFICULTY};
+        }
+        int tool = face.isEmpty() ? -1 : TOOLS.indexOf(face.charAt(0));
+        if (tool >= 0 && face.length() == 1) {
+            return new int[]{first + tool * 3, first + tool * 3 + 1, first + tool * 3 + 2};
+        }
+        int kit = face.length() == 2 ? KITS.indexOf(face.charAt(1)) : -1;
+        if (tool < 0 || kit < 0) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+        return new int[]{first + tool * 3 + kit};
+    }
+
+    /**
+     * Returns the value of a column found by {@link SaveTable#getColumn(String)} in a row
+     *
+     * @param terms the stored columns which add up to the column
+     * @param row   the row
+     * @return the value
+     */
+    public int get(int[] terms, int row) {
+        int value = 0;
+        for (int term : terms) {
+            value += term >= 0 ? columns[term][row] : -columns[~term][row];
+        }
+        return value;
+    }
+
+    /**
+     * Returns the rows which match every condition, e.g. deck.K=0,met&lt;challenges
+     * <br>
+     * Each condition compares a column with a number or another column using =, !=, &lt;, &lt;=, &gt; or &gt;=
+     *
+     * @param where the conditions separated by commas, empty for every row
+     * @return the rows, in order
+     * @throws IllegalArgumentException if a condition can't be understood
+     */
+    public int[] filter(String where) {
+        List<int[]> lefts = new ArrayList<>();
+        List<int[]> rights = new ArrayList<>();
+        List<String> operators = new ArrayList<>();
+        for (String condition : splitList(where)) {
+            String operator = null;
+            int at = -1;
+            for (String candidate : OPERATORS) {
+                at = condition.indexOf(candidate);
+                if (at > 0) {
+                    operator = candidate;
+                    break;
+                }
+            }
+            if (operator == null) {
+                throw new IllegalArgumentException("Not a condition: " + condition);
+            }
+            lefts.add(getColumn(condition.substring(0, at).trim()));
+            String right = condition.substring(at + operator.length()).trim();
+            try {
+                // A number is a constant, otherwise it is another column
+                rights.add(new int[]{Integer.parseInt(right)});
+                operators.add("#" + operator);
+            } catch (NumberFormatException e) {
+                rights.add(getColumn(right));
+                operators.add(operator);
+            }
+        }
+
+        int[] matching = new int[rows];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            boolean matches = true;
+            for (int condition = 0; condition < lefts.size() && matches; condition++) {
+                String operator = operators.get(condition);
+                int left = get(lefts.get(condition), row);
+                int right;
+                if (operator.charAt(0) == '#') {
+                    right = rights.get(condition)[0];
+                    operator = operator.substring(1);
+                } else {
+                    right = get(rights.get(condition), row);
+                }
+                matches = compare(left, operator, right);
+            }
+            if (matches) {
+                matching[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+
+    private static boolean compare(int left, String operator, int right) {
+        switch (operator) {
+            case "<=":
+                return left <= right;
+            case ">=":
+                return left >= right;
+            case "!=":
+                return left != right;
+            case "=":
+                return left == right;
+            case "<":
+                return left < right;
+            default:
+                return left > right;
+        }
+    }
+
+    /**
+     * Prints one CSV row per group of rows with the same values of the group columns, in order of those values
+     * <p>
+     * Each row has the number of games, their share of the whole table, the mean, lowest and highest score,
+     * the mean number of challenges met and the mean of each extra column
+     *
+     * @param selected the rows to aggregate, see {@link SaveTable#filter(String)}
+     * @param groupBy  the names of the columns to group by separated by commas, empty for one group
+     * @param means    the names of extra columns to average separated by commas, may be empty
+     * @param out      the stream to print to
+     * @throws IllegalArgumentException if a column does not exist
+     */
+    public void printAggregates(int[] selected, String groupBy, String means, PrintStream out) {
+        List<String> groupNames = splitList(groupBy);
+        List<String> meanNames = splitList(means);
+        int[][] groupColumns = new int[groupNames.size()][];
+        for (int column = 0; column < groupColumns.length; column++) {
+            groupColumns[column] = getColumn(groupNames.get(column));
+        }
+        int[][] meanColumns = new int[meanNames.size()][];
+        for (int column = 0; column < meanColumns.length; column++) {
+            meanColumns[column] = getColumn(meanNames.get(column));
+        }
+
+        // Each group's totals are: games, score, lowest score, highest score, challenges met, then each extra column
+        Map<GroupKey, long[]> groups = new HashMap<>();
+        GroupKey probe = new GroupKey(new int[groupColumns.length]);
+        for (int row : selected) {
+            for (int column = 0; column < groupColumns.length; column++) {
+                probe.values[column] = get(groupColumns[column], row);
+            }
+            long[] totals = groups.get(probe);
+            if (totals == null) {
+                totals = new long[5 + meanColumns.length];
+                totals[2] = Long.MAX_VALUE;
+                totals[3] = Long.MIN_VALUE;
+                groups.put(new GroupKey(probe.values.clone()), totals);
+            }
+            int score = columns[SCORE][row];
+            totals[0]++;
+            totals[1] += score;
+            totals[2] = Math.min(totals[2], score);
+            totals[3] = Math.max(totals[3], score);
+            totals[4] += columns[MET][row];
+            for (int column = 0; column < meanColumns.length; column++) {
+                totals[5 + column] += get(meanColumns[column], row);
+            }
+        }
+
+        StringBuilder header = new StringBuilder();
+        for (String name : groupNames) {
+            header.append(name).append(',');
+        }
+        header.append("games,share,mean_score,min_score,max_score,mean_met");
+        for (String name : meanNames) {
+            header.append(",mean_").append(name);
+        }
+        out.println(header);
+        List<GroupKey> keys = new ArrayList<>(groups.keySet());
+        keys.sort(null);
+        for (GroupKey key : keys) {
+            long[] totals = groups.get(key);
+            StringBuilder line = new StringBuilder();
+            for (int value : key.values) {
+                line.append(value).append(',');
+            }
+            double games = totals[0];
+            line.append(totals[0]).append(String.format(Locale.ROOT, ",%.4f,%.3f,%d,%d,%.3f",
+                    games / rows, totals[1] / games, totals[2], totals[3], totals[4] / games));
+            for (int column = 0; column < meanColumns.length; column++) {
+                line.append(String.format(Locale.ROOT, ",%.3f", totals[5 + column] / games));
+            }
+            out.println(line);
+        }
+    }
+
+    private static List<String> splitList(String list) {
+        List<String> items = new ArrayList<>();
+        for (String item : list.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * The values of the group columns of a row, ordered value by value
+     */
+    private static class GroupKey implements Comparable<GroupKey> {
+        private final int[] values;
+
+        GroupKey(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && Arrays.equals(values, ((GroupKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public int compareTo(GroupKey other) {
+            for (int pos = 0; pos < values.length; pos++) {
+                if (values[pos] != other.values[pos]) {
+                    return Integer.compare(values[pos], other.values[pos]);
+                }
+            }
+            return 0;
+        }
+    }
+}
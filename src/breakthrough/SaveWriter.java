@@ -0,0 +1,369 @@
+package breakthrough;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes saved games in the format of game1.txt on a background thread, so the player never waits for the disk
+ * <p>
+ * Each save is written to a temporary file next to the save, forced to disk and renamed over the save, so the
+ * save is always either the old game or the new one in full and {@link Breakthrough#loadGame(String)} never finds
+ * half a file, even after a crash. A save which is still waiting when a newer one of the same file arrives is
+ * replaced by it.
+ * <p>
+ * The saves which arrive within a short window of each other, from any number of games, are written as one batch:
+ * all the files are written, then all are forced to disk one after the other, then all are renamed and each
+ * directory is forced once. So many sessions saving at once cost one round of syncs rather than one each.
+ * <p>
+ * A game which shares the writer with others, e.g. a {@link GameSession}, claims its save first with
+ * {@link SaveWriter#claim(Path)}, so two games can never write over each other's save.
+ */
+class SaveWriter {
+    /**
+     * The time the writer waits for more saves to join a batch, set with -Dbreakthrough.saveBatchMillis
+     */
+    public static final long DEFAULT_BATCH_MILLIS = Long.getLong("breakthrough.saveBatchMillis", 5);
+    private static volatile SaveWriter shared;
+
+    private final long batchMillis;
+    // The saves waiting to be written, in the order they arrived, guarded by itself
+    private final Map<Path, PendingSave> pending = new LinkedHashMap<>();
+    // The saves which belong to one game each, guarded by itself
+    private final Set<Path> claimed = new HashSet<>();
+    private long saves;
+    private long savesFinished;
+
+    /**
+     * Constructor for a SaveWriter, which starts its thread straight away
+     *
+     * @param batchMillis the time to wait for more saves to join a batch
+     */
+    public SaveWriter(long batchMillis) {
+        this.batchMillis = batchMillis;
+        Thread thread = new Thread(this::writeBatches, "save-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the writer shared by every game in the JVM, started the first time it is asked for
+     *
+     * @return the shared writer
+     */
+    public static SaveWriter getShared() {
+        if (shared == null) {
+            synchronized (SaveWriter.class) {
+                if (shared == null) {
+                    shared = new SaveWriter(DEFAULT_BATCH_MILLIS);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Waits for the saves queued with the shared writer, if it has been started
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public static void flushShared() throws InterruptedException {
+        if (shared != null) {
+            shared.flush();
+        }
+    }
+
+    /**
+     * Queues a game to be saved, without waiting for it to be written
+     *
+     * @param file     the save to write
+     * @param snapshot the game to save
+     * @return completed with true once the save is on disk, false if it could not be written
+     */
+    public CompletableFuture<Boolean> save(Path file, SaveSnapshot snapshot) {
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        // Two names for the same file must not share a temporary file in one batch
+        file = file.toAbsolutePath().normalize();
+        synchronized (pending) {
+            PendingSave save = pending.get(file);
+            if (save == null) {
+                save = new PendingSave(file);
+                pending.put(file, save);
+            }
+            save.snapshot = snapshot;
+            save.waiting.add(written);
+            saves++;
+            pending.notifyAll();
+        }
+        return written;
+    }
+
+    /**
+     * Reserves a save for one game until it is released
+     *
+     * @param file the save
+     * @return true if the save is now the caller's, false if another game has already claimed it
+     */
+    public boolean claim(Path file) {
+        synchronized (claimed) {
+            return claimed.add(file.toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Lets another game claim a save, once the game which claimed it is over
+     *
+     * @param file the save
+     */
+    public void release(Path file) {
+        synchronized (claimed) {
+            claimed.remove(file.toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Waits until every save queued before this call has been written or has failed
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (pending) {
+            long target = saves;
+            while (savesFinished < target) {
+                pending.wait();
+            }
+        }
+    }
+
+    private void writeBatches() {
+        while (true) {
+            List<PendingSave> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeBatch(batch);
+            synchronized (pending) {
+                for (PendingSave save : batch) {
+                    savesFinished += save.waiting.size();
+                }
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a save, then for the batch window, and takes every save waiting
+     */
+    private List<PendingSave> takeBatch() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.isEmpty()) {
+                pending.wait();
+            }
+        }
+        if (batchMillis > 0) {
+            Thread.sleep(batchMillis);
+        }
+        synchronized (pending) {
+            List<PendingSave> batch = new ArrayList<>(pending.values());
+            pending.clear();
+            return batch;
+        }
+    }
+
+    /**
+     * Writes every save of a batch to its temporary file, forces them all to disk, then renames them over the saves
+     */
+    private void writeBatch(List<PendingSave> batch) {
+        List<FileChannel> channels = new ArrayList<>();
+        for (PendingSave save : batch) {
+            FileChannel channel = null;
+            try {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(save.snapshot.toText());
+                channel = FileChannel.open(save.getTemporaryFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Nothing a save holds can stop the writer writing the others
+                save.failed = true;
+                close(channel);
+                channel = null;
+            }
+            channels.add(channel);
+        }
+        // The syncs come one after the other once everything is written, so the disk can take them together
+        for (int count = 0; count < batch.size(); count++) {
+            FileChannel channel = channels.get(count);
+            if (channel != null) {
+                try {
+                    channel.force(true);
+                } catch (IOException e) {
+                    batch.get(count).failed = true;
+                }
+                close(channel);
+            }
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        for (PendingSave save : batch) {
+            if (!save.failed) {
+                try {
+                    rename(save.getTemporaryFile(), save.file);
+                    directories.add(save.file.getParent());
+                } catch (IOException e) {
+                    save.failed = true;
+                }
+            }
+        }
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        for (PendingSave save : batch) {
+            for (CompletableFuture<Boolean> written : save.waiting) {
+                written.complete(!save.failed);
+            }
+        }
+    }
+
+    private static void rename(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces a directory to disk so the renames in it survive a crash
+     * <br>
+     * Not every platform can open a directory, in which case the rename is as safe as the platform makes it
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The files themselves are already on disk
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The data has already been forced, or the save has already failed
+            }
+        }
+    }
+
+    /**
+     * The latest game waiting to be written to one save, and everyone waiting for it
+     */
+    private static class PendingSave {
+        private final Path file;
+        private SaveSnapshot snapshot;
+        private final List<CompletableFuture<Boolean>> waiting = new ArrayList<>(1);
+        private boolean failed;
+
+        PendingSave(Path file) {
+            this.file = file;
+        }
+
+        Path getTemporaryFile() {
+            return file.resolveSibling(file.getFileName() + ".tmp");
+        }
+    }
+}
+
+/**
+ * A game as it is to be saved, which does not change as the game carries on
+ * <p>
+ * Taking a snapshot copies the score and the met flags. The cards are shared with the game's collections where
+ * they are packed, and those collections copy their cards before they next change, see
+ * {@link CardCollection#snapshotCodes()}. So a snapshot costs the game a few small arrays and the text is only
+ * built on the writer's thread.
+ */
+final class SaveSnapshot {
+    private final int score;
+    private final Lock lock;
+    private final boolean[] met;
+    private final SavedCards[] collections;
+
+    /**
+     * Constructor for a SaveSnapshot
+     *
+     * @param score       the score
+     * @param lock        the current lock, whose challenges are never changed once it is loaded
+     * @param collections the hand, sequence, discard pile and deck
+     */
+    SaveSnapshot(int score, Lock lock, CardCollection... collections) {
+        this.score = score;
+        this.lock = lock;
+        met = new boolean[lock.getNumberOfChallenges()];
+        for (int count = 0; count < met.length; count++) {
+            met[count] = lock.getChallengeMet(count);
+        }
+        this.collections = new SavedCards[collections.length];
+        for (int collection = 0; collection < collections.length; collection++) {
+            this.collections[collection] = collections[collection].snapshotCodes();
+        }
+    }
+
+    /**
+     * Returns the game in the format of game1.txt, the format {@link Breakthrough#loadGame(String)} reads
+     *
+     * @return the lines of the save
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(score).append(System.lineSeparator());
+        text.append(lock.getSaveLine()).append(System.lineSeparator());
+        for (int count = 0; count < met.length; count++) {
+            text.append(count > 0 ? ";" : "").append(met[count] ? 'Y' : 'N');
+        }
+        text.append(System.lineSeparator());
+        for (SavedCards cards : collections) {
+            for (int pos = 0; pos < cards.size; pos++) {
+                int code = cards.getCodeAt(pos);
+                text.append(pos > 0 ? "," : "").append(CardCode.getDescription(code)).append(' ').append(CardCode.getCardNumber(code));
+            }
+            text.append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+}
+
+/**
+ * Cards packed by {@link CardCode}, laid out as a ring of a power of two length which is never changed
+ */
+final class SavedCards {
+    private final int[] codes;
+    private final int head;
+    final int size;
+
+    SavedCards(int[] codes, int head, int size) {
+        this.codes = codes;
+        this.head = head;
+        this.size = size;
+    }
+
+    int getCodeAt(int pos) {
+        return codes[(head + pos) & (codes.length - 1)];
+    }
+}
@@ -0,0 +1,140 @@
+package breakthrough;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the games of the most recently active {@link GameSession}s in memory and spills the rest to disk
+ * <p>
+ * Sessions are kept in least recently used order. When a session handles a line and there are more than the
+ * maximum number in memory, the least recently used ones are written to the spill directory and let go of.
+ * A spilled game is loaded again by its session when the player's next line arrives, so the memory of the games
+ * follows the players who are playing rather than the players who are connected. Each connection still holds its
+ * thread and its small buffers while its game is spilled, see {@link GameServer}.
+ * <p>
+ * Each cache spills into a directory of its own, made when the cache is, so servers which share a spill
+ * directory never read each other's games.
+ * <p>
+ * A spill file is a header: the magic number "BTSN", the version and two spare bytes, then the game as written by
+ * {@link Breakthrough#writeSession(java.io.DataOutputStream)}, whose cards and lock are a {@link BinarySave} record.
+ */
+class SessionCache {
+    public static final int MAGIC = 0x4254534E;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    private final int maxResident;
+    private final File directory;
+    // In least recently used order, so the first sessions are the ones to spill
+    private final LinkedHashMap<Long, GameSession> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong restores = new AtomicLong();
+
+    /**
+     * Constructor for a SessionCache
+     *
+     * @param maxResident the most games to keep in memory
+     * @param parent      the directory to make the cache's spill directory in, which is made if it does not exist
+     * @throws IOException if the spill directory can't be made
+     */
+    public SessionCache(int maxResident, File parent) throws IOException {
+        this.maxResident = Math.max(maxResident, 1);
+        Files.createDirectories(parent.toPath());
+        directory = Files.createTempDirectory(parent.toPath(), "breakthrough-sessions-").toFile();
+        // Every spill file is deleted when its session ends, so the directory is empty by the time the JVM exits
+        directory.deleteOnExit();
+    }
+
+    /**
+     * Returns the directory the games are spilled to
+     *
+     * @return the spill directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    long newSessionId() {
+        return nextSessionId.incrementAndGet();
+    }
+
+    File getSpillFile(long sessionId) {
+        return new File(directory, "session-" + sessionId + ".bin");
+    }
+
+    /**
+     * Marks a session as the most recently used, then spills the least recently used sessions beyond the maximum
+     * <br>
+     * A session which is handling a line can't be spilled and is kept
+     *
+     * @param session the session which is being used
+     */
+    public void touch(GameSession session) {
+        List<GameSession> toSpill = new ArrayList<>();
+        synchronized (resident) {
+            resident.put(session.getId(), session);
+            Iterator<GameSession> oldest = resident.values().iterator();
+            while (resident.size() > maxResident && oldest.hasNext()) {
+                GameSession s = oldest.next();
+                if (s != session) {
+                    oldest.remove();
+                    toSpill.add(s);
+                }
+            }
+        }
+        // Disk is only written once no other session is held up waiting for the cache
+        for (GameSession s : toSpill) {
+            if (!s.spill()) {
+                synchronized (resident) {
+                    resident.put(s.getId(), s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a session which is over, along with anything it has spilled
+     *
+     * @param session the session which is over
+     */
+    public void remove(GameSession session) {
+        synchronized (resident) {
+            resident.remove(session.getId());
+        }
+        getSpillFile(session.getId()).delete();
+    }
+
+    void countSpill() {
+        spills.incrementAndGet();
+    }
+
+    void countRestore() {
+        restores.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of games in memory
+     *
+     * @return the number of games in memory
+     */
+    public int getNumberOfResident() {
+        synchronized (resident) {
+            return resident.size();
+        }
+    }
+
+    public long getSpills() {
+        return spills.get();
+    }
+
+    public long getRestores() {
+        return restores.get();
+    }
+}